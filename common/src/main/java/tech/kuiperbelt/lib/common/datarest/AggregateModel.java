@@ -0,0 +1,24 @@
+package tech.kuiperbelt.lib.common.datarest;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springframework.hateoas.RepresentationModel;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 聚合查询的结果, groups 中每个分组一行, 包含分组字段以及以聚合函数为名字的值
+ */
+public class AggregateModel extends RepresentationModel<AggregateModel> {
+
+    private final List<Map<String, Object>> groups;
+
+    public AggregateModel(List<Map<String, Object>> groups) {
+        this.groups = groups;
+    }
+
+    @JsonProperty("groups")
+    public List<Map<String, Object>> getGroups() {
+        return groups;
+    }
+}
@@ -0,0 +1,140 @@
+package tech.kuiperbelt.lib.common.datarest;
+
+import cz.jirutka.rsql.parser.RSQLParserException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.rest.webmvc.BasePathAwareController;
+import org.springframework.data.rest.webmvc.PersistentEntityResourceAssembler;
+import org.springframework.data.rest.webmvc.ResourceNotFoundException;
+import org.springframework.hateoas.RepresentationModel;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+import tech.kuiperbelt.lib.common.jpa.QueryLimitExceededException;
+import tech.kuiperbelt.lib.common.web.HttpErrorResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * POST /search/batch, 在只读事务中并发执行多个 findByFilter, 合并返回; 单个查询失败不影响其他查询<br>
+ * 请求体是 BatchSearchRequest 的数组, 每个查询的参数与 /{repository}/search/findByFilter 相同。
+ * 路径不以 repository 开头, 所以不能放在 SearchController 中
+ */
+@Slf4j
+@BasePathAwareController
+public class BatchSearchController {
+
+    private static final String BATCH_SEARCH = "/search/batch";
+
+    @Autowired
+    private SearchController searchController;
+
+    @Autowired
+    @Qualifier("batchSearchThreadPoolTaskExecutor")
+    private Executor batchSearchExecutor;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    /**
+     * 一次批量查询最多包含的查询个数
+     */
+    @Value("${tech.kuiperbelt.data-rest.batch-search.max-entries:20}")
+    private int batchSearchMaxEntries;
+
+    /**
+     * 不在请求线程的事务中执行, 每个查询在线程池中使用自己的只读事务, 结果也在这个事务中生成,
+     * 以便访问延迟加载的属性; 请求的 RequestAttributes 传递给线程池, 用于生成链接
+     */
+    @ResponseBody
+    @RequestMapping(value = BATCH_SEARCH, method = RequestMethod.POST)
+    public ResponseEntity<Object> batchSearch(@RequestBody List<BatchSearchRequest> searches,
+                                              PersistentEntityResourceAssembler assembler) {
+        if(searches.size() > batchSearchMaxEntries) {
+            throw new QueryLimitExceededException("max-batch-entries", batchSearchMaxEntries, searches.size());
+        }
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setName("kuiperbelt-batch-search");
+        readOnly.setReadOnly(true);
+
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        List<CompletableFuture<RepresentationModel<?>>> futures = new ArrayList<>(searches.size());
+        for(BatchSearchRequest search : searches) {
+            futures.add(CompletableFuture.supplyAsync(() -> withRequestAttributes(requestAttributes,
+                    () -> readOnly.execute(status -> searchController.search(search, assembler))), batchSearchExecutor));
+        }
+        List<BatchSearchModel.Result> results = new ArrayList<>(searches.size());
+        for(int i = 0; i < searches.size(); i++) {
+            BatchSearchRequest search = searches.get(i);
+            try {
+                RepresentationModel<?> model = futures.get(i).join();
+                results.add(new BatchSearchModel.Result(search.getRepository(), HttpStatus.OK.value(), model, null));
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause() == null ? e : e.getCause();
+                HttpStatus status = toStatus(cause);
+                log.warn("批量查询中的查询失败, repository: {}, filter: {}, 信息: {}", search.getRepository(), search.getFilter(), cause.getMessage());
+                log.debug("批量查询中的查询失败, repository: {}, filter: {}", search.getRepository(), search.getFilter(), cause);
+                results.add(new BatchSearchModel.Result(search.getRepository(), status.value(), null, HttpErrorResponse.builder()
+                        .code(toErrorCode(cause, status))
+                        .temporary(status == HttpStatus.SERVICE_UNAVAILABLE)
+                        .message(cause instanceof InvalidDataAccessApiUsageException ?
+                                ((InvalidDataAccessApiUsageException) cause).getMostSpecificCause().getMessage() : cause.getMessage())
+                        .build()));
+            }
+        }
+        return ResponseEntity.ok(new BatchSearchModel(results));
+    }
+
+    private static <R> R withRequestAttributes(RequestAttributes requestAttributes, Supplier<R> supplier) {
+        RequestAttributes previous = RequestContextHolder.getRequestAttributes();
+        RequestContextHolder.setRequestAttributes(requestAttributes);
+        try {
+            return supplier.get();
+        } finally {
+            RequestContextHolder.setRequestAttributes(previous);
+        }
+    }
+
+    private static HttpStatus toStatus(Throwable e) {
+        if(e instanceof ResourceNotFoundException) {
+            return HttpStatus.NOT_FOUND;
+        } else if(e instanceof QueryLimitExceededException
+                || e instanceof IllegalArgumentException
+                || e instanceof InvalidDataAccessApiUsageException
+                || e instanceof RSQLParserException) {
+            return HttpStatus.BAD_REQUEST;
+        } else if(e instanceof QueryTimeoutException) {
+            return HttpStatus.SERVICE_UNAVAILABLE;
+        }
+        return HttpStatus.INTERNAL_SERVER_ERROR;
+    }
+
+    private static String toErrorCode(Throwable e, HttpStatus status) {
+        if(e instanceof QueryLimitExceededException) {
+            return "query_limit_exceeded";
+        } else if(e instanceof QueryTimeoutException) {
+            return "query_timeout";
+        } else if(status == HttpStatus.NOT_FOUND) {
+            return "resource_not_found";
+        } else if(status == HttpStatus.BAD_REQUEST) {
+            return "bad_request";
+        }
+        return e.getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,47 @@
+package tech.kuiperbelt.lib.common.datarest;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.hateoas.RepresentationModel;
+import tech.kuiperbelt.lib.common.web.HttpErrorResponse;
+
+import java.util.List;
+
+/**
+ * 批量查询的结果, results 与请求中的查询一一对应
+ */
+public class BatchSearchModel extends RepresentationModel<BatchSearchModel> {
+
+    private final List<Result> results;
+
+    public BatchSearchModel(List<Result> results) {
+        this.results = results;
+    }
+
+    @JsonProperty("results")
+    public List<Result> getResults() {
+        return results;
+    }
+
+    /**
+     * 一个查询的结果, 成功时只有 result, 失败时只有 error
+     */
+    @Getter
+    @AllArgsConstructor
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Result {
+        /** repository 的路径 */
+        private final String repository;
+
+        /** 与单独查询时相同的 HTTP 状态码 */
+        private final int status;
+
+        /** 查询结果, 与 findByFilter 的返回相同, 但是没有分页链接 */
+        private final RepresentationModel<?> result;
+
+        /** 失败的原因 */
+        private final HttpErrorResponse error;
+    }
+}
@@ -0,0 +1,35 @@
+package tech.kuiperbelt.lib.common.datarest;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 批量查询中的一个查询, 参数与 /{repository}/search/findByFilter 相同
+ */
+@Data
+public class BatchSearchRequest {
+    /** repository 的路径, 例如 foos */
+    private String repository;
+
+    /** RSQL filter */
+    private String filter;
+
+    /** 页码, 从 0 开始, 默认 0 */
+    private Integer page;
+
+    /** 每页的行数, 默认 20 */
+    private Integer size;
+
+    /** 排序, 格式与 sort 参数相同, 例如 createdTime,desc */
+    private List<String> sort;
+
+    /** 总数的计算方式: exact(默认), none, estimated */
+    private String count;
+
+    /** 以 fetch join 一起加载的关联属性 */
+    private List<String> fetch;
+
+    /** 实体上声明的 NamedEntityGraph */
+    private String graph;
+}
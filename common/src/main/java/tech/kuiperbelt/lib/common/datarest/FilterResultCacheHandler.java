@@ -0,0 +1,57 @@
+package tech.kuiperbelt.lib.common.datarest;
+
+import org.hibernate.Hibernate;
+import org.springframework.data.rest.core.annotation.*;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import tech.kuiperbelt.lib.common.jpa.BaseEntity;
+import tech.kuiperbelt.lib.common.jpa.FilterResultCache;
+
+/**
+ * spring-data-rest 新增、保存、删除 entity 之后, 使这个 entity 类型的 findByFilter 结果缓存失效
+ */
+@RepositoryEventHandler
+public class FilterResultCacheHandler {
+
+    @HandleAfterCreate
+    public void afterCreate(BaseEntity baseEntity) {
+        invalidate(baseEntity);
+    }
+
+    @HandleAfterSave
+    public void afterSave(BaseEntity baseEntity) {
+        invalidate(baseEntity);
+    }
+
+    @HandleAfterDelete
+    public void afterDelete(BaseEntity baseEntity) {
+        invalidate(baseEntity);
+    }
+
+    @HandleAfterLinkSave
+    public void afterLinkSave(BaseEntity baseEntity, Object linked) {
+        invalidate(baseEntity);
+    }
+
+    @HandleAfterLinkDelete
+    public void afterLinkDelete(BaseEntity baseEntity, Object linked) {
+        invalidate(baseEntity);
+    }
+
+    /**
+     * 立即失效一次, 事务结束后再失效一次, 避免事务提交前的并发查询把旧数据重新放入缓存
+     * @param baseEntity
+     */
+    private void invalidate(BaseEntity baseEntity) {
+        Class<?> domainClass = Hibernate.getClass(baseEntity);
+        FilterResultCache.invalidate(domainClass);
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    FilterResultCache.invalidate(domainClass);
+                }
+            });
+        }
+    }
+}
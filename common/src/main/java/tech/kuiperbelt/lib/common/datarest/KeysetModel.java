@@ -0,0 +1,36 @@
+package tech.kuiperbelt.lib.common.datarest;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.hateoas.CollectionModel;
+import org.springframework.hateoas.Link;
+
+/**
+ * keyset 分页的返回结果, 与 PagedModel 类似, 但是没有总数和页码, 只有下一页的游标
+ * @param <T>
+ */
+public class KeysetModel<T> extends CollectionModel<T> {
+
+    private final CursorMetadata cursor;
+
+    public KeysetModel(Iterable<T> content, CursorMetadata cursor, Link... links) {
+        super(content, links);
+        this.cursor = cursor;
+    }
+
+    @JsonProperty("cursor")
+    public CursorMetadata getCursor() {
+        return cursor;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class CursorMetadata {
+        /** 每页的行数 */
+        private final long size;
+
+        /** 下一页的游标, 作为 after 参数传回; 没有下一页时为空 */
+        private final String next;
+    }
+}
@@ -1,18 +1,22 @@
 package tech.kuiperbelt.lib.common.datarest;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.web.filter.ForwardedHeaderFilter;
 
+import java.util.concurrent.ThreadPoolExecutor;
+
 /**
  * Customized Spring data rest config
  */
 @Configuration
-@Import({KuiperbeltDataRestExceptionHandlerAdvice.class,MvcValidatorHandler.class, LogHandler.class})
+@Import({KuiperbeltDataRestExceptionHandlerAdvice.class,MvcValidatorHandler.class, LogHandler.class, FilterResultCacheHandler.class})
 public class KuiperbeltDataRestAutoConfig {
 
     /**
@@ -36,6 +40,25 @@ public class KuiperbeltDataRestAutoConfig {
         return bean;
     }
 
+    /**
+     * 批量查询的线程池, 队列满时由请求线程自己执行, 限制同时占用的连接数
+     * @param threads 线程数
+     * @param queueCapacity 等待执行的查询个数
+     * @return
+     */
+    @Bean(name = "batchSearchThreadPoolTaskExecutor")
+    public ThreadPoolTaskExecutor batchSearchThreadPoolTaskExecutor(
+            @Value("${tech.kuiperbelt.data-rest.batch-search.threads:8}") int threads,
+            @Value("${tech.kuiperbelt.data-rest.batch-search.queue-capacity:100}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("batch-search-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        return executor;
+    }
+
     /**
      * Wrap all spring data rest event handler in one transaction.
      * @param transactionManager
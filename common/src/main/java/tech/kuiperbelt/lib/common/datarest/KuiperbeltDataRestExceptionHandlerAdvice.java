@@ -2,6 +2,8 @@ package tech.kuiperbelt.lib.common.datarest;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.dao.QueryTimeoutException;
 import org.springframework.data.repository.support.QueryMethodParameterConversionException;
 import org.springframework.data.rest.core.RepositoryConstraintViolationException;
 import org.springframework.data.rest.webmvc.ResourceNotFoundException;
@@ -13,19 +15,21 @@ import org.springframework.transaction.TransactionSystemException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import tech.kuiperbelt.lib.common.jpa.QueryLimitExceededException;
 import tech.kuiperbelt.lib.common.web.HttpErrorResponse;
 
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
- * Too handler Exception thrown by Spring data rest framework
+ * Too handler Exception thrown by Spring data rest framework, 以及 SearchController 中增强的 Rest API
  */
 @Slf4j
-@RestControllerAdvice(basePackages = "org.springframework.data.rest.webmvc")
+@RestControllerAdvice(basePackages = "org.springframework.data.rest.webmvc", assignableTypes = {SearchController.class, BatchSearchController.class})
 @Component
 public class KuiperbeltDataRestExceptionHandlerAdvice {
 
@@ -165,6 +169,51 @@ public class KuiperbeltDataRestExceptionHandlerAdvice {
         return result;
     }
 
+    @ExceptionHandler
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public HttpErrorResponse queryLimitExceededException(QueryLimitExceededException e) {
+        Map<String, String> details = new LinkedHashMap<>();
+        details.put("limit", e.getLimit());
+        details.put("maximum", String.valueOf(e.getMaximum()));
+        details.put("actual", String.valueOf(e.getActual()));
+        HttpErrorResponse result = HttpErrorResponse.builder()
+                .code("query_limit_exceeded")
+                .message(e.getMessage())
+                .detail(details)
+                .build();
+        log.warn("异常： QueryLimitExceededException, 信息：{}， 返回:{}", e.getMessage(), result.toString());
+        return result;
+    }
+
+    @ExceptionHandler
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public HttpErrorResponse invalidDataAccessApiUsageException(InvalidDataAccessApiUsageException e) {
+        // repository 抛出的 IllegalArgumentException 会被 Spring 转换成 InvalidDataAccessApiUsageException, 例如 filter 中的属性不存在
+        String message = e.getMostSpecificCause().getMessage();
+        HttpErrorResponse result = HttpErrorResponse.builder()
+                .code("bad_request")
+                .message(message)
+                .detail(Collections.emptyMap())
+                .build();
+        log.warn("异常： InvalidDataAccessApiUsageException, 信息：{}， 返回:{}", message, result.toString());
+        log.debug("异常： InvalidDataAccessApiUsageException, 信息：{}， 返回:{}", message, result.toString(), e);
+        return result;
+    }
+
+    @ExceptionHandler
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public HttpErrorResponse queryTimeoutException(QueryTimeoutException e) {
+        HttpErrorResponse result = HttpErrorResponse.builder()
+                .code("query_timeout")
+                .temporary(true)
+                .message("查询超时, 请缩小查询范围")
+                .detail(Collections.singletonMap("detail", e.getMessage()))
+                .build();
+        log.warn("异常： QueryTimeoutException, 信息：{}， 返回:{}", e.getMessage(), result.toString());
+        log.debug("异常： QueryTimeoutException, 信息：{}， 返回:{}", e.getMessage(), result.toString(), e);
+        return result;
+    }
+
     @ExceptionHandler
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     public HttpErrorResponse exception(IllegalArgumentException e) {
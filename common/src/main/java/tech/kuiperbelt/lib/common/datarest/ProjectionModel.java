@@ -0,0 +1,23 @@
+package tech.kuiperbelt.lib.common.datarest;
+
+import com.fasterxml.jackson.annotation.JsonAnyGetter;
+import org.springframework.hateoas.RepresentationModel;
+
+import java.util.Map;
+
+/**
+ * 投影查询的一行, 只包含请求的字段以及 self 链接
+ */
+public class ProjectionModel extends RepresentationModel<ProjectionModel> {
+
+    private final Map<String, Object> fields;
+
+    public ProjectionModel(Map<String, Object> fields) {
+        this.fields = fields;
+    }
+
+    @JsonAnyGetter
+    public Map<String, Object> getFields() {
+        return fields;
+    }
+}
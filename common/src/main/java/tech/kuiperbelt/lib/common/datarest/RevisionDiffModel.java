@@ -0,0 +1,24 @@
+package tech.kuiperbelt.lib.common.datarest;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springframework.hateoas.RepresentationModel;
+import tech.kuiperbelt.lib.common.jpa.audit.RevisionDiff;
+
+import java.util.List;
+
+/**
+ * 版本比较的结果, 每个 diff 只包含有变化的字段
+ */
+public class RevisionDiffModel extends RepresentationModel<RevisionDiffModel> {
+
+    private final List<RevisionDiff> diffs;
+
+    public RevisionDiffModel(List<RevisionDiff> diffs) {
+        this.diffs = diffs;
+    }
+
+    @JsonProperty("diffs")
+    public List<RevisionDiff> getDiffs() {
+        return diffs;
+    }
+}
@@ -1,10 +1,17 @@
 package tech.kuiperbelt.lib.common.datarest;
 
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import org.hibernate.envers.Audited;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.core.annotation.AnnotationUtils;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mapping.context.PersistentEntities;
 import org.springframework.data.repository.core.RepositoryInformation;
 import org.springframework.data.repository.support.Repositories;
 import org.springframework.data.rest.core.mapping.ResourceMappings;
@@ -13,29 +20,72 @@ import org.springframework.data.rest.webmvc.PersistentEntityResource;
 import org.springframework.data.rest.webmvc.PersistentEntityResourceAssembler;
 import org.springframework.data.rest.webmvc.RepositoryRestController;
 import org.springframework.data.rest.webmvc.ResourceNotFoundException;
+import org.springframework.data.rest.webmvc.json.JacksonMappingAwareSortTranslator;
+import org.springframework.data.rest.webmvc.mapping.Associations;
+import org.springframework.data.rest.webmvc.support.RepositoryEntityLinks;
 import org.springframework.data.web.PageableDefault;
 import org.springframework.data.web.PagedResourcesAssembler;
+import org.springframework.hateoas.IanaLinkRelations;
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.LinkRelation;
 import org.springframework.hateoas.PagedModel;
+import org.springframework.hateoas.RepresentationModel;
+import org.springframework.hateoas.server.core.EmbeddedWrappers;
+import org.springframework.hateoas.server.mvc.TypeConstrainedMappingJackson2HttpMessageConverter;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import tech.kuiperbelt.lib.common.jpa.BaseEntity;
+import tech.kuiperbelt.lib.common.jpa.CountMode;
+import tech.kuiperbelt.lib.common.jpa.audit.RevisionDiff;
+import tech.kuiperbelt.lib.common.jpa.FetchPlan;
+import tech.kuiperbelt.lib.common.jpa.KeysetSlice;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.transaction.Transactional;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 /**
  * 为Entity 增强 Rest API
- * 1 /{repository}/search/findByFilter
- * 2 /{repository}/{entityId}/audits/*
+ * 1 /{repository}/search/findByFilter, 带 after 参数时使用 keyset 分页;
+ *   count 参数指定总数的计算方式: exact(默认) 执行 count 查询, none 不计算总数,
+ *   estimated 使用数据库的统计信息估算 (只用于空的 filter, 带 filter 时与 none 相同);
+ *   fields 参数指定只返回的字段(逗号分隔), 使用投影查询, 不加载实体;
+ *   fetch 参数指定以 fetch join 一起加载的关联属性(逗号分隔), graph 参数指定实体上声明的 NamedEntityGraph;
+ *   asOf 参数指定 revision 编号或者日期时间, 在 Envers 的历史快照上查询
+ * 2 /{repository}/search/aggregateByFilter, 按照 groupBy 分组, 计算 aggregate 中的聚合函数(count, sum, min, max, avg)
+ * 3 /{repository}/search/streamByFilter, 以 NDJSON 逐行输出所有符合条件的实体, 用于导出
+ * 4 /{repository}/{entityId}/audits/*, audits 分页查询同样支持 count 参数, none 时不执行 count 查询;
+ *   audits/diff?from=&to= 在服务端比较两个版本, 只返回有变化的字段
  */
 @RepositoryRestController
 public class SearchController {
 
     private static final String SEARCH_BY_FILTER = "/{repository}/search/findByFilter";
+    private static final String AGGREGATE_BY_FILTER = "/{repository}/search/aggregateByFilter";
+    private static final String STREAM_BY_FILTER = "/{repository}/search/streamByFilter";
+    private static final String NDJSON_VALUE = "application/x-ndjson";
+    /** 与 spring-data-rest 的默认值相同 */
+    private static final int DEFAULT_PAGE_SIZE = 20;
     private static final String FIND_ALL_VERSION = "/{repository}/{entityId}/audits";
     private static final String FIND_A_VERSION = "/{repository}/{entityId}/audits/{version}";
     private static final String FIND_PRIOR_VERSION = "/{repository}/{entityId}/audits/prior";
+    private static final String DIFF_VERSIONS = "/{repository}/{entityId}/audits/diff";
 
     @Autowired
     Repositories repositories;
@@ -43,11 +93,31 @@ public class SearchController {
     @Autowired
     private ResourceMappings mappings;
 
+    @Autowired
+    private RepositoryEntityLinks entityLinks;
+
+    @Autowired
+    @Qualifier("halJacksonHttpMessageConverter")
+    private TypeConstrainedMappingJackson2HttpMessageConverter halJacksonHttpMessageConverter;
+
+    @Autowired
+    private PersistentEntities persistentEntities;
+
+    @Autowired
+    private Associations associations;
+
     @Transactional
     @ResponseBody
     @RequestMapping(value = SEARCH_BY_FILTER, method = RequestMethod.GET)
     public ResponseEntity<Object> executeSearch(@PathVariable("repository")String repositoryKey,
-                                           @RequestParam("filter") String filter, @PageableDefault Pageable pageable,
+                                           @RequestParam("filter") String filter,
+                                                @RequestParam(value = "after", required = false) String after,
+                                                @RequestParam(value = "count", required = false) String count,
+                                                @RequestParam(value = "fields", required = false) List<String> fields,
+                                                @RequestParam(value = "fetch", required = false) List<String> fetch,
+                                                @RequestParam(value = "graph", required = false) String graph,
+                                                @RequestParam(value = "asOf", required = false) String asOf,
+                                                @PageableDefault Pageable pageable,
                                                 PersistentEntityResourceAssembler assembler) throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
 
         Class<?> domainType = findDomainType(repositoryKey);
@@ -57,19 +127,163 @@ public class SearchController {
                 .orElseThrow(() -> new ResourceNotFoundException("repositoryInformation not found with domainType: " + domainType));
 
         String findByFilterMethod = "findByFilter";
-        Method method = repositoryInformation.getRepositoryInterface().getMethod(findByFilterMethod, String.class, Pageable.class);
-        Page result = (Page) method.invoke(repository, filter, pageable);
+        if(asOf != null) {
+            // 历史快照上的查询
+            if(after != null || (fields != null && !fields.isEmpty()) || fetch != null || graph != null) {
+                throw new IllegalArgumentException("asOf 参数不支持 after, fields, fetch, graph 参数");
+            }
+            if(AnnotationUtils.getAnnotation(domainType, Audited.class) == null ) {
+                throw new ResourceNotFoundException(domainType + " is not audited yet.");
+            }
+            CountMode countMode = parseCountMode(count);
+            Method method = repositoryInformation.getRepositoryInterface().getMethod("findByFilterAsOf", String.class, String.class, Pageable.class, CountMode.class);
+            Page<?> result = (Page<?>) invoke(method, repository, filter, asOf, pageable, countMode);
+            if(countMode != CountMode.EXACT) {
+                return ResponseEntity.ok(toSliceModel(domainType, result, assembler));
+            }
+            PagedResourcesAssembler pagedResourcesAssembler = new PagedResourcesAssembler(null,null);
+            @SuppressWarnings("unchecked") PagedModel pagedModel = pagedResourcesAssembler.toModel(result, assembler);
+            return ResponseEntity.ok(pagedModel);
+        }
+        if(fields != null && !fields.isEmpty()) {
+            if(after != null) {
+                throw new IllegalArgumentException("fields 参数不支持 keyset 分页");
+            }
+            CountMode countMode = parseCountMode(count).forFilter(filter);
+            Method method = repositoryInformation.getRepositoryInterface().getMethod("findFieldsByFilter", String.class, List.class, Pageable.class, CountMode.class);
+            @SuppressWarnings("unchecked")
+            Page<Map<String, Object>> result = (Page<Map<String, Object>>) invoke(method, repository, filter, fields, pageable, countMode);
+            return ResponseEntity.ok(toProjectionModel(domainType, result, countMode));
+        }
+        FetchPlan fetchPlan = FetchPlan.of(fetch, graph);
+        if(after != null) {
+            // keyset 分页, 第一页传空的 after
+            Method method = repositoryInformation.getRepositoryInterface().getMethod(findByFilterMethod, String.class, String.class, Pageable.class, FetchPlan.class);
+            KeysetSlice<?> result = (KeysetSlice<?>) invoke(method, repository, filter, after, pageable, fetchPlan);
+            return ResponseEntity.ok(toKeysetModel(domainType, result, assembler));
+        }
+        CountMode countMode = parseCountMode(count).forFilter(filter);
+        if(countMode == CountMode.NONE) {
+            Method method = repositoryInformation.getRepositoryInterface().getMethod("findSliceByFilter", String.class, Pageable.class, FetchPlan.class);
+            Slice<?> result = (Slice<?>) invoke(method, repository, filter, pageable, fetchPlan);
+            return ResponseEntity.ok(toSliceModel(domainType, result, assembler));
+        }
+        Method method = repositoryInformation.getRepositoryInterface().getMethod(findByFilterMethod, String.class, Pageable.class, CountMode.class, FetchPlan.class);
+        Page result = (Page) invoke(method, repository, filter, pageable, countMode, fetchPlan);
         PagedResourcesAssembler pagedResourcesAssembler = new PagedResourcesAssembler(null,null);
         @SuppressWarnings("unchecked") PagedModel pagedModel = pagedResourcesAssembler.toModel(result, assembler);
 
         return ResponseEntity.ok(pagedModel);
     }
 
+    @Transactional
+    @ResponseBody
+    @RequestMapping(value = AGGREGATE_BY_FILTER, method = RequestMethod.GET)
+    public ResponseEntity<Object> aggregateByFilter(@PathVariable("repository")String repositoryKey,
+                                                    @RequestParam(value = "filter", required = false) String filter,
+                                                    @RequestParam(value = "groupBy", required = false) List<String> groupBy,
+                                                    @RequestParam(value = "aggregate", required = false) List<String> aggregates) throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
+
+        Class<?> domainType = findDomainType(repositoryKey);
+        Object repository = repositories.getRepositoryFor(domainType)
+                .orElseThrow(() -> new ResourceNotFoundException("repository not found with domainType: " + domainType));
+        RepositoryInformation repositoryInformation = repositories.getRepositoryInformationFor(domainType)
+                .orElseThrow(() -> new ResourceNotFoundException("repositoryInformation not found with domainType: " + domainType));
+
+        Method method = repositoryInformation.getRepositoryInterface().getMethod("aggregateByFilter", String.class, List.class, List.class);
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> result = (List<Map<String, Object>>) invoke(method, repository, filter, groupBy, aggregates);
+        AggregateModel model = new AggregateModel(result);
+        model.add(new Link(ServletUriComponentsBuilder.fromCurrentRequest().build().toUriString(), IanaLinkRelations.SELF));
+        return ResponseEntity.ok(model);
+    }
+
+    @Transactional
+    @RequestMapping(value = STREAM_BY_FILTER, method = RequestMethod.GET)
+    public void streamByFilter(@PathVariable("repository")String repositoryKey,
+                               @RequestParam(value = "filter", required = false) String filter,
+                               Sort sort,
+                               PersistentEntityResourceAssembler assembler,
+                               HttpServletResponse response) throws NoSuchMethodException, InvocationTargetException, IllegalAccessException, IOException {
+
+        Class<?> domainType = findDomainType(repositoryKey);
+        Object repository = repositories.getRepositoryFor(domainType)
+                .orElseThrow(() -> new ResourceNotFoundException("repository not found with domainType: " + domainType));
+        RepositoryInformation repositoryInformation = repositories.getRepositoryInformationFor(domainType)
+                .orElseThrow(() -> new ResourceNotFoundException("repositoryInformation not found with domainType: " + domainType));
+
+        Method method = repositoryInformation.getRepositoryInterface().getMethod("streamByFilter", String.class, Sort.class, Consumer.class);
+        ObjectWriter writer = halJacksonHttpMessageConverter.getObjectMapper().writer()
+                .without(SerializationFeature.INDENT_OUTPUT);
+        response.setContentType(NDJSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        Writer output = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+        // 每一行写入缓冲区后即可丢弃, 内存占用与结果的行数无关
+        Consumer<Object> consumer = entity -> {
+            try {
+                output.write(writer.writeValueAsString(assembler.toModel(entity)));
+                output.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+        invoke(method, repository, filter, sort, consumer);
+        output.flush();
+    }
+
+    /**
+     * 执行批量查询中的一个查询并生成结果; count 为 none 时返回 SliceModel。
+     * 需要在查询的事务中调用, 生成结果时可能访问实体的延迟加载属性
+     */
+    RepresentationModel<?> search(BatchSearchRequest search, PersistentEntityResourceAssembler assembler) {
+        Class<?> domainType = findDomainType(search.getRepository());
+        Object repository = repositories.getRepositoryFor(domainType)
+                .orElseThrow(() -> new ResourceNotFoundException("repository not found with domainType: " + domainType));
+        RepositoryInformation repositoryInformation = repositories.getRepositoryInformationFor(domainType)
+                .orElseThrow(() -> new ResourceNotFoundException("repositoryInformation not found with domainType: " + domainType));
+
+        Sort sort = Sort.unsorted();
+        if(search.getSort() != null) {
+            for(String order : search.getSort()) {
+                String[] parts = order.split(",");
+                Sort.Direction direction = parts.length > 1 ?
+                        Sort.Direction.fromOptionalString(parts[1].trim()).orElse(Sort.Direction.ASC) : Sort.Direction.ASC;
+                sort = sort.and(Sort.by(direction, parts[0].trim()));
+            }
+            // 与 findByFilter 的 sort 参数一样, 把 JSON 中的属性名转换成实体的属性名
+            sort = new JacksonMappingAwareSortTranslator.SortTranslator(persistentEntities,
+                    halJacksonHttpMessageConverter.getObjectMapper(), associations)
+                    .translateSort(sort, persistentEntities.getRequiredPersistentEntity(domainType));
+        }
+        Pageable pageable = PageRequest.of(search.getPage() == null ? 0 : search.getPage(),
+                search.getSize() == null ? DEFAULT_PAGE_SIZE : search.getSize(), sort);
+        CountMode countMode = parseCountMode(search.getCount()).forFilter(search.getFilter());
+        FetchPlan fetchPlan = FetchPlan.of(search.getFetch(), search.getGraph());
+        Slice<?> slice;
+        try {
+            if(countMode == CountMode.NONE) {
+                Method method = repositoryInformation.getRepositoryInterface().getMethod("findSliceByFilter", String.class, Pageable.class, FetchPlan.class);
+                slice = (Slice<?>) invoke(method, repository, search.getFilter(), pageable, fetchPlan);
+            } else {
+                Method method = repositoryInformation.getRepositoryInterface().getMethod("findByFilter", String.class, Pageable.class, CountMode.class, FetchPlan.class);
+                slice = (Page<?>) invoke(method, repository, search.getFilter(), pageable, countMode, fetchPlan);
+            }
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException(e);
+        }
+        List<Object> content = toContent(domainType, slice, assembler);
+        return slice instanceof Page ?
+                new PagedModel<>(content, new PagedModel.PageMetadata(slice.getSize(), slice.getNumber(),
+                        ((Page<?>) slice).getTotalElements(), ((Page<?>) slice).getTotalPages())) :
+                new SliceModel<>(content, new SliceModel.SliceMetadata(slice.getSize(), slice.getNumber(), slice.hasNext()));
+    }
+
     @Transactional
     @ResponseBody
     @RequestMapping(value = FIND_ALL_VERSION, method = RequestMethod.GET)
     public ResponseEntity<Object> findAllVersions(@PathVariable("repository")String repositoryKey,
                                                   @PathVariable("entityId") Long entityId,
+                                                  @RequestParam(value = "count", required = false) String count,
                                                   @PageableDefault Pageable pageable,
                                                   PersistentEntityResourceAssembler assembler) throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
 
@@ -83,8 +297,13 @@ public class SearchController {
                 .orElseThrow(() -> new ResourceNotFoundException("repositoryInformation not found with domainType: " + domainType));
 
         String findAllVersionsMethod = "findAllVersions";
-        Method method = repositoryInformation.getRepositoryInterface().getMethod(findAllVersionsMethod, Long.class, Pageable.class);
-        Page result = (Page) method.invoke(repository, entityId, pageable);
+        CountMode countMode = parseCountMode(count);
+        Method method = repositoryInformation.getRepositoryInterface().getMethod(findAllVersionsMethod, Long.class, Pageable.class, CountMode.class);
+        Page result = (Page) invoke(method, repository, entityId, pageable, countMode);
+        if(countMode != CountMode.EXACT) {
+            // 没有执行 count 查询, 只输出是否还有下一页
+            return ResponseEntity.ok(toSliceModel(domainType, result, assembler));
+        }
         PagedResourcesAssembler pagedResourcesAssembler = new PagedResourcesAssembler(null,null);
         @SuppressWarnings("unchecked") PagedModel pagedModel = pagedResourcesAssembler.toModel(result, assembler);
 
@@ -110,7 +329,7 @@ public class SearchController {
 
         String findVersionsMethod = "findVersion";
         Method method = repositoryInformation.getRepositoryInterface().getMethod(findVersionsMethod, Long.class, Long.class);
-        Optional<?> result = (Optional<?>) method.invoke(repository, entityId, version);
+        Optional<?> result = (Optional<?>) invoke(method, repository, entityId, version);
         if(result.isPresent()) {
             PersistentEntityResource persistentEntityResource = assembler.toModel(result.get());
             return ResponseEntity.ok(persistentEntityResource);
@@ -137,7 +356,7 @@ public class SearchController {
 
         String findPriorVersionsMethod = "findPriorVersion";
         Method method = repositoryInformation.getRepositoryInterface().getMethod(findPriorVersionsMethod, Long.class);
-        Optional<?> result = (Optional<?>) method.invoke(repository, entityId);
+        Optional<?> result = (Optional<?>) invoke(method, repository, entityId);
         if(result.isPresent()) {
             PersistentEntityResource persistentEntityResource = assembler.toModel(result.get());
             return ResponseEntity.ok(persistentEntityResource);
@@ -146,7 +365,149 @@ public class SearchController {
         }
     }
 
-    private Class<?> findDomainType(String repositoryKey) {
+    /**
+     * 在服务端比较两个版本, 只返回有变化的字段; range=true 时依次比较 from 与 to 之间相邻的版本
+     */
+    @Transactional
+    @ResponseBody
+    @RequestMapping(value = DIFF_VERSIONS, method = RequestMethod.GET)
+    public ResponseEntity<?> diffVersions(@PathVariable("repository")String repositoryKey,
+                                          @PathVariable("entityId") Long entityId,
+                                          @RequestParam("from") Long fromVersion,
+                                          @RequestParam("to") Long toVersion,
+                                          @RequestParam(value = "range", defaultValue = "false") boolean range) throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
+
+        Class<?> domainType = findDomainType(repositoryKey);
+        if(AnnotationUtils.getAnnotation(domainType, Audited.class) == null ) {
+            throw new ResourceNotFoundException(domainType + " is not audited yet.");
+        }
+        Object repository = repositories.getRepositoryFor(domainType)
+                .orElseThrow(() -> new ResourceNotFoundException("repository not found with domainType: " + domainType));
+        RepositoryInformation repositoryInformation = repositories.getRepositoryInformationFor(domainType)
+                .orElseThrow(() -> new ResourceNotFoundException("repositoryInformation not found with domainType: " + domainType));
+
+        List<RevisionDiff> diffs;
+        if(range) {
+            Method method = repositoryInformation.getRepositoryInterface().getMethod("diffVersionRange", Long.class, Long.class, Long.class);
+            //noinspection unchecked
+            diffs = (List<RevisionDiff>) invoke(method, repository, entityId, fromVersion, toVersion);
+        } else {
+            Method method = repositoryInformation.getRepositoryInterface().getMethod("diffVersions", Long.class, Long.class, Long.class);
+            Optional<?> result = (Optional<?>) invoke(method, repository, entityId, fromVersion, toVersion);
+            if(!result.isPresent()) {
+                return ResponseEntity.notFound().build();
+            }
+            diffs = Collections.singletonList((RevisionDiff) result.get());
+        }
+        RevisionDiffModel model = new RevisionDiffModel(diffs);
+        model.add(new Link(ServletUriComponentsBuilder.fromCurrentRequest().build().toUriString(), IanaLinkRelations.SELF));
+        return ResponseEntity.ok(model);
+    }
+
+    /**
+     * 调用 repository 的方法, repository 抛出的运行时异常原样抛出, 以便 KuiperbeltDataRestExceptionHandlerAdvice 按类型处理
+     */
+    private Object invoke(Method method, Object repository, Object... args) throws IllegalAccessException, InvocationTargetException {
+        try {
+            return method.invoke(repository, args);
+        } catch (InvocationTargetException e) {
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private CountMode parseCountMode(String count) {
+        if(count == null || count.isEmpty()) {
+            return CountMode.EXACT;
+        }
+        try {
+            return CountMode.valueOf(count.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("不支持的 count 参数: " + count + ", 可选值为 exact, none, estimated", e);
+        }
+    }
+
+    private RepresentationModel<?> toProjectionModel(Class<?> domainType, Page<Map<String, Object>> page, CountMode countMode) {
+        LinkRelation rel = mappings.getMetadataFor(domainType).getRel();
+        // 只有一行时也输出为数组
+        EmbeddedWrappers wrappers = new EmbeddedWrappers(true);
+        List<Object> content = new ArrayList<>();
+        for(Map<String, Object> row : page) {
+            Map<String, Object> fields = new LinkedHashMap<>(row);
+            ProjectionModel model = new ProjectionModel(fields);
+            Object id = fields.get(BaseEntity.Fields.id);
+            if(id != null) {
+                // 与实体的 JSON 一致, id 以字符串输出
+                fields.put(BaseEntity.Fields.id, String.valueOf(id));
+                model.add(entityLinks.linkToItemResource(domainType, id).withSelfRel());
+            }
+            content.add(wrappers.wrap(model, rel));
+        }
+        if(content.isEmpty()) {
+            content = Collections.singletonList(wrappers.emptyCollectionOf(domainType));
+        }
+        List<Link> links = pageLinks(page);
+        if(countMode == CountMode.NONE) {
+            return new SliceModel<>(content,
+                    new SliceModel.SliceMetadata(page.getSize(), page.getNumber(), page.hasNext()),
+                    links.toArray(new Link[0]));
+        }
+        return new PagedModel<>(content,
+                new PagedModel.PageMetadata(page.getSize(), page.getNumber(), page.getTotalElements(), page.getTotalPages()),
+                links);
+    }
+
+    private SliceModel<Object> toSliceModel(Class<?> domainType, Slice<?> slice, PersistentEntityResourceAssembler assembler) {
+        List<Object> content = toContent(domainType, slice, assembler);
+        return new SliceModel<>(content,
+                new SliceModel.SliceMetadata(slice.getSize(), slice.getNumber(), slice.hasNext()),
+                pageLinks(slice).toArray(new Link[0]));
+    }
+
+    private List<Link> pageLinks(Slice<?> slice) {
+        List<Link> links = new ArrayList<>();
+        links.add(new Link(ServletUriComponentsBuilder.fromCurrentRequest().build().toUriString(), IanaLinkRelations.SELF));
+        if(slice.hasPrevious()) {
+            links.add(new Link(ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("page", slice.getNumber() - 1)
+                    .build().toUriString(), IanaLinkRelations.PREV));
+        }
+        if(slice.hasNext()) {
+            links.add(new Link(ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("page", slice.getNumber() + 1)
+                    .build().toUriString(), IanaLinkRelations.NEXT));
+        }
+        return links;
+    }
+
+    private List<Object> toContent(Class<?> domainType, Slice<?> slice, PersistentEntityResourceAssembler assembler) {
+        List<Object> content = new ArrayList<>();
+        for(Object entity : slice) {
+            content.add(assembler.toModel(entity));
+        }
+        if(content.isEmpty()) {
+            content = Collections.singletonList(new EmbeddedWrappers(false).emptyCollectionOf(domainType));
+        }
+        return content;
+    }
+
+    private KeysetModel<Object> toKeysetModel(Class<?> domainType, KeysetSlice<?> slice, PersistentEntityResourceAssembler assembler) {
+        List<Object> content = toContent(domainType, slice, assembler);
+        List<Link> links = new ArrayList<>();
+        links.add(new Link(ServletUriComponentsBuilder.fromCurrentRequest().build().toUriString(), IanaLinkRelations.SELF));
+        if(slice.hasNext()) {
+            links.add(new Link(ServletUriComponentsBuilder.fromCurrentRequest()
+                    .replaceQueryParam("after", slice.getNextCursor())
+                    .build().toUriString(), IanaLinkRelations.NEXT));
+        }
+        return new KeysetModel<>(content,
+                new KeysetModel.CursorMetadata(slice.getSize(), slice.getNextCursor()),
+                links.toArray(new Link[0]));
+    }
+
+    Class<?> findDomainType(String repositoryKey) {
         for (Class<?> domainType : repositories) {
             ResourceMetadata m = mappings.getMetadataFor(domainType);
             if (m.getPath().matches(repositoryKey) && m.isExported()) {
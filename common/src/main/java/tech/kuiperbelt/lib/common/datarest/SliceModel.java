@@ -0,0 +1,39 @@
+package tech.kuiperbelt.lib.common.datarest;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.hateoas.CollectionModel;
+import org.springframework.hateoas.Link;
+
+/**
+ * 不计算总数的分页结果, 与 PagedModel 类似, 但是 page 中没有 totalElements 和 totalPages, 只有是否还有下一页
+ * @param <T>
+ */
+public class SliceModel<T> extends CollectionModel<T> {
+
+    private final SliceMetadata page;
+
+    public SliceModel(Iterable<T> content, SliceMetadata page, Link... links) {
+        super(content, links);
+        this.page = page;
+    }
+
+    @JsonProperty("page")
+    public SliceMetadata getPage() {
+        return page;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class SliceMetadata {
+        /** 每页的行数 */
+        private final long size;
+
+        /** 当前页码, 从 0 开始 */
+        private final long number;
+
+        /** 是否还有下一页 */
+        private final boolean hasNext;
+    }
+}
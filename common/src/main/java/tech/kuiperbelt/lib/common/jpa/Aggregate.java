@@ -0,0 +1,107 @@
+package tech.kuiperbelt.lib.common.jpa;
+
+import lombok.Getter;
+import org.springframework.util.ClassUtils;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Root;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 聚合查询中的一个聚合函数, 格式为 function(field), 例如 sum(amount); count 可以省略字段, 表示统计行数<br>
+ * sum 和 avg 只能用于数值类型的属性, min 和 max 可以用于数值、日期和字符串
+ */
+@Getter
+public class Aggregate {
+
+    private static final Pattern PATTERN = Pattern.compile("^\\s*(\\w+)\\s*(?:\\(\\s*([\\w.*]*)\\s*\\))?\\s*$");
+
+    /** 聚合函数 */
+    private final Function function;
+
+    /** 聚合的字段, 为空表示统计行数 */
+    private final String field;
+
+    /** 在结果中的名字, 例如 sum(amount) */
+    private final String name;
+
+    private Aggregate(Function function, String field) {
+        this.function = function;
+        this.field = field;
+        this.name = function.name().toLowerCase(Locale.ROOT) + (field == null ? "" : "(" + field + ")");
+    }
+
+    /**
+     * 解析聚合函数
+     * @param expression 例如 count, count(*), sum(amount)
+     * @return
+     */
+    public static Aggregate parse(String expression) {
+        Matcher matcher = PATTERN.matcher(expression);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("无法解析聚合函数: " + expression);
+        }
+        Function function;
+        try {
+            function = Function.valueOf(matcher.group(1).toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("不支持的聚合函数: " + expression + ", 可选值为 count, sum, min, max, avg", e);
+        }
+        String field = matcher.group(2);
+        if (field == null || field.isEmpty() || "*".equals(field)) {
+            if (function != Function.COUNT) {
+                throw new IllegalArgumentException("聚合函数 " + expression + " 必须指定字段");
+            }
+            field = null;
+        }
+        return new Aggregate(function, field);
+    }
+
+    /**
+     * 生成聚合表达式
+     * @param root
+     * @param criteriaBuilder
+     * @param fieldResolver 将字段名解析为属性路径
+     * @return
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public Expression<?> toExpression(Root<?> root, CriteriaBuilder criteriaBuilder, java.util.function.Function<String, Path<?>> fieldResolver) {
+        if (field == null) {
+            return criteriaBuilder.count(root);
+        }
+        Path path = fieldResolver.apply(field);
+        boolean numeric = Number.class.isAssignableFrom(ClassUtils.resolvePrimitiveIfNecessary(path.getJavaType()));
+        switch (function) {
+            case COUNT:
+                return criteriaBuilder.count(path);
+            case SUM:
+                return criteriaBuilder.sum(requireNumeric(path, numeric));
+            case AVG:
+                return criteriaBuilder.avg(requireNumeric(path, numeric));
+            case MIN:
+                return numeric ? criteriaBuilder.min(path) : criteriaBuilder.least(path);
+            case MAX:
+                return numeric ? criteriaBuilder.max(path) : criteriaBuilder.greatest(path);
+            default:
+                throw new UnsupportedOperationException("不支持的聚合函数: " + name);
+        }
+    }
+
+    private Path requireNumeric(Path path, boolean numeric) {
+        if (!numeric) {
+            throw new IllegalArgumentException(String.format("聚合函数 %s 只能用于数值类型的字段", name));
+        }
+        return path;
+    }
+
+    /**
+     * 支持的聚合函数
+     */
+    public enum Function {
+        COUNT, SUM, MIN, MAX, AVG
+    }
+}
@@ -2,13 +2,20 @@ package tech.kuiperbelt.lib.common.jpa;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.repository.NoRepositoryBean;
 import org.springframework.data.repository.query.Param;
 import org.springframework.data.rest.core.annotation.RestResource;
+import tech.kuiperbelt.lib.common.jpa.audit.RevisionDiff;
 
 import javax.persistence.EntityNotFoundException;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 
 /**
@@ -32,10 +39,153 @@ public interface BaseRepository<T> extends JpaRepository<T, Long> {
 
     Page<T> findByFilter(@Param("filter") String filter, Pageable pageable);
 
+    /**
+     * 按照 countMode 计算总数的分页查询
+     * @param filter RSQL filter
+     * @param pageable
+     * @param countMode NONE 时总数只保证不小于已经取到的行数, ESTIMATED 时总数来自数据库的统计信息
+     * @return
+     */
+    @RestResource(exported = false)
+    Page<T> findByFilter(String filter, Pageable pageable, CountMode countMode);
+
+    /**
+     * 按照 fetchPlan 一起加载关联对象的分页查询
+     * @param filter RSQL filter, 可以为空
+     * @param pageable
+     * @param countMode
+     * @param fetchPlan 可以为空
+     * @return
+     */
+    @RestResource(exported = false)
+    Page<T> findByFilter(String filter, Pageable pageable, CountMode countMode, FetchPlan fetchPlan);
+
+    /**
+     * 在 Envers 的历史快照上执行 filter 查询, 结果是 asOf 时刻的 entity
+     * @param filter RSQL filter, 可以为空; 只支持 entity 自己的属性
+     * @param asOf revision 编号, 或者 ISO 格式的日期/日期时间 (取该时刻之前最后一个 revision)
+     * @param pageable
+     * @param countMode EXACT 执行 count 查询, 其他不执行
+     * @return
+     */
+    @RestResource(exported = false)
+    Page<T> findByFilterAsOf(String filter, String asOf, Pageable pageable, CountMode countMode);
+
+    /**
+     * 不执行 count 查询的分页, 多取一行判断是否还有下一页
+     * @param filter RSQL filter
+     * @param pageable
+     * @return
+     */
+    @RestResource(exported = false)
+    Slice<T> findSliceByFilter(String filter, Pageable pageable);
+
+    /**
+     * 按照 fetchPlan 一起加载关联对象, 不执行 count 查询的分页
+     * @param filter RSQL filter, 可以为空
+     * @param pageable
+     * @param fetchPlan 可以为空
+     * @return
+     */
+    @RestResource(exported = false)
+    Slice<T> findSliceByFilter(String filter, Pageable pageable, FetchPlan fetchPlan);
+
+    /**
+     * 投影查询, 只查询 fields 中的字段, 不加载实体
+     * @param filter RSQL filter, 可以为空
+     * @param fields 字段名, 可以用 . 访问嵌入对象或者关联对象的属性; 结果中总是包含 id
+     * @param pageable
+     * @param countMode
+     * @return 每一行是字段名到值的映射, 顺序与 fields 相同
+     */
+    @RestResource(exported = false)
+    Page<Map<String, Object>> findFieldsByFilter(String filter, List<String> fields, Pageable pageable, CountMode countMode);
+
+    /**
+     * 以只进的游标逐行读取所有符合条件的实体, 用于导出<br>
+     * 每读取一定行数会清空持久化上下文, 之前交给 consumer 的实体以及调用方在同一事务中加载的实体都会被 detach,
+     * consumer 不能保留这些实体, 也不要在同一事务中修改实体; 查询不受 QueryLimits 的超时限制
+     * @param filter RSQL filter, 可以为空
+     * @param sort 排序
+     * @param consumer 处理每一行
+     * @return 读取的行数
+     */
+    @RestResource(exported = false)
+    long streamByFilter(String filter, Sort sort, Consumer<? super T> consumer);
+
+    /**
+     * 聚合查询, 在一个 group by 查询中完成统计
+     * @param filter RSQL filter, 可以为空
+     * @param groupBy 分组的字段, 可以为空
+     * @param aggregates 聚合函数, 例如 count, sum(amount), min(createdTime); 为空时只统计行数
+     * @return 每个分组一行, 包含分组字段以及以聚合函数为名字的值, 按分组字段升序排列
+     */
+    @RestResource(exported = false)
+    List<Map<String, Object>> aggregateByFilter(String filter, List<String> groupBy, List<String> aggregates);
+
+    /**
+     * 将 filter 编译成内存中的 Predicate, 直接对已加载的 entity 求值, 编译结果按 filter 缓存
+     * @param filter RSQL filter, 为空时所有 entity 都满足
+     * @return
+     */
+    @RestResource(exported = false)
+    Predicate<T> compilePredicate(String filter);
+
+    /**
+     * keyset 分页, 从游标 after 之后开始取一页, 不执行 count 查询
+     * @param filter RSQL filter, 可以为空
+     * @param after 上一页返回的游标, 为空表示第一页
+     * @param pageable 只使用 size 和 sort, 忽略 page
+     * @return
+     */
+    @RestResource(exported = false)
+    KeysetSlice<T> findByFilter(String filter, String after, Pageable pageable);
+
+    /**
+     * 按照 fetchPlan 一起加载关联对象的 keyset 分页
+     * @param filter RSQL filter, 可以为空
+     * @param after 上一页返回的游标, 为空表示第一页
+     * @param pageable 只使用 size 和 sort, 忽略 page
+     * @param fetchPlan 可以为空
+     * @return
+     */
+    @RestResource(exported = false)
+    KeysetSlice<T> findByFilter(String filter, String after, Pageable pageable, FetchPlan fetchPlan);
+
     Page<T> findAllVersions(Long entityId, Pageable pageable);
 
+    /**
+     * 分页查询 entity 的所有版本
+     * @param entityId
+     * @param pageable
+     * @param countMode NONE 不执行 count 查询, 返回的 Page 只有 hasNext 是可信的
+     * @return
+     */
+    @RestResource(exported = false)
+    Page<T> findAllVersions(Long entityId, Pageable pageable, CountMode countMode);
+
     Optional<T> findVersion(Long entityId, Long version);
 
     Optional<T> findPriorVersion(Long entityId);
 
+    /**
+     * 比较 entity 的两个版本, 只返回有变化的字段
+     * @param entityId
+     * @param fromVersion
+     * @param toVersion
+     * @return 任何一个版本不存在时为空
+     */
+    @RestResource(exported = false)
+    Optional<RevisionDiff> diffVersions(Long entityId, Long fromVersion, Long toVersion);
+
+    /**
+     * 依次比较 fromVersion 与 toVersion 之间相邻的两个版本, 版本个数受 max-page-size 限制
+     * @param entityId
+     * @param fromVersion
+     * @param toVersion
+     * @return
+     */
+    @RestResource(exported = false)
+    List<RevisionDiff> diffVersionRange(Long entityId, Long fromVersion, Long toVersion);
+
 }
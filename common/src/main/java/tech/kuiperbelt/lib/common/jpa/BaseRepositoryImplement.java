@@ -1,17 +1,66 @@
 package tech.kuiperbelt.lib.common.jpa;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import cz.jirutka.rsql.parser.RSQLParser;
+import cz.jirutka.rsql.parser.ast.Node;
+import cz.jirutka.rsql.parser.ast.RSQLVisitor;
+import org.hibernate.CacheMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.envers.query.AuditEntity;
+import org.hibernate.envers.query.criteria.AuditCriterion;
+import org.hibernate.envers.query.criteria.AuditProperty;
+import org.hibernate.envers.query.order.AuditOrder;
+import org.hibernate.query.Query;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.support.JpaEntityInformation;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+import org.springframework.data.repository.support.PageableExecutionUtils;
 import org.springframework.data.jpa.repository.support.SimpleJpaRepository;
 import org.springframework.data.repository.query.Param;
+import org.springframework.util.ReflectionUtils;
 import tech.kuiperbelt.lib.common.jpa.audit.AuditRepository;
 import tech.kuiperbelt.lib.common.jpa.audit.AuditRepositoryImpl;
+import tech.kuiperbelt.lib.common.jpa.audit.RevisionDiff;
 
 import javax.persistence.EntityManager;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.From;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.SingularAttribute;
+import java.lang.reflect.Field;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * Base Repository implementation.
@@ -20,26 +69,486 @@ import java.util.Optional;
  */
 public class BaseRepositoryImplement<T> extends SimpleJpaRepository<T, Long>  implements BaseRepository<T> {
 
+    /**
+     * RSQLParser 每次解析都创建新的 Parser, 可以在线程间共享; 支持 KuiperbeltRSQLOperators 中增加的运算符
+     */
+    private static final RSQLParser RSQL_PARSER = new RSQLParser(KuiperbeltRSQLOperators.operators());
+
+    /**
+     * id, version 以及修改人和修改时间放在 RevisionDiff 中, 不作为变化的字段
+     */
+    private static final Set<String> DIFF_EXCLUDED_FIELDS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            BaseEntity.Fields.id, BaseEntity.Fields.version, BaseEntity.Fields.lastUpdatedBy, BaseEntity.Fields.lastUpdatedTime)));
+
+    /** streamByFilter 每次从数据库读取的行数 */
+    private static volatile int streamFetchSize = 1000;
+
+    /** streamByFilter 每读取多少行清空一次持久化上下文 */
+    private static volatile int streamClearInterval = 1000;
+
     private AuditRepository auditRepository;
 
+    private final EntityManager entityManager;
+
     public BaseRepositoryImplement(JpaEntityInformation<T, ?> entityInformation, EntityManager entityManager) {
         super(entityInformation, entityManager);
+        this.entityManager = entityManager;
         auditRepository = new AuditRepositoryImpl(entityManager);
     }
 
     public BaseRepositoryImplement(Class<T> domainClass, EntityManager entityManager) {
         super(domainClass, entityManager);
+        this.entityManager = entityManager;
         auditRepository = new AuditRepositoryImpl(entityManager);
     }
 
     @Override
     public Page<T> findByFilter(@Param("filter") String filter, Pageable pageable) {
-        Specification accept = new RSQLParser()
-                .parse(filter)
-                .accept(new GenericRSQLVisitor<>());
+        getQueryLimits().checkPageable(pageable);
+        RSQLFilterCache.CompiledFilter<T> compiled = compileFilter(filter);
+        if(!FilterResultCache.isCacheable(getDomainClass())) {
+            return this.findAll(compiled.getSpecification(), pageable);
+        }
+        // 以 AST 作为规范化的 filter, 只是空白或者括号不同的 filter 共用缓存
+        FilterResultCache.Key key = FilterResultCache.keyOf(getDomainClass(), FilterResultCache.normalize(compiled.getNode()), pageable);
+        FilterResultCache.CachedPage cached = FilterResultCache.get(key);
+        if(cached != null) {
+            return new PageImpl<>(findAllInOrder(cached.getIds()), pageable, cached.getTotal());
+        }
+        Page<T> page = this.findAll(compiled.getSpecification(), pageable);
+        List<Long> ids = page.getContent().stream()
+                .map(entity -> ((BaseEntity) entity).getId())
+                .collect(Collectors.toList());
+        FilterResultCache.put(key, new FilterResultCache.CachedPage(ids, page.getTotalElements()));
+        return page;
+    }
+
+    /**
+     * 按 id 加载实体, 保持 ids 的顺序; 已经不存在的实体被忽略
+     */
+    private List<T> findAllInOrder(List<Long> ids) {
+        if(ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<Long, T> loaded = new HashMap<>();
+        for(T entity : findAllById(ids)) {
+            loaded.put(((BaseEntity) entity).getId(), entity);
+        }
+        List<T> content = new ArrayList<>(ids.size());
+        for(Long id : ids) {
+            T entity = loaded.get(id);
+            if(entity != null) {
+                content.add(entity);
+            }
+        }
+        return content;
+    }
+
+    @Override
+    public Page<T> findByFilter(String filter, Pageable pageable, CountMode countMode) {
+        return findByFilter(filter, pageable, countMode, null);
+    }
+
+    @Override
+    public Page<T> findByFilter(String filter, Pageable pageable, CountMode countMode, FetchPlan fetchPlan) {
+        if(countMode == null || countMode == CountMode.EXACT) {
+            if(fetchPlan == null || fetchPlan.isEmpty()) {
+                return findByFilter(filter, pageable);
+            }
+            getQueryLimits().checkPageable(pageable);
+            // count 查询中 fetchPlan 不会加入 fetch join
+            Specification<T> specification = fetchPlan.applyTo(toSpecification(filter));
+            TypedQuery<T> query = fetchPlan.applyTo(getQuery(specification, pageable), entityManager);
+            return readPage(query, getDomainClass(), pageable, specification);
+        }
+        return toPage(findSliceByFilter(filter, pageable, fetchPlan), pageable, countMode.forFilter(filter));
+    }
+
+    @Override
+    public Slice<T> findSliceByFilter(String filter, Pageable pageable) {
+        return findSliceByFilter(filter, pageable, null);
+    }
+
+    @Override
+    public Slice<T> findSliceByFilter(String filter, Pageable pageable, FetchPlan fetchPlan) {
+        getQueryLimits().checkPageable(pageable);
+        return fetchSlice(getQuery(toSpecification(filter), pageable.getSort(), fetchPlan), pageable);
+    }
+
+    @Override
+    public Page<Map<String, Object>> findFieldsByFilter(String filter, List<String> fields, Pageable pageable, CountMode countMode) {
+        getQueryLimits().checkPageable(pageable);
+        Specification<T> specification = toSpecification(filter);
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = criteriaBuilder.createTupleQuery();
+        Root<T> root = query.from(getDomainClass());
+
+        // 总是带上 id, 用于生成 self 链接
+        Set<String> selected = new LinkedHashSet<>();
+        if(BaseEntity.class.isAssignableFrom(getDomainClass())) {
+            selected.add(BaseEntity.Fields.id);
+        }
+        selected.addAll(fields);
+        List<Selection<?>> selections = new ArrayList<>(selected.size());
+        for(String field : selected) {
+            selections.add(findField(root, field));
+        }
+        query.multiselect(selections);
+        if(specification != null) {
+            Predicate predicate = specification.toPredicate(root, query, criteriaBuilder);
+            if(predicate != null) {
+                query.where(predicate);
+            }
+        }
+        if(pageable.getSort().isSorted()) {
+            query.orderBy(QueryUtils.toOrders(pageable.getSort(), root, criteriaBuilder));
+        }
+
+        TypedQuery<Tuple> typedQuery = getQueryLimits().applyTimeout(entityManager.createQuery(query));
+        Page<Tuple> tuples;
+        if(countMode == null || countMode == CountMode.EXACT) {
+            if(pageable.isPaged()) {
+                typedQuery.setFirstResult((int) pageable.getOffset());
+                typedQuery.setMaxResults(pageable.getPageSize());
+            }
+            tuples = PageableExecutionUtils.getPage(typedQuery.getResultList(), pageable, () -> count(specification));
+        } else {
+            tuples = toPage(fetchSlice(typedQuery, pageable), pageable, countMode.forFilter(filter));
+        }
+        List<String> names = new ArrayList<>(selected);
+        return tuples.map(tuple -> {
+            Map<String, Object> row = new LinkedHashMap<>();
+            for(int i = 0; i < names.size(); i++) {
+                row.put(names.get(i), tuple.get(i));
+            }
+            return row;
+        });
+    }
+
+    @Override
+    public List<Map<String, Object>> aggregateByFilter(String filter, List<String> groupBy, List<String> aggregates) {
+        List<String> groupFields = groupBy == null ? Collections.emptyList() : groupBy;
+        List<Aggregate> functions = new ArrayList<>();
+        if(aggregates == null || aggregates.isEmpty()) {
+            functions.add(Aggregate.parse("count"));
+        } else {
+            aggregates.forEach(aggregate -> functions.add(Aggregate.parse(aggregate)));
+        }
+
+        Specification<T> specification = toSpecification(filter);
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = criteriaBuilder.createTupleQuery();
+        Root<T> root = query.from(getDomainClass());
+
+        List<Selection<?>> selections = new ArrayList<>();
+        List<Expression<?>> groups = new ArrayList<>();
+        for(String field : groupFields) {
+            Path<?> path = findField(root, field);
+            groups.add(path);
+            selections.add(path);
+        }
+        for(Aggregate aggregate : functions) {
+            selections.add(aggregate.toExpression(root, criteriaBuilder, field -> findField(root, field)));
+        }
+        query.multiselect(selections);
+        if(specification != null) {
+            Predicate predicate = specification.toPredicate(root, query, criteriaBuilder);
+            if(predicate != null) {
+                query.where(predicate);
+            }
+        }
+        if(!groups.isEmpty()) {
+            query.groupBy(groups);
+            query.orderBy(groups.stream().map(criteriaBuilder::asc).collect(Collectors.toList()));
+        }
+
+        List<String> names = new ArrayList<>(groupFields);
+        functions.forEach(aggregate -> names.add(aggregate.getName()));
+        // 分组数按照每页的最大行数限制, 多读一行用于判断是否超出
+        QueryLimits limits = getQueryLimits();
+        TypedQuery<Tuple> typedQuery = limits.applyTimeout(entityManager.createQuery(query));
+        if(limits.getMaxPageSize() > 0) {
+            typedQuery.setMaxResults(limits.getMaxPageSize() + 1);
+        }
+        List<Tuple> tuples = typedQuery.getResultList();
+        limits.checkRows(tuples.size());
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for(Tuple tuple : tuples) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            for(int i = 0; i < names.size(); i++) {
+                row.put(names.get(i), tuple.get(i));
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * 解析投影和聚合查询的字段, 只能是基本类型的属性, 可以用 . 访问嵌入对象或者关联对象的属性;
+     * 关联对象使用 left join (查询中已经存在的 join 会被复用), 关联为空的行不会因为投影或者分组被过滤掉;
+     * 标注了 JsonIgnore 的属性不会出现在实体的 JSON 中, 也不允许投影。子类可以覆盖以支持更多的字段
+     * @param root
+     * @param field
+     * @return
+     */
+    protected Path<?> findField(Root<T> root, String field) {
+        Path<?> path = root;
+        String[] names = field.split("\\.");
+        for(int i = 0; i < names.length; i++) {
+            String name = names[i];
+            Field declared = ReflectionUtils.findField(path.getJavaType(), name);
+            if(declared != null && declared.isAnnotationPresent(JsonIgnore.class)) {
+                throw new IllegalArgumentException(String.format("%s 不允许投影", field));
+            }
+            Path<?> join = i < names.length - 1 ? GenericRSQLSpecification.findJoin(path, name) : null;
+            if(join != null) {
+                path = join;
+            } else if(i < names.length - 1 && path instanceof From && isAssociation(path.getJavaType(), name)) {
+                path = ((From<?, ?>) path).join(name, JoinType.LEFT);
+            } else {
+                path = path.get(name);
+            }
+        }
+        if(!(path.getModel() instanceof SingularAttribute)
+                || ((SingularAttribute<?, ?>) path.getModel()).getPersistentAttributeType() != Attribute.PersistentAttributeType.BASIC) {
+            throw new IllegalArgumentException(String.format("%s 不是基本类型的属性, 不能投影", field));
+        }
+        return path;
+    }
+
+    private boolean isAssociation(Class<?> type, String name) {
+        try {
+            return entityManager.getMetamodel().managedType(type).getAttribute(name).isAssociation();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private Specification<T> toSpecification(String filter) {
+        return filter == null || filter.isEmpty() ? null : compileFilter(filter).getSpecification();
+    }
 
+    /**
+     * 按照 fetchPlan 加入 fetch join 以及 load graph 提示
+     */
+    private TypedQuery<T> getQuery(Specification<T> specification, Sort sort, FetchPlan fetchPlan) {
+        if(fetchPlan == null || fetchPlan.isEmpty()) {
+            return getQuery(specification, sort);
+        }
+        return fetchPlan.applyTo(getQuery(fetchPlan.applyTo(specification), sort), entityManager);
+    }
+
+    /**
+     * 多取一行用来判断是否还有下一页
+     */
+    private static <R> Slice<R> fetchSlice(TypedQuery<R> query, Pageable pageable) {
+        if(pageable.isUnpaged()) {
+            return new SliceImpl<>(query.getResultList(), pageable, false);
+        }
+        query.setFirstResult((int) pageable.getOffset());
+        query.setMaxResults(pageable.getPageSize() + 1);
+        List<R> content = query.getResultList();
+        boolean hasNext = content.size() > pageable.getPageSize();
+        if(hasNext) {
+            content = content.subList(0, pageable.getPageSize());
+        }
+        return new SliceImpl<>(content, pageable, hasNext);
+    }
+
+    /**
+     * 将 filter 翻译成 Envers 的查询条件, 在 asOf 的 revision 上分页查询
+     * @param filter
+     * @param asOf
+     * @param pageable
+     * @param countMode
+     * @return
+     */
+    @Override
+    public Page<T> findByFilterAsOf(String filter, String asOf, Pageable pageable, CountMode countMode) {
+        getQueryLimits().checkPageable(pageable);
+        Optional<Number> revision = findRevision(asOf);
+        if(!revision.isPresent()) {
+            // asOf 早于第一个 revision, 那时还没有任何数据
+            return new PageImpl<>(Collections.emptyList(), pageable, 0);
+        }
+        ManagedType<T> type = entityManager.getMetamodel().managedType(getDomainClass());
+        GenericRSQLAuditVisitor<T> visitor = createAuditVisitor();
+        AuditCriterion criterion = filter == null || filter.isEmpty() ? null : compileFilter(filter).getNode().accept(visitor, type);
+        List<AuditOrder> orders = new ArrayList<>();
+        for(Sort.Order order : pageable.getSort()) {
+            AuditProperty<Object> property = visitor.findProperty(order.getProperty(), type);
+            orders.add(order.isAscending() ? property.asc() : property.desc());
+        }
+        // 分页需要稳定的顺序
+        orders.add(AuditEntity.id().asc());
         //noinspection unchecked
-        return this.findAll(accept, pageable);
+        return auditRepository.findAtRevision(getDomainClass(), revision.get(), criterion, orders, pageable, countMode);
+    }
+
+    private Optional<Number> findRevision(String asOf) {
+        if(asOf == null || asOf.isEmpty()) {
+            throw new IllegalArgumentException("asOf 不能为空");
+        }
+        if(asOf.chars().allMatch(Character::isDigit)) {
+            return Optional.of(Long.valueOf(asOf));
+        }
+        LocalDateTime instant;
+        try {
+            instant = (LocalDateTime) GenericRSQLSpecification.convertArgument(LocalDateTime.class, asOf);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("asOf 只能是 revision 编号或者 ISO 格式的日期时间: " + asOf, e);
+        }
+        return auditRepository.findRevisionAt(instant);
+    }
+
+    /**
+     * 不执行 count 查询, 按照 countMode 给出总数
+     */
+    private <R> Page<R> toPage(Slice<R> slice, Pageable pageable, CountMode countMode) {
+        long fetched = pageable.isPaged() ? pageable.getOffset() + slice.getNumberOfElements() : slice.getNumberOfElements();
+        if(!slice.hasNext()) {
+            // 最后一页, 总数是准确的
+            return new PageImpl<>(slice.getContent(), pageable, fetched);
+        }
+        long total = fetched + 1;
+        if(countMode == CountMode.ESTIMATED) {
+            // 只用于没有 filter 的查询; 统计信息可能滞后, 总数至少要能覆盖已经确认存在的下一页
+            total = Math.max(total, RowCountEstimator.estimate(entityManager, getDomainClass()));
+        }
+        return new PageImpl<>(slice.getContent(), pageable, total);
+    }
+
+    /**
+     * 设置 streamByFilter 的 fetch size 以及清空持久化上下文的间隔
+     * @param fetchSize JDBC fetch size; MySQL 需要在连接串上开启 useCursorFetch=true 才会按 fetch size 分批读取
+     * @param clearInterval 每读取多少行清空一次持久化上下文
+     */
+    static void configureStream(int fetchSize, int clearInterval) {
+        streamFetchSize = Math.max(fetchSize, 1);
+        streamClearInterval = Math.max(clearInterval, 1);
+    }
+
+    @Override
+    public long streamByFilter(String filter, Sort sort, Consumer<? super T> consumer) {
+        // 清空持久化上下文之前先写入未提交的修改, 避免丢失
+        if(entityManager.isJoinedToTransaction()) {
+            entityManager.flush();
+        }
+        // 导出的时间取决于数据量和 consumer, 不使用 tech.kuiperbelt.jpa.query-limit.timeout-millis
+        @SuppressWarnings("unchecked")
+        Query<T> query = super.getQuery(toSpecification(filter), getDomainClass(), sort == null ? Sort.unsorted() : sort)
+                .unwrap(Query.class);
+        query.setFetchSize(streamFetchSize);
+        query.setReadOnly(true);
+        query.setCacheMode(CacheMode.IGNORE);
+        long count = 0;
+        try (ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY)) {
+            while (results.next()) {
+                @SuppressWarnings("unchecked")
+                T entity = (T) results.get(0);
+                consumer.accept(entity);
+                if(++count % streamClearInterval == 0) {
+                    entityManager.clear();
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public KeysetSlice<T> findByFilter(String filter, String after, Pageable pageable) {
+        return findByFilter(filter, after, pageable, null);
+    }
+
+    @Override
+    public KeysetSlice<T> findByFilter(String filter, String after, Pageable pageable, FetchPlan fetchPlan) {
+        if(pageable == null || pageable.isUnpaged()) {
+            throw new IllegalArgumentException("keyset 分页必须指定每页的行数");
+        }
+        getQueryLimits().checkPageable(pageable);
+        Sort sort = KeysetCursor.withIdTieBreaker(pageable.getSort());
+        Specification<T> specification = Specification.where(toSpecification(filter));
+        if(after != null && !after.isEmpty()) {
+            specification = specification.and(KeysetCursor.decode(after, sort).toSpecification(sort));
+        }
+
+        // 多取一行用来判断是否还有下一页
+        TypedQuery<T> query = getQuery(specification, sort, fetchPlan);
+        query.setMaxResults(pageable.getPageSize() + 1);
+        List<T> content = query.getResultList();
+        boolean hasNext = content.size() > pageable.getPageSize();
+        if(hasNext) {
+            content = content.subList(0, pageable.getPageSize());
+        }
+        String nextCursor = hasNext ? KeysetCursor.of(sort, content.get(content.size() - 1)).encode() : null;
+        return new KeysetSlice<>(content, PageRequest.of(0, pageable.getPageSize(), sort), hasNext, nextCursor);
+    }
+
+    @Override
+    public java.util.function.Predicate<T> compilePredicate(String filter) {
+        if(filter == null || filter.isEmpty()) {
+            return entity -> true;
+        }
+        return compileFilter(filter).getPredicate(node -> node.accept(createPredicateVisitor()));
+    }
+
+    /**
+     * 解析 filter, 结果缓存在 RSQLFilterCache 中
+     * @param filter
+     * @return
+     */
+    protected RSQLFilterCache.CompiledFilter<T> compileFilter(String filter) {
+        RSQLFilterCache.CompiledFilter<T> compiled = RSQLFilterCache.get(getClass(), getDomainClass(), filter, () -> {
+            Node node = RSQL_PARSER.parse(filter);
+            return new RSQLFilterCache.CompiledFilter<>(node, node.accept(createRSQLVisitor()));
+        });
+        getQueryLimits().checkFilter(compiled.getNode());
+        return compiled;
+    }
+
+    /**
+     * 当前 entity 的查询限制, 子类可以覆盖
+     * @return
+     */
+    protected QueryLimits getQueryLimits() {
+        return QueryLimits.of(getDomainClass());
+    }
+
+    /**
+     * 所有基于 Specification 的查询都加上超时提示, streamByFilter 除外
+     */
+    @Override
+    protected <S extends T> TypedQuery<S> getQuery(Specification<S> spec, Class<S> domainClass, Sort sort) {
+        return getQueryLimits().applyTimeout(super.getQuery(spec, domainClass, sort));
+    }
+
+    @Override
+    protected <S extends T> TypedQuery<Long> getCountQuery(Specification<S> spec, Class<S> domainClass) {
+        return getQueryLimits().applyTimeout(super.getCountQuery(spec, domainClass));
+    }
+
+    /**
+     * 生成将 RSQL 转换为 Specification 的 Visitor, 子类可以覆盖以支持更多的属性
+     * @return
+     */
+    protected RSQLVisitor<Specification<T>, Void> createRSQLVisitor() {
+        return new GenericRSQLVisitor<>();
+    }
+
+    /**
+     * 生成将 RSQL 翻译成 Envers 查询条件的 Visitor, 子类可以覆盖以支持更多的属性
+     * @return
+     */
+    protected GenericRSQLAuditVisitor<T> createAuditVisitor() {
+        return new GenericRSQLAuditVisitor<>();
+    }
+
+    /**
+     * 生成将 RSQL 编译成内存 Predicate 的 Visitor, 子类可以覆盖以支持更多的属性
+     * @return
+     */
+    protected RSQLVisitor<java.util.function.Predicate<T>, Void> createPredicateVisitor() {
+        return new GenericRSQLPredicateVisitor<>();
     }
 
     /**
@@ -53,6 +562,19 @@ public class BaseRepositoryImplement<T> extends SimpleJpaRepository<T, Long>  im
         return auditRepository.findAllVersions(getDomainClass(), entityId, pageable);
     }
 
+    /**
+     * 找到指定 entity 的 change log, 按照 countMode 决定是否执行 count 查询
+     * @param entityId
+     * @param pageable
+     * @param countMode
+     * @return
+     */
+    @Override
+    public Page<T> findAllVersions(Long entityId, Pageable pageable, CountMode countMode) {
+        //noinspection unchecked
+        return auditRepository.findAllVersions(getDomainClass(), entityId, pageable, countMode);
+    }
+
     /**
      * 找到 entity 的 指定版本
      * @param entityId
@@ -75,4 +597,103 @@ public class BaseRepositoryImplement<T> extends SimpleJpaRepository<T, Long>  im
         //noinspection unchecked
         return auditRepository.findPriorVersion(getDomainClass(), entityId);
     }
+
+    /**
+     * 比较 entity 的两个版本, 只返回有变化的字段
+     * @param entityId
+     * @param fromVersion
+     * @param toVersion
+     * @return
+     */
+    @Override
+    public Optional<RevisionDiff> diffVersions(Long entityId, Long fromVersion, Long toVersion) {
+        //noinspection unchecked
+        Optional<T> from = auditRepository.findVersion(getDomainClass(), entityId, fromVersion);
+        //noinspection unchecked
+        Optional<T> to = auditRepository.findVersion(getDomainClass(), entityId, toVersion);
+        if(!from.isPresent() || !to.isPresent()) {
+            return Optional.empty();
+        }
+        return Optional.of(diff(from.get(), to.get()));
+    }
+
+    /**
+     * 依次比较一段版本中相邻的两个版本
+     * @param entityId
+     * @param fromVersion
+     * @param toVersion
+     * @return
+     */
+    @Override
+    public List<RevisionDiff> diffVersionRange(Long entityId, Long fromVersion, Long toVersion) {
+        if(fromVersion > toVersion) {
+            throw new IllegalArgumentException(String.format("fromVersion %d 不能大于 toVersion %d", fromVersion, toVersion));
+        }
+        getQueryLimits().checkRows(toVersion - fromVersion + 1);
+        //noinspection unchecked
+        List<T> versions = auditRepository.findVersionRange(getDomainClass(), entityId, fromVersion, toVersion);
+        List<RevisionDiff> diffs = new ArrayList<>();
+        for(int i = 1; i < versions.size(); i++) {
+            diffs.add(diff(versions.get(i - 1), versions.get(i)));
+        }
+        return diffs;
+    }
+
+    private RevisionDiff diff(T from, T to) {
+        BaseEntity fromEntity = (BaseEntity) from;
+        BaseEntity toEntity = (BaseEntity) to;
+        return new RevisionDiff(fromEntity.getVersion(), toEntity.getVersion(),
+                toEntity.getLastUpdatedBy(), toEntity.getLastUpdatedTime(),
+                RevisionDiff.compare(auditedFields(from), auditedFields(to), this::fieldLabel));
+    }
+
+    /**
+     * 参与版本比较的字段值: 基本类型的属性, 嵌入对象的属性 (以 component.field 命名) 以及单值关联的 id;
+     * id, version 以及修改人/修改时间放在 RevisionDiff 中, 标注了 JsonIgnore 的属性不参与比较。子类可以覆盖以支持更多的字段
+     * @param entity 某个版本的 entity
+     * @return 字段名到字段值
+     */
+    protected Map<String, Object> auditedFields(T entity) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        collectAuditedFields(entityManager.getMetamodel().entity(getDomainClass()), getDomainClass(), entity, "", fields);
+        return fields;
+    }
+
+    private void collectAuditedFields(ManagedType<?> type, Class<?> javaType, Object value, String prefix, Map<String, Object> fields) {
+        for(SingularAttribute<?, ?> attribute : type.getSingularAttributes()) {
+            String name = attribute.getName();
+            if(prefix.isEmpty() && DIFF_EXCLUDED_FIELDS.contains(name)) {
+                continue;
+            }
+            Field field = ReflectionUtils.findField(javaType, name);
+            if(field == null || field.isAnnotationPresent(JsonIgnore.class)) {
+                continue;
+            }
+            Object fieldValue = null;
+            if(value != null) {
+                ReflectionUtils.makeAccessible(field);
+                fieldValue = ReflectionUtils.getField(field, value);
+            }
+            if(attribute.getPersistentAttributeType() == Attribute.PersistentAttributeType.BASIC) {
+                fields.put(prefix + name, fieldValue);
+            } else if(attribute.getPersistentAttributeType() == Attribute.PersistentAttributeType.EMBEDDED) {
+                // 嵌入对象为空时, 它的属性都按照空值比较
+                collectAuditedFields(entityManager.getMetamodel().embeddable(attribute.getJavaType()), attribute.getJavaType(),
+                        fieldValue, prefix + name + ".", fields);
+            } else if(attribute.isAssociation()) {
+                // 关联对象只比较 id, 与实体的 JSON 一致以字符串输出
+                Object id = fieldValue == null ? null : entityManager.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(fieldValue);
+                fields.put(prefix + name, id == null ? null : String.valueOf(id));
+            }
+        }
+    }
+
+    /**
+     * 字段的显示名, 默认没有显示名。子类可以覆盖
+     * @param field
+     * @return
+     */
+    protected String fieldLabel(String field) {
+        return null;
+    }
 }
@@ -0,0 +1,192 @@
+package tech.kuiperbelt.lib.common.jpa;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 系统时钟回退时 SnowflakeIdWorker 的处理策略
+ */
+public interface ClockBackwardsStrategy {
+
+    /**
+     * 系统时钟回退时调用
+     *
+     * @param worker 当前的 ID 生成器
+     * @param lastTimestamp 上次生成ID的时间截
+     * @param timestamp 当前时间截, 小于 lastTimestamp
+     * @return 继续生成ID 使用的时间截, 必须大于等于 lastTimestamp
+     */
+    long onClockBackwards(SnowflakeIdWorker worker, long lastTimestamp, long timestamp);
+
+    /**
+     * 毫秒内序列溢出时, 是否可以不等待而直接借用下一个毫秒
+     *
+     * @param nextTimestamp 想要借用的时间截
+     * @param now 当前时间截
+     * @return true 表示可以借用
+     */
+    default boolean canBorrow(long nextTimestamp, long now) {
+        return false;
+    }
+
+    /**
+     * 按照名称创建策略
+     * @param name REJECT, WAIT 或者 BORROW
+     * @param maxMillis WAIT 最多等待的毫秒数, BORROW 最多超前当前时钟的毫秒数
+     * @return
+     */
+    static ClockBackwardsStrategy of(String name, long maxMillis) {
+        switch (name.toUpperCase()) {
+            case "REJECT":
+                return new Reject();
+            case "WAIT":
+                return new Wait(maxMillis);
+            case "BORROW":
+                return new Borrow(maxMillis);
+            default:
+                throw new IllegalArgumentException(
+                        String.format("unknown clock backwards strategy: %s, should be REJECT, WAIT or BORROW", name));
+        }
+    }
+
+    static RuntimeException rollback(long lastTimestamp, long timestamp) {
+        return new RuntimeException(String.format(
+                "系统时钟回退过.  拒绝生成 id %d ms", lastTimestamp - timestamp));
+    }
+
+    /**
+     * 直接拒绝生成ID (默认)
+     */
+    class Reject implements ClockBackwardsStrategy {
+
+        /** 拒绝的次数 */
+        private final LongAdder rejected = new LongAdder();
+
+        @Override
+        public long onClockBackwards(SnowflakeIdWorker worker, long lastTimestamp, long timestamp) {
+            rejected.increment();
+            throw rollback(lastTimestamp, timestamp);
+        }
+
+        public long getRejectedCount() {
+            return rejected.sum();
+        }
+    }
+
+    /**
+     * 回退不超过 maxWaitMillis 时, 挂起当前线程直到时钟追上 lastTimestamp, 超过则拒绝
+     */
+    @Slf4j
+    class Wait implements ClockBackwardsStrategy {
+
+        private final long maxWaitMillis;
+
+        /** 等待的次数 */
+        private final LongAdder waits = new LongAdder();
+
+        /** 累计等待的毫秒数 */
+        private final LongAdder waitedMillis = new LongAdder();
+
+        /** 拒绝的次数 */
+        private final LongAdder rejected = new LongAdder();
+
+        public Wait(long maxWaitMillis) {
+            this.maxWaitMillis = maxWaitMillis;
+        }
+
+        @Override
+        public long onClockBackwards(SnowflakeIdWorker worker, long lastTimestamp, long timestamp) {
+            if (lastTimestamp - timestamp > maxWaitMillis) {
+                rejected.increment();
+                throw rollback(lastTimestamp, timestamp);
+            }
+            log.warn("系统时钟回退 {} ms, 等待时钟追上", lastTimestamp - timestamp);
+            waits.increment();
+            long start = timestamp;
+            while (timestamp < lastTimestamp) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(lastTimestamp - timestamp));
+                timestamp = worker.timeGen();
+            }
+            waitedMillis.add(timestamp - start);
+            return timestamp;
+        }
+
+        public long getWaitCount() {
+            return waits.sum();
+        }
+
+        public long getWaitedMillis() {
+            return waitedMillis.sum();
+        }
+
+        public long getRejectedCount() {
+            return rejected.sum();
+        }
+    }
+
+    /**
+     * 使用逻辑时钟: 时钟回退时继续沿用 lastTimestamp, 序列溢出时直接借用下一个毫秒,
+     * 只要逻辑时钟超前当前时钟不超过 maxBorrowMillis, 超过则拒绝
+     */
+    @Slf4j
+    class Borrow implements ClockBackwardsStrategy {
+
+        private final long maxBorrowMillis;
+
+        /** 沿用逻辑时钟处理的时钟回退次数, 系统时钟追上逻辑时钟之前只计一次 */
+        private final LongAdder backwards = new LongAdder();
+
+        /** 逻辑时钟到过的最大时间截, 系统时钟没有追上它时仍然是同一次回退 */
+        private final AtomicLong logicalTimestamp = new AtomicLong(-1L);
+
+        /** 借用未来毫秒的次数 */
+        private final LongAdder borrowed = new LongAdder();
+
+        /** 拒绝的次数 */
+        private final LongAdder rejected = new LongAdder();
+
+        public Borrow(long maxBorrowMillis) {
+            this.maxBorrowMillis = maxBorrowMillis;
+        }
+
+        @Override
+        public long onClockBackwards(SnowflakeIdWorker worker, long lastTimestamp, long timestamp) {
+            if (lastTimestamp - timestamp > maxBorrowMillis) {
+                rejected.increment();
+                throw rollback(lastTimestamp, timestamp);
+            }
+            if (timestamp >= logicalTimestamp.getAndAccumulate(lastTimestamp, Math::max)) {
+                backwards.increment();
+            }
+            return lastTimestamp;
+        }
+
+        @Override
+        public boolean canBorrow(long nextTimestamp, long now) {
+            if (nextTimestamp - now > maxBorrowMillis) {
+                return false;
+            }
+            if (nextTimestamp > now) {
+                borrowed.increment();
+                logicalTimestamp.accumulateAndGet(nextTimestamp, Math::max);
+            }
+            return true;
+        }
+
+        public long getBackwardsCount() {
+            return backwards.sum();
+        }
+
+        public long getBorrowedCount() {
+            return borrowed.sum();
+        }
+
+        public long getRejectedCount() {
+            return rejected.sum();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package tech.kuiperbelt.lib.common.jpa;
+
+/**
+ * 分页查询时计算总数的方式
+ */
+public enum CountMode {
+    /** 执行 count 查询, 总数准确 */
+    EXACT,
+    /** 不计算总数, 多取一行判断是否还有下一页 */
+    NONE,
+    /**
+     * 使用数据库的统计信息估算总数, 不执行 count 查询;
+     * 统计信息只有整张表的行数, 只用于没有 filter 的查询, 带 filter 时按照 NONE 处理
+     */
+    ESTIMATED;
+
+    /**
+     * 带 filter 的查询无法从表的统计信息估算总数, ESTIMATED 按照 NONE 处理
+     * @param filter
+     * @return 实际使用的计算方式
+     */
+    public CountMode forFilter(String filter) {
+        return this == ESTIMATED && filter != null && !filter.isEmpty() ? NONE : this;
+    }
+}
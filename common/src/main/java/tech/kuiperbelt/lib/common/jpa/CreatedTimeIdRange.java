@@ -0,0 +1,92 @@
+package tech.kuiperbelt.lib.common.jpa;
+
+import cz.jirutka.rsql.parser.ast.ComparisonOperator;
+import cz.jirutka.rsql.parser.ast.RSQLOperators;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Objects;
+
+/**
+ * BaseEntity 的 id 由 SnowflakeIdWorker 生成, 高位即为生成时间, 因此 createdTime 上的范围条件可以换算成 id 的范围,
+ * 作为附加条件和原条件一起查询, 让数据库走主键索引而不是扫描没有索引的 created_time 列。<br>
+ * id 的生成时间与 createdTime 并不完全一致(线程内预留的ID、逻辑时钟、节点间的时钟偏差),
+ * 换算时按照 slackMillis 放宽 id 的范围, 原条件保证结果的准确。<br>
+ * 仅当所有数据的 id 都由 SnowflakeIdWorker 生成时才能开启, 导入的数据或者手工指定的 id 会被错误地过滤掉。
+ */
+public final class CreatedTimeIdRange {
+
+    private static volatile boolean enabled = false;
+
+    private static volatile long slackMillis = 5000L;
+
+    private CreatedTimeIdRange() {
+    }
+
+    /**
+     * 开启或关闭 createdTime 到 id 范围的换算
+     * @param enable
+     * @param slack id 范围在两端各放宽的毫秒数
+     */
+    static void configure(boolean enable, long slack) {
+        enabled = enable;
+        slackMillis = Math.max(slack, 0L);
+    }
+
+    /**
+     * 将 createdTime 上的比较条件换算成 id 的范围条件
+     *
+     * @param root 查询的 entity
+     * @param criteriaBuilder
+     * @param property 查询的属性
+     * @param operator 比较操作符
+     * @param argument 已经转换为 LocalDateTime 的参数
+     * @return id 的范围条件, 不能换算时返回 null
+     */
+    static Predicate toIdPredicate(Path<?> root, CriteriaBuilder criteriaBuilder,
+                                   String property, ComparisonOperator operator, Object argument) {
+        if (!enabled
+                || !Objects.equals(property, BaseEntity.Fields.createdTime)
+                || !(argument instanceof LocalDateTime)
+                || !BaseEntity.class.isAssignableFrom(root.getJavaType())) {
+            return null;
+        }
+        // createdTime 由 AuditingHandler 按照系统默认时区生成
+        long millis = ((LocalDateTime) argument).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        Path<Long> id = root.get(BaseEntity.Fields.id);
+        if (Objects.equals(operator, RSQLOperators.GREATER_THAN)
+                || Objects.equals(operator, RSQLOperators.GREATER_THAN_OR_EQUAL)) {
+            return criteriaBuilder.greaterThanOrEqualTo(id, minId(millis - slackMillis));
+        } else if (Objects.equals(operator, RSQLOperators.LESS_THAN)
+                || Objects.equals(operator, RSQLOperators.LESS_THAN_OR_EQUAL)) {
+            return criteriaBuilder.lessThanOrEqualTo(id, maxId(millis + slackMillis));
+        } else if (Objects.equals(operator, RSQLOperators.EQUAL)) {
+            return criteriaBuilder.between(id, minId(millis - slackMillis), maxId(millis + slackMillis));
+        }
+        return null;
+    }
+
+    /**
+     * @param millis 时间截
+     * @return 该毫秒内可能生成的最小 id
+     */
+    static long minId(long millis) {
+        return Math.max(millis - SnowflakeIdWorker.twepoch, 0L) << SnowflakeIdWorker.timestampLeftShift;
+    }
+
+    /**
+     * @param millis 时间截
+     * @return 该毫秒内可能生成的最大 id
+     */
+    static long maxId(long millis) {
+        long maxMillis = Long.MAX_VALUE >>> SnowflakeIdWorker.timestampLeftShift;
+        long offset = Math.max(millis - SnowflakeIdWorker.twepoch, -1L);
+        if (offset >= maxMillis) {
+            return Long.MAX_VALUE;
+        }
+        return ((offset + 1) << SnowflakeIdWorker.timestampLeftShift) - 1;
+    }
+}
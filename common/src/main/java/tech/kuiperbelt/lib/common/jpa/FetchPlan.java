@@ -0,0 +1,138 @@
+package tech.kuiperbelt.lib.common.jpa;
+
+import org.springframework.data.jpa.domain.Specification;
+
+import javax.persistence.EntityGraph;
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Fetch;
+import javax.persistence.criteria.FetchParent;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Root;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.SingularAttribute;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 查询时一起加载的关联对象, 避免渲染结果时逐行懒加载关联 (N+1 查询)<br>
+ * 1 fetch: 关联属性的路径, 可以用 . 访问多级关联, 以 left join fetch 加入查询;
+ *   filter 中访问同一个关联的条件复用这个 join, 不会再产生一个 inner join<br>
+ * 2 graph: 实体上声明的 NamedEntityGraph 的名字, 以 javax.persistence.loadgraph 提示交给 Hibernate<br>
+ * fetch 只支持单值关联, 集合关联会让 Hibernate 在内存中分页; graph 中也不要包含集合关联
+ */
+public class FetchPlan {
+
+    /** JPA 2.1 规定的 load graph 提示 */
+    public static final String LOAD_GRAPH = "javax.persistence.loadgraph";
+
+    private final List<String[]> fetchPaths;
+
+    private final String graph;
+
+    private FetchPlan(List<String> fetch, String graph) {
+        List<String[]> paths = new ArrayList<>();
+        if(fetch != null) {
+            for(String path : fetch) {
+                if(path != null && !path.isEmpty()) {
+                    paths.add(path.split("\\."));
+                }
+            }
+        }
+        this.fetchPaths = Collections.unmodifiableList(paths);
+        this.graph = graph == null || graph.isEmpty() ? null : graph;
+    }
+
+    /**
+     * @param fetch 关联属性的路径, 可以为空
+     * @param graph NamedEntityGraph 的名字, 可以为空
+     * @return
+     */
+    public static FetchPlan of(List<String> fetch, String graph) {
+        return new FetchPlan(fetch, graph);
+    }
+
+    /**
+     * @param fetch 关联属性的路径
+     * @return
+     */
+    public static FetchPlan fetch(String... fetch) {
+        return new FetchPlan(Arrays.asList(fetch), null);
+    }
+
+    /**
+     * @param graph NamedEntityGraph 的名字
+     * @return
+     */
+    public static FetchPlan graph(String graph) {
+        return new FetchPlan(null, graph);
+    }
+
+    public boolean isEmpty() {
+        return fetchPaths.isEmpty() && graph == null;
+    }
+
+    /**
+     * 在 specification 之前加入 fetch join, 使 specification 中的关联属性复用这些 join;
+     * count 查询不能带 fetch join, 只保留 specification
+     * @param specification 可以为空
+     * @return
+     */
+    public <T> Specification<T> applyTo(Specification<T> specification) {
+        if(fetchPaths.isEmpty()) {
+            return specification;
+        }
+        return (root, query, criteriaBuilder) -> {
+            if(!isCountQuery(query)) {
+                fetch(root);
+            }
+            return specification == null ? null : specification.toPredicate(root, query, criteriaBuilder);
+        };
+    }
+
+    /**
+     * 为查询加上 load graph 提示
+     * @param query
+     * @param entityManager
+     * @return
+     */
+    public <R> TypedQuery<R> applyTo(TypedQuery<R> query, EntityManager entityManager) {
+        if(graph != null) {
+            EntityGraph<?> entityGraph = entityManager.getEntityGraph(graph);
+            query.setHint(LOAD_GRAPH, entityGraph);
+        }
+        return query;
+    }
+
+    private void fetch(Root<?> root) {
+        for(String[] path : fetchPaths) {
+            FetchParent<?, ?> parent = root;
+            ManagedType<?> type = root.getModel();
+            for(String name : path) {
+                Attribute<?, ?> attribute = type.getAttribute(name);
+                if(!attribute.isAssociation() || attribute.isCollection()) {
+                    throw new IllegalArgumentException(String.format("fetch 只支持单值关联属性: %s", String.join(".", path)));
+                }
+                parent = findOrCreateFetch(parent, name);
+                type = (ManagedType<?>) ((SingularAttribute<?, ?>) attribute).getType();
+            }
+        }
+    }
+
+    private static FetchParent<?, ?> findOrCreateFetch(FetchParent<?, ?> parent, String name) {
+        for(Fetch<?, ?> fetch : parent.getFetches()) {
+            if(fetch.getAttribute().getName().equals(name)) {
+                return (FetchParent<?, ?>) fetch;
+            }
+        }
+        return (FetchParent<?, ?>) parent.fetch(name, JoinType.LEFT);
+    }
+
+    private static boolean isCountQuery(CriteriaQuery<?> query) {
+        return Long.class == query.getResultType() || long.class == query.getResultType();
+    }
+}
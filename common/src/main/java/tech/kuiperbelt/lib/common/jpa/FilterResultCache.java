@@ -0,0 +1,151 @@
+package tech.kuiperbelt.lib.common.jpa;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import cz.jirutka.rsql.parser.ast.ComparisonNode;
+import cz.jirutka.rsql.parser.ast.LogicalNode;
+import cz.jirutka.rsql.parser.ast.Node;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import org.springframework.data.domain.Pageable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * findByFilter 结果的缓存, 只缓存一页的 id 列表以及总数, 命中时按 id 加载实体, 省去分页查询和 count 查询。<br>
+ * 以 (entity 类型, 规范化的 filter, 分页, entity 类型的版本号) 为 key; entity 被修改时版本号加一,
+ * 之前的缓存不再命中, 由 LRU 和过期时间淘汰。只有标注了 FilterResultCacheable 的 entity 才会被缓存。<br>
+ * data rest 的新增、保存、删除会自动使缓存失效, 其他途径修改数据时需要调用 invalidate
+ */
+public final class FilterResultCache {
+
+    /** 默认最多缓存的结果个数 */
+    static final long DEFAULT_MAXIMUM_SIZE = 1000L;
+
+    /** 默认的过期时间 */
+    static final long DEFAULT_EXPIRE_SECONDS = 60L;
+
+    private static volatile Cache<Key, CachedPage> cache = newCache(DEFAULT_MAXIMUM_SIZE, DEFAULT_EXPIRE_SECONDS);
+
+    /** 每个 entity 类型的版本号 */
+    private static final Map<Class<?>, AtomicLong> GENERATIONS = new ConcurrentHashMap<>();
+
+    private FilterResultCache() {
+    }
+
+    /**
+     * 设置最多缓存的结果个数以及过期时间, 0 表示不缓存; 会清空已有的缓存
+     * @param maximumSize
+     * @param expireSeconds
+     */
+    static void configure(long maximumSize, long expireSeconds) {
+        cache = newCache(Math.max(maximumSize, 0L), Math.max(expireSeconds, 0L));
+    }
+
+    /**
+     * @return 当前使用的缓存, 用于注册命中率等指标
+     */
+    public static Cache<?, ?> getCache() {
+        return cache;
+    }
+
+    /**
+     * @param domainClass
+     * @return entity 类型是否开启了结果缓存
+     */
+    public static boolean isCacheable(Class<?> domainClass) {
+        return BaseEntity.class.isAssignableFrom(domainClass) && domainClass.isAnnotationPresent(FilterResultCacheable.class);
+    }
+
+    /**
+     * 使 entity 类型以及它的父类型的缓存失效
+     * @param domainClass
+     */
+    public static void invalidate(Class<?> domainClass) {
+        for(Class<?> type = domainClass; type != null && type != Object.class; type = type.getSuperclass()) {
+            AtomicLong generation = GENERATIONS.get(type);
+            if(generation != null) {
+                generation.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 生成当前版本的 key; 查询之前生成, 查询期间的修改会使这个 key 失效
+     * @param domainClass
+     * @param filter 规范化的 filter
+     * @param pageable
+     * @return
+     */
+    static Key keyOf(Class<?> domainClass, String filter, Pageable pageable) {
+        long generation = GENERATIONS.computeIfAbsent(domainClass, type -> new AtomicLong()).get();
+        return pageable.isPaged() ?
+                new Key(domainClass, filter, pageable.getPageNumber(), pageable.getPageSize(), pageable.getSort().toString(), generation) :
+                new Key(domainClass, filter, -1, -1, pageable.getSort().toString(), generation);
+    }
+
+    /**
+     * 规范化 filter 的 AST, 只是空白或者括号不同的 filter 结果相同;
+     * 参数加上引号并转义, rsql-parser 的 toString 不转义参数, 不同的 filter 可能得到相同的字符串
+     * @param node
+     * @return
+     */
+    static String normalize(Node node) {
+        if(node instanceof LogicalNode) {
+            LogicalNode logical = (LogicalNode) node;
+            return logical.getChildren().stream()
+                    .map(FilterResultCache::normalize)
+                    .collect(Collectors.joining(",", logical.getOperator().name() + "(", ")"));
+        }
+        ComparisonNode comparison = (ComparisonNode) node;
+        return comparison.getArguments().stream()
+                .map(argument -> '"' + argument.replace("\\", "\\\\").replace("\"", "\\\"") + '"')
+                .collect(Collectors.joining(",", comparison.getSelector() + comparison.getOperator() + "(", ")"));
+    }
+
+    static CachedPage get(Key key) {
+        return cache.getIfPresent(key);
+    }
+
+    static void put(Key key, CachedPage page) {
+        cache.put(key, page);
+    }
+
+    private static Cache<Key, CachedPage> newCache(long maximumSize, long expireSeconds) {
+        return CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    static class Key {
+        private final Class<?> domainClass;
+        private final String filter;
+        private final int page;
+        private final int size;
+        private final String sort;
+        private final long generation;
+    }
+
+    /**
+     * 缓存的一页结果
+     */
+    @Getter
+    @AllArgsConstructor
+    static class CachedPage {
+        /** 按查询结果顺序排列的 id */
+        private final List<Long> ids;
+
+        /** 总数 */
+        private final long total;
+    }
+}
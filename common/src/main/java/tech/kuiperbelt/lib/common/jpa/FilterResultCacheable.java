@@ -0,0 +1,15 @@
+package tech.kuiperbelt.lib.common.jpa;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标注在 entity 上, 开启 findByFilter 的结果缓存, 只适合很少修改、查询频繁的 entity
+ * @see FilterResultCache
+ */
+@Target({ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface FilterResultCacheable {
+}
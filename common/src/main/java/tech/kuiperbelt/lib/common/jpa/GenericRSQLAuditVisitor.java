@@ -0,0 +1,125 @@
+package tech.kuiperbelt.lib.common.jpa;
+
+import cz.jirutka.rsql.parser.ast.*;
+import org.hibernate.envers.query.AuditEntity;
+import org.hibernate.envers.query.criteria.AuditConjunction;
+import org.hibernate.envers.query.criteria.AuditCriterion;
+import org.hibernate.envers.query.criteria.AuditDisjunction;
+import org.hibernate.envers.query.criteria.AuditProperty;
+
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.ManagedType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 将 RSQL 翻译成 Envers 的查询条件, 用于在某个 revision 的快照上执行 filter 查询<br>
+ * 与 GenericRSQLVisitor 的语义一致, 但是只支持 entity 自己的基本类型属性, 不支持关联属性的路径
+ * @param <T>
+ */
+public class GenericRSQLAuditVisitor<T> implements RSQLVisitor<AuditCriterion, ManagedType<T>> {
+
+    @Override
+    public AuditCriterion visit(AndNode andNode, ManagedType<T> type) {
+        AuditConjunction conjunction = AuditEntity.conjunction();
+        andNode.getChildren().forEach(node -> conjunction.add(node.accept(this, type)));
+        return conjunction;
+    }
+
+    @Override
+    public AuditCriterion visit(OrNode orNode, ManagedType<T> type) {
+        AuditDisjunction disjunction = AuditEntity.disjunction();
+        orNode.getChildren().forEach(node -> disjunction.add(node.accept(this, type)));
+        return disjunction;
+    }
+
+    @Override
+    public AuditCriterion visit(ComparisonNode comparisonNode, ManagedType<T> type) {
+        String selector = comparisonNode.getSelector();
+        ComparisonOperator operator = comparisonNode.getOperator();
+        AuditProperty<Object> property = findProperty(selector, type);
+        Class<?> javaType = findJavaType(selector, type);
+        List<Object> args = new ArrayList<>();
+        comparisonNode.getArguments().forEach(arg -> args.add(GenericRSQLSpecification.convertArgument(javaType, arg)));
+        Object argument = args.get(0);
+
+        if(Objects.equals(operator, RSQLOperators.EQUAL)) {
+            return argument instanceof String ? like(property, LikePattern.of((String) argument)) : property.eq(argument);
+        } else if (Objects.equals(operator, RSQLOperators.NOT_EQUAL)) {
+            if(argument instanceof String) {
+                LikePattern pattern = LikePattern.of((String) argument);
+                return pattern.getKind() == LikePattern.Kind.EXACT ?
+                        property.ne(pattern.getLiteral()) :
+                        AuditEntity.not(property.like(pattern.getPattern()));
+            }
+            return property.ne(argument);
+        } else if (Objects.equals(operator, RSQLOperators.GREATER_THAN)) {
+            return property.gt(argument);
+        } else if (Objects.equals(operator, RSQLOperators.GREATER_THAN_OR_EQUAL)) {
+            return property.ge(argument);
+        } else if (Objects.equals(operator, RSQLOperators.LESS_THAN)) {
+            return property.lt(argument);
+        } else if (Objects.equals(operator, RSQLOperators.LESS_THAN_OR_EQUAL)) {
+            return property.le(argument);
+        } else if (Objects.equals(operator, RSQLOperators.IN)) {
+            return property.in(args);
+        } else if (Objects.equals(operator, RSQLOperators.NOT_IN)) {
+            return AuditEntity.not(property.in(args));
+        } else if (Objects.equals(operator, KuiperbeltRSQLOperators.ILIKE)) {
+            return property.ilike(ilikePattern(selector, operator, argument));
+        } else if (Objects.equals(operator, KuiperbeltRSQLOperators.NOT_ILIKE)) {
+            return AuditEntity.not(property.ilike(ilikePattern(selector, operator, argument)));
+        } else {
+            throw new UnsupportedOperationException("RSQL 不支持操作运算符: " + operator);
+        }
+    }
+
+    /**
+     * 找到 selector 对应的审计属性, 子类可以覆盖以支持更多的字段
+     * @param selector RSQL 中的属性名
+     * @param type entity 的元模型
+     * @return
+     */
+    public AuditProperty<Object> findProperty(String selector, ManagedType<T> type) {
+        findAttribute(selector, type);
+        return AuditEntity.property(selector);
+    }
+
+    /**
+     * selector 对应属性的 java 类型, 用于转换查询参数, 子类可以覆盖以支持更多的字段
+     * @param selector
+     * @param type
+     * @return
+     */
+    protected Class<?> findJavaType(String selector, ManagedType<T> type) {
+        return findAttribute(selector, type).getJavaType();
+    }
+
+    private Attribute<? super T, ?> findAttribute(String selector, ManagedType<T> type) {
+        if(selector.contains(".")) {
+            throw new IllegalArgumentException(String.format("asOf 查询不支持关联属性: %s", selector));
+        }
+        Attribute<? super T, ?> attribute = type.getAttribute(selector);
+        if(attribute.getPersistentAttributeType() != Attribute.PersistentAttributeType.BASIC) {
+            throw new IllegalArgumentException(String.format("asOf 查询只支持基本类型的属性: %s", selector));
+        }
+        return attribute;
+    }
+
+    /**
+     * 与 LikePattern 的计划一致: 没有通配符时等值比较, 其他情况使用 like
+     */
+    private static AuditCriterion like(AuditProperty<Object> property, LikePattern pattern) {
+        return pattern.getKind() == LikePattern.Kind.EXACT ?
+                property.eq(pattern.getLiteral()) :
+                property.like(pattern.getPattern());
+    }
+
+    private static String ilikePattern(String selector, ComparisonOperator operator, Object argument) {
+        if(!(argument instanceof String)) {
+            throw new IllegalArgumentException(String.format("RSQL 运算符 %s 只能用于字符串属性: %s", operator, selector));
+        }
+        return LikePattern.of((String) argument).getPattern();
+    }
+}
@@ -0,0 +1,248 @@
+package tech.kuiperbelt.lib.common.jpa;
+
+import cz.jirutka.rsql.parser.ast.ComparisonOperator;
+import cz.jirutka.rsql.parser.ast.RSQLOperators;
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.springframework.beans.BeanUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * RSQL 的单个比较条件在内存中的实现, 对 entity 的属性值求值<br>
+ * 与数据库的语义保持一致: 属性值为空时任何比较都不成立; 字符串的 == 和 != 支持 * 通配符(% 和 _ 与 SQL 的 like 相同),
+ * 区分大小写; =ilike= 和 =nilike= 不区分大小写; =in= 和 =out= 按值相等比较
+ * @param <T>
+ */
+@Getter
+public class GenericRSQLPredicate<T> implements Predicate<T> {
+    private final String property;
+    private final ComparisonOperator operator;
+    private final List<String> arguments;
+
+    /**
+     * 属性路径, 只拆分一次
+     */
+    @Getter(AccessLevel.NONE)
+    private final String[] propertyPath;
+
+    /**
+     * 字符串比较时使用的通配符模式
+     */
+    @Getter(AccessLevel.NONE)
+    private final Pattern likePattern;
+
+    /**
+     * 按照 entity 类型解析的属性访问路径, 同一个类型只解析一次
+     */
+    @Getter(AccessLevel.NONE)
+    private volatile ResolvedProperty resolvedProperty;
+
+    /**
+     * 已转换的查寻参数, 同一个属性类型只转换一次
+     */
+    @Getter(AccessLevel.NONE)
+    private volatile ConvertedArguments convertedArguments;
+
+    public GenericRSQLPredicate(String property, ComparisonOperator operator, List<String> arguments) {
+        this.property = property;
+        this.operator = operator;
+        this.arguments = arguments;
+        this.propertyPath = property.split("\\.");
+        boolean ignoreCase = Objects.equals(operator, KuiperbeltRSQLOperators.ILIKE)
+                || Objects.equals(operator, KuiperbeltRSQLOperators.NOT_ILIKE);
+        this.likePattern = toLikePattern(arguments.get(0), ignoreCase);
+    }
+
+    @Override
+    public boolean test(T entity) {
+        if(entity == null) {
+            return false;
+        }
+        Object value = findPropertyValue(entity);
+        if(value == null) {
+            return false;
+        }
+        List<Object> args = castArguments(findPropertyType(entity));
+        Object argument = args.get(0);
+        if(Objects.equals(operator, RSQLOperators.EQUAL)) {
+            return argument instanceof String ? likePattern.matcher((String) value).matches() : compare(value, argument) == 0;
+        } else if (Objects.equals(operator, RSQLOperators.NOT_EQUAL)) {
+            return argument instanceof String ? !likePattern.matcher((String) value).matches() : compare(value, argument) != 0;
+        } else if (Objects.equals(operator, RSQLOperators.GREATER_THAN)) {
+            return compare(value, argument) > 0;
+        } else if (Objects.equals(operator, RSQLOperators.GREATER_THAN_OR_EQUAL)) {
+            return compare(value, argument) >= 0;
+        } else if (Objects.equals(operator, RSQLOperators.LESS_THAN)) {
+            return compare(value, argument) < 0;
+        } else if (Objects.equals(operator, RSQLOperators.LESS_THAN_OR_EQUAL)) {
+            return compare(value, argument) <= 0;
+        } else if (Objects.equals(operator, RSQLOperators.IN)) {
+            return contains(args, value);
+        } else if (Objects.equals(operator, RSQLOperators.NOT_IN)) {
+            return !contains(args, value);
+        } else if (Objects.equals(operator, KuiperbeltRSQLOperators.ILIKE)) {
+            return likePattern.matcher(requireString(value)).matches();
+        } else if (Objects.equals(operator, KuiperbeltRSQLOperators.NOT_ILIKE)) {
+            return !likePattern.matcher(requireString(value)).matches();
+        } else {
+            throw new UnsupportedOperationException("RSQL 不支持操作运算符: " + operator);
+        }
+    }
+
+    /**
+     * 取 entity 的属性值, 处理嵌套属性, 中间的属性为空时返回 null; 子类可以覆盖以支持更多的属性
+     * @param entity
+     * @return
+     */
+    protected Object findPropertyValue(T entity) {
+        Object current = entity;
+        for(Function<Object, Object> accessor : resolve(entity.getClass()).accessors) {
+            current = accessor.apply(current);
+            if(current == null) {
+                return null;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 取 entity 的属性类型, 用于转换查寻参数; 子类可以覆盖以支持更多的属性
+     * @param entity
+     * @return
+     */
+    protected Class<?> findPropertyType(T entity) {
+        return resolve(entity.getClass()).javaType;
+    }
+
+    /**
+     * 将查寻参数的值按照属性的 java 类型转化成恰当的类型, 同一个类型的转换结果会被复用
+     * @param javaType 属性的 java 类型
+     * @return
+     */
+    protected List<Object> castArguments(Class<?> javaType) {
+        ConvertedArguments converted = convertedArguments;
+        if(converted == null || converted.javaType != javaType) {
+            List<Object> result = new ArrayList<>(arguments.size());
+            arguments.forEach(arg -> result.add(GenericRSQLSpecification.convertArgument(javaType, arg)));
+            converted = new ConvertedArguments(javaType, Collections.unmodifiableList(result));
+            convertedArguments = converted;
+        }
+        return converted.values;
+    }
+
+    private ResolvedProperty resolve(Class<?> entityClass) {
+        ResolvedProperty resolved = resolvedProperty;
+        if(resolved == null || resolved.entityClass != entityClass) {
+            List<Function<Object, Object>> accessors = new ArrayList<>(propertyPath.length);
+            Class<?> javaType = entityClass;
+            for(String name : propertyPath) {
+                PropertyDescriptor descriptor = BeanUtils.getPropertyDescriptor(javaType, name);
+                if(descriptor != null && descriptor.getReadMethod() != null) {
+                    Method getter = descriptor.getReadMethod();
+                    ReflectionUtils.makeAccessible(getter);
+                    accessors.add(target -> ReflectionUtils.invokeMethod(getter, target));
+                    javaType = getter.getReturnType();
+                } else {
+                    // 属性名与 getter 不符合 JavaBeans 规范时(例如 aLong), 与 JPA 一样直接访问字段
+                    Field field = ReflectionUtils.findField(javaType, name);
+                    if(field == null) {
+                        throw new IllegalArgumentException(String.format("RSQL 找不到属性: %s.%s", entityClass.getSimpleName(), property));
+                    }
+                    ReflectionUtils.makeAccessible(field);
+                    accessors.add(target -> ReflectionUtils.getField(field, target));
+                    javaType = field.getType();
+                }
+            }
+            resolved = new ResolvedProperty(entityClass, javaType, accessors);
+            resolvedProperty = resolved;
+        }
+        return resolved;
+    }
+
+    private String requireString(Object value) {
+        if(!(value instanceof String)) {
+            throw new IllegalArgumentException(String.format("RSQL 运算符 %s 只能用于字符串属性: %s", operator, property));
+        }
+        return (String) value;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compare(Object value, Object argument) {
+        if(value instanceof Comparable) {
+            return ((Comparable) value).compareTo(argument);
+        }
+        return Objects.equals(value, argument) ? 0 : -1;
+    }
+
+    private static boolean contains(List<Object> args, Object value) {
+        for(Object arg : args) {
+            if(compare(value, arg) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 将 like 的模式转换为正则表达式: * 和 % 匹配任意个字符, _ 匹配单个字符
+     */
+    private static Pattern toLikePattern(String argument, boolean ignoreCase) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for(char c : argument.toCharArray()) {
+            if(c == '*' || c == '%' || c == '_') {
+                if(literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '_' ? "." : ".*");
+            } else {
+                literal.append(c);
+            }
+        }
+        if(literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString(),
+                ignoreCase ? Pattern.DOTALL | Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : Pattern.DOTALL);
+    }
+
+    /**
+     * 按照 entity 类型解析的属性访问路径
+     */
+    private static class ResolvedProperty {
+        private final Class<?> entityClass;
+        private final Class<?> javaType;
+        private final List<Function<Object, Object>> accessors;
+
+        private ResolvedProperty(Class<?> entityClass, Class<?> javaType, List<Function<Object, Object>> accessors) {
+            this.entityClass = entityClass;
+            this.javaType = javaType;
+            this.accessors = accessors;
+        }
+    }
+
+    /**
+     * 已转换的查寻参数以及转换时的属性类型
+     */
+    private static class ConvertedArguments {
+        private final Class<?> javaType;
+        private final List<Object> values;
+
+        private ConvertedArguments(Class<?> javaType, List<Object> values) {
+            this.javaType = javaType;
+            this.values = values;
+        }
+    }
+}
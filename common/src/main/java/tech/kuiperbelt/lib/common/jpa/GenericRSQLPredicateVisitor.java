@@ -0,0 +1,40 @@
+package tech.kuiperbelt.lib.common.jpa;
+
+import cz.jirutka.rsql.parser.ast.*;
+
+import java.util.function.Predicate;
+
+/**
+ * 将 RSQL 编译成内存中的 Predicate, 直接对已加载的 entity 求值, 不需要查询数据库<br>
+ * 与 GenericRSQLVisitor 生成的查询条件语义一致, 可以用于缓存中的数据、事件处理以及流式处理
+ * @param <T>
+ */
+public class GenericRSQLPredicateVisitor<T> implements RSQLVisitor<Predicate<T>, Void> {
+    @Override
+    public Predicate<T> visit(AndNode andNode, Void aVoid) {
+        return visit((LogicalNode)andNode, aVoid);
+    }
+
+    @Override
+    public Predicate<T> visit(OrNode orNode, Void aVoid) {
+        return visit((LogicalNode)orNode, aVoid);
+    }
+
+    @Override
+    public Predicate<T> visit(ComparisonNode comparisonNode, Void aVoid) {
+        return new GenericRSQLPredicate<>(
+                comparisonNode.getSelector(),
+                comparisonNode.getOperator(),
+                comparisonNode.getArguments()
+        );
+    }
+
+    private Predicate<T> visit(LogicalNode logicalNode, Void aVoid) {
+        return logicalNode.getChildren().stream()
+                .map(node -> node.accept(this))
+                .reduce((previous, current) -> logicalNode instanceof AndNode ?
+                        previous.and(current) :
+                        previous.or(current))
+                .orElseThrow(() -> new RuntimeException("RSQL 逻辑运算符必须包含两个以上的操作元素"));
+    }
+}
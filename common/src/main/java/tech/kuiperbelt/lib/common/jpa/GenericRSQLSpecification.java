@@ -2,6 +2,7 @@ package tech.kuiperbelt.lib.common.jpa;
 
 import cz.jirutka.rsql.parser.ast.ComparisonOperator;
 import cz.jirutka.rsql.parser.ast.RSQLOperators;
+import lombok.AccessLevel;
 import lombok.Getter;
 import org.springframework.data.jpa.domain.Specification;
 
@@ -10,9 +11,9 @@ import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Objects;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 /**
  * RSQL 的辅助类
@@ -26,10 +27,62 @@ public class GenericRSQLSpecification<T> implements Specification<T> {
     private final ComparisonOperator operator;
     private final List<String> arguments;
 
+    /**
+     * 按照 java 类型将查寻参数转换成恰当类型的转换器, 每个类型只查找一次
+     */
+    private static final Map<Class<?>, Function<String, Object>> CONVERTERS = new ConcurrentHashMap<>();
+
+    static {
+        CONVERTERS.put(Integer.class, Integer::valueOf);
+        CONVERTERS.put(int.class, Integer::valueOf);
+        CONVERTERS.put(Long.class, Long::valueOf);
+        CONVERTERS.put(long.class, Long::valueOf);
+        CONVERTERS.put(Double.class, Double::valueOf);
+        CONVERTERS.put(double.class, Double::valueOf);
+        CONVERTERS.put(Float.class, Float::valueOf);
+        CONVERTERS.put(float.class, Float::valueOf);
+        CONVERTERS.put(BigDecimal.class, BigDecimal::new);
+        CONVERTERS.put(Boolean.class, Boolean::valueOf);
+        CONVERTERS.put(boolean.class, Boolean::valueOf);
+        CONVERTERS.put(LocalDate.class, arg -> LocalDate.parse(arg, DateTimeFormatter.ISO_DATE));
+        CONVERTERS.put(LocalDateTime.class, arg -> {
+            //兼容日期格式 与 日期时间格式
+            if(arg.length() < "YYYY-MM-DDT".length()) {
+                return LocalDate.parse(arg, DateTimeFormatter.ISO_DATE).atStartOfDay();
+            } else {
+                return LocalDateTime.parse(arg, DateTimeFormatter.ISO_DATE_TIME);
+            }
+        });
+        CONVERTERS.put(String.class, arg -> arg);
+    }
+
+    /**
+     * 属性路径, 只拆分一次
+     */
+    @Getter(AccessLevel.NONE)
+    private final String[] propertyPath;
+
+    /**
+     * 字符串比较的查询计划, 只分析一次
+     */
+    @Getter(AccessLevel.NONE)
+    private final LikePattern likePattern;
+
+    /**
+     * 已转换的查寻参数, Specification 会被缓存复用, 同一个属性类型只转换一次
+     */
+    @Getter(AccessLevel.NONE)
+    private volatile ConvertedArguments convertedArguments;
+
     public GenericRSQLSpecification(String property, ComparisonOperator operator, List<String> arguments) {
         this.property = property;
         this.operator = operator;
         this.arguments = arguments;
+        this.propertyPath = property.split("\\.");
+        LikePattern pattern = LikePattern.of(arguments.get(0));
+        boolean ignoreCase = Objects.equals(operator, KuiperbeltRSQLOperators.ILIKE)
+                || Objects.equals(operator, KuiperbeltRSQLOperators.NOT_ILIKE);
+        this.likePattern = ignoreCase ? pattern.toLowerCase() : pattern;
     }
 
     /**
@@ -41,58 +94,116 @@ public class GenericRSQLSpecification<T> implements Specification<T> {
      */
     @Override
     public Predicate toPredicate(Root<T> root, CriteriaQuery<?> criteriaQuery, CriteriaBuilder criteriaBuilder) {
-        List<Object> args = castArguments(root);
+        Path<T> path = findProperty(root, property);
+        List<Object> args = castArguments(path.getJavaType());
+        Predicate predicate = toPredicate(path, criteriaBuilder, args);
+        // createdTime 的范围条件附加上等价的 id 范围, 以便走主键索引
+        Predicate idRange = CreatedTimeIdRange.toIdPredicate(root, criteriaBuilder, property, operator, args.get(0));
+        return idRange == null ? predicate : criteriaBuilder.and(predicate, idRange);
+    }
+
+    private Predicate toPredicate(Path<T> path, CriteriaBuilder criteriaBuilder, List<Object> args) {
         Object argument = args.get(0);
         if(Objects.equals(operator, RSQLOperators.EQUAL)) {
             if(argument instanceof String) {
                 //noinspection unchecked
-                return criteriaBuilder.like((Expression<String>) findProperty(root, property), ((String) argument).replace("*", "%"));
+                return likePattern.toPredicate((Expression<String>) path, criteriaBuilder);
             } else if(argument == null) {
-                return criteriaBuilder.isNull(findProperty(root, property));
+                return criteriaBuilder.isNull(path);
             } else {
-                return criteriaBuilder.equal(findProperty(root, property),argument);
+                return criteriaBuilder.equal(path, argument);
             }
         } else if (Objects.equals(operator, RSQLOperators.NOT_EQUAL)) {
             if(argument instanceof String) {
                 //noinspection unchecked
-                return criteriaBuilder.notLike((Expression<String>) findProperty(root, property), ((String) argument).replace("*", "%"));
+                return likePattern.toNegatedPredicate((Expression<String>) path, criteriaBuilder);
             } else if (argument == null) {
-                return criteriaBuilder.isNotNull(findProperty(root, property));
+                return criteriaBuilder.isNotNull(path);
             } else {
-                return criteriaBuilder.notEqual(findProperty(root, property), argument);
+                return criteriaBuilder.notEqual(path, argument);
             }
         } else if (Objects.equals(operator, RSQLOperators.GREATER_THAN)) {
             //noinspection unchecked
-            return criteriaBuilder.greaterThan((Expression) findProperty(root, property), (Comparable)argument);
+            return criteriaBuilder.greaterThan((Expression) path, (Comparable)argument);
         } else if (Objects.equals(operator, RSQLOperators.GREATER_THAN_OR_EQUAL)) {
             //noinspection unchecked
-            return criteriaBuilder.greaterThanOrEqualTo((Expression) findProperty(root, property), (Comparable)argument);
+            return criteriaBuilder.greaterThanOrEqualTo((Expression) path, (Comparable)argument);
         } else if (Objects.equals(operator, RSQLOperators.LESS_THAN)) {
             //noinspection unchecked
-            return criteriaBuilder.lessThan((Expression) findProperty(root, property), (Comparable)argument);
+            return criteriaBuilder.lessThan((Expression) path, (Comparable)argument);
         } else if (Objects.equals(operator, RSQLOperators.LESS_THAN_OR_EQUAL)) {
             //noinspection unchecked
-            return criteriaBuilder.lessThanOrEqualTo((Expression) findProperty(root, property), (Comparable)argument);
+            return criteriaBuilder.lessThanOrEqualTo((Expression) path, (Comparable)argument);
         } else if (Objects.equals(operator, RSQLOperators.IN)) {
-            return findProperty(root, property).in(args);
+            return path.in(args);
         } else if (Objects.equals(operator, RSQLOperators.NOT_IN)) {
-            return criteriaBuilder.not(findProperty(root, property).in(args));
+            return criteriaBuilder.not(path.in(args));
+        } else if (Objects.equals(operator, KuiperbeltRSQLOperators.ILIKE)) {
+            return likePattern.toPredicate(lower(path, criteriaBuilder, argument), criteriaBuilder);
+        } else if (Objects.equals(operator, KuiperbeltRSQLOperators.NOT_ILIKE)) {
+            return likePattern.toNegatedPredicate(lower(path, criteriaBuilder, argument), criteriaBuilder);
         } else {
             throw new UnsupportedOperationException("RSQL 不支持操作运算符: " + operator);
         }
     }
 
+    @SuppressWarnings("unchecked")
+    private Expression<String> lower(Path<T> path, CriteriaBuilder criteriaBuilder, Object argument) {
+        if(!(argument instanceof String)) {
+            throw new IllegalArgumentException(String.format("RSQL 运算符 %s 只能用于字符串属性: %s", operator, property));
+        }
+        return criteriaBuilder.lower((Expression<String>) path);
+    }
+
     /**
      * 处理嵌套属性
      * @param root
      * @param property
      * @return
      */
+    @SuppressWarnings("unchecked")
     protected Path<T> findProperty(Path<T> root, String property) {
-        for(String name : property.split("\\.")) {
-            root = root.get(name);
+        String[] names = Objects.equals(property, this.property) ? propertyPath : property.split("\\.");
+        return (Path<T>) findPath(root, names);
+    }
+
+    /**
+     * 按照属性路径逐级访问, 查询中已经存在的 join 或者 fetch join (例如 FetchPlan 加入的) 会被复用,
+     * 不再通过 get 产生一个隐式的 inner join
+     * @param root
+     * @param names 属性路径
+     * @return
+     */
+    static Path<?> findPath(Path<?> root, String[] names) {
+        Path<?> path = root;
+        for(int i = 0; i < names.length; i++) {
+            Path<?> join = i < names.length - 1 ? findJoin(path, names[i]) : null;
+            path = join != null ? join : path.get(names[i]);
         }
-        return root;
+        return path;
+    }
+
+    /**
+     * @param path
+     * @param name
+     * @return 查询中已经存在的 join 或者 fetch join, 没有时为 null
+     */
+    static Path<?> findJoin(Path<?> path, String name) {
+        if(!(path instanceof From)) {
+            return null;
+        }
+        From<?, ?> from = (From<?, ?>) path;
+        for(Fetch<?, ?> fetch : from.getFetches()) {
+            if(fetch instanceof Path && fetch.getAttribute().getName().equals(name)) {
+                return (Path<?>) fetch;
+            }
+        }
+        for(Join<?, ?> join : from.getJoins()) {
+            if(join.getAttribute().getName().equals(name)) {
+                return join;
+            }
+        }
+        return null;
     }
 
     /**
@@ -101,48 +212,78 @@ public class GenericRSQLSpecification<T> implements Specification<T> {
      * @return
      */
     protected List<Object> castArguments(Root<T> root) {
-        List<Object> result = new ArrayList<>();
-        Class<?> javaType = findProperty(root, property).getJavaType();
-        arguments.forEach(arg -> {
-            if(Objects.equals(javaType, Integer.class) || Objects.equals(javaType, int.class)) {
-                result.add(Integer.valueOf(arg));
-            } else if (Objects.equals(javaType, Long.class) || Objects.equals(javaType, long.class)) {
-                result.add(Long.valueOf(arg));
-            } else if (Objects.equals(javaType, Double.class) || Objects.equals(javaType, double.class)) {
-                result.add(Double.valueOf(arg));
-            } else if (Objects.equals(javaType, Float.class) || Objects.equals(javaType, float.class)) {
-                result.add(Float.valueOf(arg));
-            } else if (Objects.equals(javaType, BigDecimal.class)) {
-                result.add(new BigDecimal(arg));
-            } else if (Objects.equals(javaType, Boolean.class) || Objects.equals(javaType, boolean.class)) {
-                result.add(Boolean.valueOf(arg));
-            } else if (Objects.equals(javaType, LocalDate.class)) {
-                result.add(LocalDate.parse(arg, DateTimeFormatter.ISO_DATE));
-            } else if (Objects.equals(javaType, LocalDateTime.class)) {
-                //兼容日期格式 与 日期时间格式
-                if(arg.length() < "YYYY-MM-DDT".length()) {
-                    result.add(LocalDate.parse(arg, DateTimeFormatter.ISO_DATE).atStartOfDay());
-                } else {
-                    result.add(LocalDateTime.parse(arg, DateTimeFormatter.ISO_DATE_TIME));
+        return castArguments(findProperty(root, property).getJavaType());
+    }
+
+    /**
+     * 将查寻参数的值按照属性的 java 类型转化成恰当的类型, 同一个类型的转换结果会被复用
+     * @param javaType 属性的 java 类型
+     * @return
+     */
+    protected List<Object> castArguments(Class<?> javaType) {
+        ConvertedArguments converted = convertedArguments;
+        if(converted == null || converted.javaType != javaType) {
+            Function<String, Object> converter = converter(javaType);
+            List<Object> result = new ArrayList<>(arguments.size());
+            arguments.forEach(arg -> result.add(converter.apply(arg)));
+            converted = new ConvertedArguments(javaType, Collections.unmodifiableList(result));
+            convertedArguments = converted;
+        }
+        return converted.values;
+    }
+
+    /**
+     * 将字符串参数按照属性的 java 类型转化成恰当的类型
+     * @param javaType 属性的 java 类型
+     * @param argument 字符串参数
+     * @return
+     */
+    static Object convertArgument(Class<?> javaType, String argument) {
+        return converter(javaType).apply(argument);
+    }
+
+    /**
+     * 查找属性类型对应的转换器
+     * @param javaType
+     * @return
+     */
+    private static Function<String, Object> converter(Class<?> javaType) {
+        Function<String, Object> converter = CONVERTERS.get(javaType);
+        if(converter != null) {
+            return converter;
+        }
+        if (javaType.isEnum()) {
+            return CONVERTERS.computeIfAbsent(javaType, type -> {
+                Map<String, Object> constants = new HashMap<>();
+                for(Object e : type.getEnumConstants()) {
+                    constants.put(enumNameHelp((Enum<?>)e), e);
                 }
-            } else if (javaType.isEnum()) {
-                for(Object e : javaType.getEnumConstants()) {
-                    if (Objects.equals(arg, enumNameHelp((Enum<?>)e))) {
-                        result.add(e);
-                        return;
+                return arg -> {
+                    Object e = constants.get(arg);
+                    if(e == null) {
+                        throw new IllegalArgumentException(arg + "RSQL 无法解析枚举类型: " + type);
                     }
-                }
-                throw new IllegalArgumentException(arg + "RSQL 无法解析枚举类型: " + javaType);
-            } else if (Objects.equals(javaType, String.class)) {
-                result.add(arg);
-            } else {
-                throw new UnsupportedOperationException("当前 RSQL 不支持 java 数据类型" + javaType);
-            }
-        });
-        return result;
+                    return e;
+                };
+            });
+        }
+        throw new UnsupportedOperationException("当前 RSQL 不支持 java 数据类型" + javaType);
+    }
+
+    /**
+     * 已转换的查寻参数以及转换时的属性类型
+     */
+    private static class ConvertedArguments {
+        private final Class<?> javaType;
+        private final List<Object> values;
+
+        private ConvertedArguments(Class<?> javaType, List<Object> values) {
+            this.javaType = javaType;
+            this.values = values;
+        }
     }
 
-    private <E extends Enum<E> > String enumNameHelp(Enum<E> e) {
+    private static <E extends Enum<E> > String enumNameHelp(Enum<E> e) {
         return e.name();
     }
 }
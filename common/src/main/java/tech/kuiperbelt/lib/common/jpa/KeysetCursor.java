@@ -0,0 +1,162 @@
+package tech.kuiperbelt.lib.common.jpa;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * keyset (seek) 分页的游标<br>
+ * 游标记录上一页最后一行的排序属性值, 下一页用 "排在这一行之后" 作为查询条件, 而不是跳过 offset 行,
+ * 所以每一页的查询代价相同, 也不需要 count 查询。<br>
+ * 排序属性的最后总会追加 id, 保证顺序唯一。对客户端而言游标是不透明的字符串, 只能和生成它时相同的排序一起使用。
+ * 排序属性的值不能为空。
+ */
+public class KeysetCursor {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    /** 排序的签名, 用来检查游标与当前的排序是否一致 */
+    private final String signature;
+
+    /** 与排序属性一一对应的值 */
+    private final List<String> values;
+
+    private KeysetCursor(String signature, List<String> values) {
+        this.signature = signature;
+        this.values = values;
+    }
+
+    /**
+     * 在排序的最后追加 id, 使排序唯一; id 的方向与最后一个排序属性相同
+     * @param sort
+     * @return
+     */
+    public static Sort withIdTieBreaker(Sort sort) {
+        if (sort.getOrderFor(BaseEntity.Fields.id) != null) {
+            return sort;
+        }
+        Sort.Direction direction = sort.stream()
+                .reduce((first, second) -> second)
+                .map(Sort.Order::getDirection)
+                .orElse(Sort.Direction.ASC);
+        return sort.and(Sort.by(direction, BaseEntity.Fields.id));
+    }
+
+    /**
+     * 以 entity 的排序属性值生成游标
+     * @param sort 已追加 id 的排序
+     * @param entity 当前页的最后一行
+     * @return
+     */
+    public static KeysetCursor of(Sort sort, Object entity) {
+        BeanWrapperImpl wrapper = new BeanWrapperImpl(entity);
+        List<String> values = new ArrayList<>();
+        for (Sort.Order order : sort) {
+            Object value = wrapper.getPropertyValue(order.getProperty());
+            if (value == null) {
+                throw new IllegalArgumentException(String.format("keyset 分页的排序属性 %s 不能为空", order.getProperty()));
+            }
+            values.add(format(value));
+        }
+        return new KeysetCursor(signature(sort), values);
+    }
+
+    /**
+     * 解析客户端传回的游标
+     * @param token 游标字符串
+     * @param sort 已追加 id 的排序
+     * @return
+     */
+    public static KeysetCursor decode(String token, Sort sort) {
+        List<String> decoded;
+        try {
+            decoded = OBJECT_MAPPER.readValue(Base64.getUrlDecoder().decode(token), new TypeReference<List<String>>() {});
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("无法解析 keyset 分页的游标: " + token, e);
+        }
+        String signature = signature(sort);
+        if (decoded.isEmpty() || !signature.equals(decoded.get(0)) || decoded.size() != sort.stream().count() + 1) {
+            throw new IllegalArgumentException("keyset 分页的游标与当前的排序不一致: " + signature);
+        }
+        return new KeysetCursor(signature, decoded.subList(1, decoded.size()));
+    }
+
+    /**
+     * @return 不透明的游标字符串
+     */
+    public String encode() {
+        List<String> encoded = new ArrayList<>(values.size() + 1);
+        encoded.add(signature);
+        encoded.addAll(values);
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(OBJECT_MAPPER.writeValueAsBytes(encoded));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 生成 "排在游标之后" 的查询条件:
+     * (k1 > v1) or (k1 = v1 and k2 > v2) or ... 降序的属性使用 &lt;
+     * @param sort 已追加 id 的排序
+     * @return
+     */
+    public <T> Specification<T> toSpecification(Sort sort) {
+        List<Sort.Order> orders = sort.stream().collect(Collectors.toList());
+        return (root, query, criteriaBuilder) -> {
+            List<Predicate> alternatives = new ArrayList<>();
+            List<Predicate> equals = new ArrayList<>();
+            for (int i = 0; i < orders.size(); i++) {
+                Sort.Order order = orders.get(i);
+                Path<?> path = findProperty(root, order.getProperty());
+                Object value = GenericRSQLSpecification.convertArgument(path.getJavaType(), values.get(i));
+                List<Predicate> alternative = new ArrayList<>(equals);
+                alternative.add(after(criteriaBuilder, path, value, order.isDescending()));
+                alternatives.add(criteriaBuilder.and(alternative.toArray(new Predicate[0])));
+                equals.add(criteriaBuilder.equal(path, value));
+            }
+            return criteriaBuilder.or(alternatives.toArray(new Predicate[0]));
+        };
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Predicate after(CriteriaBuilder criteriaBuilder, Path<?> path, Object value, boolean descending) {
+        return descending ?
+                criteriaBuilder.lessThan((Expression) path, (Comparable) value) :
+                criteriaBuilder.greaterThan((Expression) path, (Comparable) value);
+    }
+
+    private static Path<?> findProperty(Path<?> root, String property) {
+        return GenericRSQLSpecification.findPath(root, property.split("\\."));
+    }
+
+    private static String signature(Sort sort) {
+        return sort.stream()
+                .map(order -> order.getProperty() + "," + order.getDirection())
+                .collect(Collectors.joining(";"));
+    }
+
+    private static String format(Object value) {
+        if (value instanceof Enum) {
+            return ((Enum<?>) value).name();
+        } else if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+        }
+        return String.valueOf(value);
+    }
+}
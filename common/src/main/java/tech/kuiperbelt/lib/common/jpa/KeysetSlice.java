@@ -0,0 +1,27 @@
+package tech.kuiperbelt.lib.common.jpa;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.SliceImpl;
+
+import java.util.List;
+
+/**
+ * keyset 分页的一页数据, 以及取下一页的游标
+ * @param <T>
+ */
+public class KeysetSlice<T> extends SliceImpl<T> {
+
+    private final String nextCursor;
+
+    public KeysetSlice(List<T> content, Pageable pageable, boolean hasNext, String nextCursor) {
+        super(content, pageable, hasNext);
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * @return 取下一页的游标, 没有下一页时为空
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -1,11 +1,16 @@
 package tech.kuiperbelt.lib.common.jpa;
 
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
 import org.springframework.context.annotation.*;
 import org.springframework.data.jpa.repository.config.EnableJpaAuditing;
 import org.springframework.validation.Validator;
 
+import javax.annotation.PostConstruct;
+
 @EnableJpaAuditing
 @Configuration
 @Import({SnowflakeIdWorkerConfiguration.class})
@@ -14,6 +19,97 @@ public class KuiperbeltJapAutoConfig {
     @Autowired(required = false)
     private Validator validator;
 
+    /**
+     * 是否将 createdTime 的范围条件换算成 id 的范围, 只有所有 id 都由 SnowflakeIdWorker 生成时才可以开启
+     */
+    @Value("${tech.kuiperbelt.jpa.created-time-id-range.enabled:false}")
+    private boolean createdTimeIdRangeEnabled;
+
+    /**
+     * 换算 id 范围时两端放宽的毫秒数
+     */
+    @Value("${tech.kuiperbelt.jpa.created-time-id-range.slack-millis:5000}")
+    private long createdTimeIdRangeSlackMillis;
+
+    /**
+     * 最多缓存的已解析 filter 个数, 0 表示不缓存
+     */
+    @Value("${tech.kuiperbelt.jpa.filter-cache-size:1000}")
+    private long filterCacheSize;
+
+    /**
+     * 导出时每次从数据库读取的行数
+     */
+    @Value("${tech.kuiperbelt.jpa.stream.fetch-size:1000}")
+    private int streamFetchSize;
+
+    /**
+     * 导出时每读取多少行清空一次持久化上下文
+     */
+    @Value("${tech.kuiperbelt.jpa.stream.clear-interval:1000}")
+    private int streamClearInterval;
+
+    /**
+     * filter 查询每页的最大行数, 0 表示不限制
+     */
+    @Value("${tech.kuiperbelt.jpa.query-limit.max-page-size:1000}")
+    private int queryMaxPageSize;
+
+    /**
+     * filter 中 =in= / =out= 的最大参数个数, 0 表示不限制
+     */
+    @Value("${tech.kuiperbelt.jpa.query-limit.max-in-arguments:1000}")
+    private int queryMaxInArguments;
+
+    /**
+     * filter 中 and / or 的最大嵌套层数, 0 表示不限制
+     */
+    @Value("${tech.kuiperbelt.jpa.query-limit.max-filter-depth:10}")
+    private int queryMaxFilterDepth;
+
+    /**
+     * 基于 Specification 的查询的超时毫秒数, 0 表示不设置超时
+     */
+    @Value("${tech.kuiperbelt.jpa.query-limit.timeout-millis:0}")
+    private int queryTimeoutMillis;
+
+    /**
+     * 最多缓存的 findByFilter 结果个数, 0 表示不缓存; 只缓存标注了 FilterResultCacheable 的 entity
+     */
+    @Value("${tech.kuiperbelt.jpa.result-cache.size:1000}")
+    private long resultCacheSize;
+
+    /**
+     * findByFilter 结果缓存的过期秒数
+     */
+    @Value("${tech.kuiperbelt.jpa.result-cache.expire-seconds:60}")
+    private long resultCacheExpireSeconds;
+
+    @PostConstruct
+    public void configureFilter() {
+        CreatedTimeIdRange.configure(createdTimeIdRangeEnabled, createdTimeIdRangeSlackMillis);
+        RSQLFilterCache.setMaximumSize(filterCacheSize);
+        BaseRepositoryImplement.configureStream(streamFetchSize, streamClearInterval);
+        FilterResultCache.configure(resultCacheSize, resultCacheExpireSeconds);
+        QueryLimits.setDefaults(new QueryLimits(queryMaxPageSize, queryMaxInArguments, queryMaxFilterDepth, queryTimeoutMillis));
+    }
+
+    /**
+     * 将已解析 filter 缓存的命中率等指标注册到 Micrometer, 指标名以 cache 开头, 标签 cache=rsql.filter
+     */
+    @Bean
+    public MeterBinder rsqlFilterCacheMetrics() {
+        return registry -> GuavaCacheMetrics.monitor(registry, RSQLFilterCache.getCache(), "rsql.filter");
+    }
+
+    /**
+     * 将 findByFilter 结果缓存的命中率等指标注册到 Micrometer, 标签 cache=filter.result
+     */
+    @Bean
+    public MeterBinder filterResultCacheMetrics() {
+        return registry -> GuavaCacheMetrics.monitor(registry, FilterResultCache.getCache(), "filter.result");
+    }
+
     // 将Spring Validator 配置到JPA中， 这样可以在自定义的Validator中用 Autowired 注入Spring Bean
     @Bean
     @Lazy
@@ -0,0 +1,34 @@
+package tech.kuiperbelt.lib.common.jpa;
+
+import cz.jirutka.rsql.parser.ast.ComparisonOperator;
+import cz.jirutka.rsql.parser.ast.RSQLOperators;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 在 RSQL 默认的比较运算符之外增加的运算符<br>
+ * =ilike= 和 =nilike=: 不区分大小写的匹配, 比较 lower(属性) 与小写的参数, 可以配合 lower(列) 上的函数索引使用
+ */
+public final class KuiperbeltRSQLOperators {
+
+    /** 不区分大小写的匹配, 支持通配符 */
+    public static final ComparisonOperator ILIKE = new ComparisonOperator("=ilike=");
+
+    /** 不区分大小写的不匹配, 支持通配符 */
+    public static final ComparisonOperator NOT_ILIKE = new ComparisonOperator("=nilike=");
+
+    private KuiperbeltRSQLOperators() {
+    }
+
+    /**
+     * @return RSQL 默认的运算符以及本类中增加的运算符
+     */
+    public static Set<ComparisonOperator> operators() {
+        Set<ComparisonOperator> operators = new HashSet<>(RSQLOperators.defaultOperators());
+        operators.add(ILIKE);
+        operators.add(NOT_ILIKE);
+        return Collections.unmodifiableSet(operators);
+    }
+}
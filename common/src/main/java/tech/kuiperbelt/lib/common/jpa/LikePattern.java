@@ -0,0 +1,110 @@
+package tech.kuiperbelt.lib.common.jpa;
+
+import lombok.Getter;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Predicate;
+import java.util.Locale;
+
+/**
+ * 字符串比较条件的查询计划<br>
+ * RSQL 中字符串的 == 和 != 支持通配符 * (以及 SQL like 的 % 和 _), 按照参数的形式生成能利用索引的条件:<br>
+ * 1 没有通配符: equal / notEqual, 可以走索引的等值查找<br>
+ * 2 只有末尾的通配符, 例如 abc*: 直接使用 like 'abc%', 由数据库按照列的排序规则决定能否走索引的范围扫描;
+ *   不在程序中拼接范围条件, 按字符编码计算的上界在语言相关的排序规则下并不正确<br>
+ * 3 其他: like / not like
+ */
+@Getter
+public class LikePattern {
+
+    /** 计划的类型 */
+    private final Kind kind;
+
+    /** like 的模式, * 已替换为 % */
+    private final String pattern;
+
+    /** EXACT 时为完整的值, PREFIX 时为前缀 */
+    private final String literal;
+
+    private LikePattern(Kind kind, String pattern, String literal) {
+        this.kind = kind;
+        this.pattern = pattern;
+        this.literal = literal;
+    }
+
+    /**
+     * 分析查询参数
+     * @param argument RSQL 的字符串参数
+     * @return
+     */
+    public static LikePattern of(String argument) {
+        String pattern = argument.replace("*", "%");
+        int firstWildcard = indexOfWildcard(pattern);
+        if (firstWildcard < 0) {
+            return new LikePattern(Kind.EXACT, pattern, pattern);
+        }
+        String prefix = pattern.substring(0, firstWildcard);
+        boolean trailingOnly = pattern.substring(firstWildcard).chars().allMatch(c -> c == '%');
+        if (trailingOnly && !prefix.isEmpty()) {
+            return new LikePattern(Kind.PREFIX, pattern, prefix);
+        }
+        return new LikePattern(Kind.PATTERN, pattern, null);
+    }
+
+    /**
+     * 生成匹配条件
+     * @param expression 字符串属性, 或者不区分大小写时的 lower(属性)
+     * @param criteriaBuilder
+     * @return
+     */
+    public Predicate toPredicate(Expression<String> expression, CriteriaBuilder criteriaBuilder) {
+        switch (kind) {
+            case EXACT:
+                return criteriaBuilder.equal(expression, literal);
+            default:
+                return criteriaBuilder.like(expression, pattern);
+        }
+    }
+
+    /**
+     * 生成不匹配条件
+     * @param expression 字符串属性, 或者不区分大小写时的 lower(属性)
+     * @param criteriaBuilder
+     * @return
+     */
+    public Predicate toNegatedPredicate(Expression<String> expression, CriteriaBuilder criteriaBuilder) {
+        return kind == Kind.EXACT ?
+                criteriaBuilder.notEqual(expression, literal) :
+                criteriaBuilder.notLike(expression, pattern);
+    }
+
+    /**
+     * @return 转换为小写后的计划, 用于不区分大小写的比较
+     */
+    public LikePattern toLowerCase() {
+        return new LikePattern(kind, pattern.toLowerCase(Locale.ROOT), literal == null ? null : literal.toLowerCase(Locale.ROOT));
+    }
+
+    private static int indexOfWildcard(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '%' || c == '_') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 查询计划的类型
+     */
+    public enum Kind {
+        /** 没有通配符, 等值比较 */
+        EXACT,
+        /** 只有末尾的通配符, 前缀匹配 */
+        PREFIX,
+        /** 其他的模式 */
+        PATTERN
+    }
+}
@@ -0,0 +1,109 @@
+package tech.kuiperbelt.lib.common.jpa;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁版本的 SnowflakeIdWorker<br>
+ * 将上次生成ID的时间截与毫秒内序列打包到一个 AtomicLong 中, 通过 CAS 一次性更新:<br>
+ * 0 - 00000000000 - 0000000000 0000000000 0000000000 0 - 000000000000 <br>
+ * 高位为 (时间截 - 开始时间截), 低12位为毫秒内序列。ID 的位分布以及时钟回退的规则与 SnowflakeIdWorker 保持一致。
+ */
+public class LockFreeSnowflakeIdWorker extends SnowflakeIdWorker {
+
+    /** 打包后的 (时间截 - 开始时间截) 与 毫秒内序列, 初始值对应时间截 twepoch 的第 0 个序列 */
+    private final AtomicLong state = new AtomicLong(0L);
+
+    LockFreeSnowflakeIdWorker(long workerId, long datacenterId) {
+        super(workerId, datacenterId);
+    }
+
+    /**
+     * 获得下一个ID (该方法是线程安全的, 且不持有锁)
+     *
+     * @return SnowflakeId
+     */
+    @Override
+    public long nextId() {
+        checkLease();
+        while (true) {
+            long current = state.get();
+            long lastTimestamp = (current >>> sequenceBits) + twepoch;
+            long sequence = current & sequenceMask;
+
+            long timestamp = currentTime();
+
+            // 如果当前时间小于上一次ID生成的时间戳，说明系统时钟回退过, 交给时钟回退策略处理
+            if (timestamp < lastTimestamp) {
+                timestamp = onClockBackwards(lastTimestamp, timestamp);
+            }
+
+            // 如果是同一时间生成的，则进行毫秒内序列
+            if (lastTimestamp == timestamp) {
+                sequence = (sequence + 1) & sequenceMask;
+                // 毫秒内序列溢出
+                if (sequence == 0) {
+                    // 阻塞到下一个毫秒,获得新的时间戳
+                    timestamp = tilNextMillis(lastTimestamp);
+                }
+            }
+            // 时间戳改变，毫秒内序列重置
+            else {
+                sequence = 0L;
+            }
+
+            // CAS 失败说明其他线程已经占用了该序列, 重新读取状态后再试
+            if (state.compareAndSet(current, ((timestamp - twepoch) << sequenceBits) | sequence)) {
+                recordGenerated(1);
+                return toId(timestamp, sequence);
+            }
+        }
+    }
+
+    /**
+     * 批量获得 n 个ID, 每次 CAS 预留当前毫秒内剩余的一段连续序列, 直到凑够 n 个
+     *
+     * @param n 需要的ID个数
+     * @return 按生成顺序递增的 SnowflakeId
+     */
+    @Override
+    public long[] nextIds(int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException(String.format("id count must be greater than 0, but %d", n));
+        }
+        checkLease();
+        long[] ids = new long[n];
+        int filled = 0;
+        while (filled < n) {
+            long current = state.get();
+            long lastTimestamp = (current >>> sequenceBits) + twepoch;
+            long sequence = current & sequenceMask;
+
+            long timestamp = currentTime();
+
+            if (timestamp < lastTimestamp) {
+                timestamp = onClockBackwards(lastTimestamp, timestamp);
+            }
+
+            long first;
+            if (lastTimestamp == timestamp) {
+                first = sequence + 1;
+                // 当前毫秒内的序列已经用完
+                if (first > sequenceMask) {
+                    timestamp = tilNextMillis(lastTimestamp);
+                    first = 0L;
+                }
+            } else {
+                first = 0L;
+            }
+            long last = Math.min(first + (n - filled) - 1, sequenceMask);
+
+            if (state.compareAndSet(current, ((timestamp - twepoch) << sequenceBits) | last)) {
+                for (long s = first; s <= last; s++) {
+                    ids[filled++] = toId(timestamp, s);
+                }
+            }
+        }
+        recordGenerated(n);
+        return ids;
+    }
+}
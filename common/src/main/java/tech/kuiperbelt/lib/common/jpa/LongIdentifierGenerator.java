@@ -8,11 +8,53 @@ import java.io.Serializable;
 
 /**
  * JPA entity ID 生成器
+ * 当 blockSize 大于 1 时, 每个线程一次性向 SnowflakeIdWorker 预留 blockSize 个ID 并缓存在本线程内,
+ * 批量插入时每 blockSize 行才进入一次 SnowflakeIdWorker 的临界区。
  */
 public class LongIdentifierGenerator implements IdentifierGenerator {
 
+    /**
+     * 线程内缓存的ID 超过这个时间未用完即丢弃, 避免空闲线程在很久之后拿出过时的ID, 破坏ID 的时间顺序
+     */
+    static final long BLOCK_MAX_AGE_MILLIS = 1000L;
+
+    private static volatile int blockSize = 1;
+
+    private static final ThreadLocal<IdBlock> ID_BLOCKS = ThreadLocal.withInitial(IdBlock::new);
+
+    /**
+     * 设置每个线程预留的ID 个数, 小于等于 1 表示不缓存
+     * @param size
+     */
+    static void setBlockSize(int size) {
+        blockSize = Math.max(size, 1);
+    }
+
     @Override
     public Serializable generate(SharedSessionContractImplementor sharedSessionContractImplementor, Object o) throws HibernateException {
-        return SnowflakeIdWorker.getInstance().nextId();
+        int size = blockSize;
+        if (size <= 1) {
+            return SnowflakeIdWorker.getInstance().nextId();
+        }
+        return ID_BLOCKS.get().next(size);
+    }
+
+    /**
+     * 线程内预留的一段ID
+     */
+    private static class IdBlock {
+        private long[] ids = new long[0];
+        private int index;
+        private long reservedAt;
+
+        long next(int size) {
+            long now = System.currentTimeMillis();
+            if (index >= ids.length || now - reservedAt > BLOCK_MAX_AGE_MILLIS) {
+                ids = SnowflakeIdWorker.getInstance().nextIds(size);
+                index = 0;
+                reservedAt = now;
+            }
+            return ids[index++];
+        }
     }
 }
@@ -0,0 +1,26 @@
+package tech.kuiperbelt.lib.common.jpa;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标注在 entity 上, 覆盖这个 entity 的 repository 的查询限制; 负数表示使用全局配置, 0 表示不限制
+ * @see QueryLimits
+ */
+@Target({ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface QueryLimit {
+    /** 每页的最大行数 */
+    int maxPageSize() default -1;
+
+    /** =in= / =out= 的最大参数个数 */
+    int maxInArguments() default -1;
+
+    /** filter 中 and / or 的最大嵌套层数 */
+    int maxFilterDepth() default -1;
+
+    /** 查询超时的毫秒数, JDBC 只支持秒, 不足一秒的部分会被舍去 */
+    int timeoutMillis() default -1;
+}
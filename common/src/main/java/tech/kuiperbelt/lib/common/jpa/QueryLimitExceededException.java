@@ -0,0 +1,26 @@
+package tech.kuiperbelt.lib.common.jpa;
+
+import lombok.Getter;
+
+/**
+ * 查询超出 QueryLimits 中的限制
+ */
+@Getter
+public class QueryLimitExceededException extends RuntimeException {
+
+    /** 超出的限制, 例如 max-page-size */
+    private final String limit;
+
+    /** 允许的最大值 */
+    private final int maximum;
+
+    /** 实际的值 */
+    private final int actual;
+
+    public QueryLimitExceededException(String limit, int maximum, int actual) {
+        super(String.format("查询超出限制 %s: %d, 最大允许 %d", limit, actual, maximum));
+        this.limit = limit;
+        this.maximum = maximum;
+        this.actual = actual;
+    }
+}
@@ -0,0 +1,138 @@
+package tech.kuiperbelt.lib.common.jpa;
+
+import cz.jirutka.rsql.parser.ast.ComparisonNode;
+import cz.jirutka.rsql.parser.ast.LogicalNode;
+import cz.jirutka.rsql.parser.ast.Node;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import org.springframework.data.domain.Pageable;
+
+import javax.persistence.Query;
+
+/**
+ * filter 查询的限制, 超出限制的查询在访问数据库之前失败, 避免一个查询长时间占用连接<br>
+ * 0 表示不限制。全局配置见 KuiperbeltJapAutoConfig, 单个 entity 可以用 QueryLimit 覆盖
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class QueryLimits {
+
+    /** JPA 2.0 规定的查询超时提示, 单位毫秒 */
+    public static final String QUERY_TIMEOUT = "javax.persistence.query.timeout";
+
+    public static final String MAX_PAGE_SIZE = "max-page-size";
+    public static final String MAX_IN_ARGUMENTS = "max-in-arguments";
+    public static final String MAX_FILTER_DEPTH = "max-filter-depth";
+
+    private static volatile QueryLimits defaults = new QueryLimits(1000, 1000, 10, 0);
+
+    /** 每页的最大行数 */
+    private final int maxPageSize;
+
+    /** =in= / =out= 的最大参数个数 */
+    private final int maxInArguments;
+
+    /** filter 中 and / or 的最大嵌套层数, 单个比较条件的层数为 1 */
+    private final int maxFilterDepth;
+
+    /** 查询超时的毫秒数 */
+    private final int timeoutMillis;
+
+    /**
+     * @return 全局的查询限制
+     */
+    public static QueryLimits getDefaults() {
+        return defaults;
+    }
+
+    static void setDefaults(QueryLimits limits) {
+        defaults = limits;
+    }
+
+    /**
+     * 以 entity 上的 QueryLimit 覆盖全局的查询限制
+     * @param domainClass
+     * @return
+     */
+    public static QueryLimits of(Class<?> domainClass) {
+        QueryLimits global = defaults;
+        QueryLimit limit = domainClass.getAnnotation(QueryLimit.class);
+        if(limit == null) {
+            return global;
+        }
+        return new QueryLimits(
+                limit.maxPageSize() < 0 ? global.maxPageSize : limit.maxPageSize(),
+                limit.maxInArguments() < 0 ? global.maxInArguments : limit.maxInArguments(),
+                limit.maxFilterDepth() < 0 ? global.maxFilterDepth : limit.maxFilterDepth(),
+                limit.timeoutMillis() < 0 ? global.timeoutMillis : limit.timeoutMillis());
+    }
+
+    /**
+     * 检查每页的行数, 不分页的查询只在程序内部使用, 不做检查
+     * @param pageable
+     */
+    public void checkPageable(Pageable pageable) {
+        if(pageable != null && pageable.isPaged()) {
+            check(MAX_PAGE_SIZE, maxPageSize, pageable.getPageSize());
+        }
+    }
+
+    /**
+     * 检查不分页的查询一次读取的行数, 按照每页的最大行数限制
+     * @param rows
+     */
+    public void checkRows(long rows) {
+        check(MAX_PAGE_SIZE, maxPageSize, (int) Math.min(rows, Integer.MAX_VALUE));
+    }
+
+    /**
+     * 检查 filter 的嵌套层数以及 =in= 的参数个数
+     * @param node RSQL 的 AST
+     */
+    public void checkFilter(Node node) {
+        check(MAX_FILTER_DEPTH, maxFilterDepth, depth(node));
+        check(MAX_IN_ARGUMENTS, maxInArguments, maxArguments(node));
+    }
+
+    /**
+     * 为查询加上超时提示, 超时后 JDBC 驱动会取消正在执行的语句
+     * @param query
+     * @return
+     */
+    public <Q extends Query> Q applyTimeout(Q query) {
+        if(timeoutMillis > 0) {
+            query.setHint(QUERY_TIMEOUT, timeoutMillis);
+        }
+        return query;
+    }
+
+    private static void check(String limit, int maximum, int actual) {
+        if(maximum > 0 && actual > maximum) {
+            throw new QueryLimitExceededException(limit, maximum, actual);
+        }
+    }
+
+    static int depth(Node node) {
+        if(node instanceof LogicalNode) {
+            int depth = 0;
+            for(Node child : ((LogicalNode) node).getChildren()) {
+                depth = Math.max(depth, depth(child));
+            }
+            return depth + 1;
+        }
+        return 1;
+    }
+
+    static int maxArguments(Node node) {
+        if(node instanceof LogicalNode) {
+            int max = 0;
+            for(Node child : ((LogicalNode) node).getChildren()) {
+                max = Math.max(max, maxArguments(child));
+            }
+            return max;
+        }
+        return node instanceof ComparisonNode ? ((ComparisonNode) node).getArguments().size() : 0;
+    }
+}
@@ -0,0 +1,120 @@
+package tech.kuiperbelt.lib.common.jpa;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import cz.jirutka.rsql.parser.ast.Node;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * 已解析的 RSQL filter 的 LRU 缓存, 以 (repository 实现类, entity 类型, filter 字符串) 为 key,
+ * 缓存解析后的 AST、由它生成的 Specification 以及按需编译的内存 Predicate。<br>
+ * Specification 只描述查询条件, 不持有 EntityManager 或者查询结果, 可以在多个线程、多次查询之间复用。
+ * filter 解析失败时不缓存, 异常原样抛出。
+ */
+public final class RSQLFilterCache {
+
+    /** 默认最多缓存的 filter 个数 */
+    static final long DEFAULT_MAXIMUM_SIZE = 1000L;
+
+    private static volatile Cache<Key, CompiledFilter<?>> cache = newCache(DEFAULT_MAXIMUM_SIZE);
+
+    private RSQLFilterCache() {
+    }
+
+    /**
+     * 设置最多缓存的 filter 个数, 0 表示不缓存; 会清空已有的缓存
+     * @param maximumSize
+     */
+    static void setMaximumSize(long maximumSize) {
+        cache = newCache(Math.max(maximumSize, 0L));
+    }
+
+    /**
+     * @return 当前使用的缓存, 用于注册命中率等指标
+     */
+    public static Cache<?, ?> getCache() {
+        return cache;
+    }
+
+    /**
+     * 从缓存中取出已解析的 filter, 不存在时用 compiler 解析并放入缓存
+     *
+     * @param owner 解析 filter 的 repository 实现类, 不同的实现可能生成不同的 Specification
+     * @param domainClass entity 类型
+     * @param filter filter 字符串
+     * @param compiler 解析 filter
+     * @return 已解析的 filter
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> CompiledFilter<T> get(Class<?> owner, Class<T> domainClass, String filter,
+                                            Supplier<CompiledFilter<T>> compiler) {
+        Cache<Key, CompiledFilter<?>> current = cache;
+        Key key = new Key(owner, domainClass, filter);
+        // 不使用 Cache.get(key, loader), 以免解析异常被包装成 ExecutionException
+        CompiledFilter<T> compiled = (CompiledFilter<T>) current.getIfPresent(key);
+        if (compiled == null) {
+            compiled = compiler.get();
+            current.put(key, compiled);
+        }
+        return compiled;
+    }
+
+    private static Cache<Key, CompiledFilter<?>> newCache(long maximumSize) {
+        return CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static class Key {
+        private final Class<?> owner;
+        private final Class<?> domainClass;
+        private final String filter;
+    }
+
+    /**
+     * 解析后的 filter
+     * @param <T>
+     */
+    @Getter
+    public static class CompiledFilter<T> {
+        /** RSQL 的 AST */
+        private final Node node;
+
+        /** 由 AST 生成的查询条件 */
+        private final Specification<T> specification;
+
+        /** 由 AST 编译的内存 Predicate, 第一次使用时编译 */
+        @Getter(AccessLevel.NONE)
+        private volatile Predicate<T> predicate;
+
+        public CompiledFilter(Node node, Specification<T> specification) {
+            this.node = node;
+            this.specification = specification;
+        }
+
+        /**
+         * 取内存 Predicate, 不存在时用 compiler 编译; 并发编译时结果相同, 保留任意一个即可
+         * @param compiler 将 AST 编译成 Predicate
+         * @return
+         */
+        public Predicate<T> getPredicate(Function<Node, Predicate<T>> compiler) {
+            Predicate<T> compiled = predicate;
+            if (compiled == null) {
+                compiled = compiler.apply(node);
+                predicate = compiled;
+            }
+            return compiled;
+        }
+    }
+}
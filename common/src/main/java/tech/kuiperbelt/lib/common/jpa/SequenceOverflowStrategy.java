@@ -0,0 +1,95 @@
+package tech.kuiperbelt.lib.common.jpa;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 毫秒内序列溢出时 SnowflakeIdWorker 等待下一个毫秒的策略
+ */
+public interface SequenceOverflowStrategy {
+
+    /**
+     * 等待到下一个毫秒
+     *
+     * @param worker 当前的 ID 生成器
+     * @param lastTimestamp 上次生成ID的时间截
+     * @return 大于 lastTimestamp 的当前时间戳
+     */
+    long awaitNextMillis(SnowflakeIdWorker worker, long lastTimestamp);
+
+    /**
+     * 按照名称创建策略
+     * @param name SPIN 或者 PARK
+     * @return
+     */
+    static SequenceOverflowStrategy of(String name) {
+        switch (name.toUpperCase()) {
+            case "SPIN":
+                return new Spin();
+            case "PARK":
+                return new Park();
+            default:
+                throw new IllegalArgumentException(
+                        String.format("unknown sequence overflow strategy: %s, should be SPIN or PARK", name));
+        }
+    }
+
+    /**
+     * 忙等到下一个毫秒 (默认), 延迟最低但会占满一个 CPU 核
+     */
+    class Spin implements SequenceOverflowStrategy {
+
+        /** 序列溢出的次数 */
+        private final LongAdder overflows = new LongAdder();
+
+        @Override
+        public long awaitNextMillis(SnowflakeIdWorker worker, long lastTimestamp) {
+            overflows.increment();
+            long timestamp = worker.timeGen();
+            while (timestamp <= lastTimestamp) {
+                timestamp = worker.timeGen();
+            }
+            return timestamp;
+        }
+
+        public long getOverflowCount() {
+            return overflows.sum();
+        }
+    }
+
+    /**
+     * 挂起当前线程到下一个毫秒, 不占用 CPU
+     */
+    class Park implements SequenceOverflowStrategy {
+
+        /** 每次挂起的最短时间 */
+        private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+        /** 序列溢出的次数 */
+        private final LongAdder overflows = new LongAdder();
+
+        /** 挂起的次数 */
+        private final LongAdder parks = new LongAdder();
+
+        @Override
+        public long awaitNextMillis(SnowflakeIdWorker worker, long lastTimestamp) {
+            overflows.increment();
+            long timestamp = worker.timeGen();
+            while (timestamp <= lastTimestamp) {
+                parks.increment();
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(lastTimestamp - timestamp) + PARK_NANOS);
+                timestamp = worker.timeGen();
+            }
+            return timestamp;
+        }
+
+        public long getOverflowCount() {
+            return overflows.sum();
+        }
+
+        public long getParkCount() {
+            return parks.sum();
+        }
+    }
+}
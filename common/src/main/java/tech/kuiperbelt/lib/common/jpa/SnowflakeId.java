@@ -0,0 +1,52 @@
+package tech.kuiperbelt.lib.common.jpa;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.Instant;
+
+/**
+ * 按照 SnowflakeIdWorker 的位分布解析出的 ID 各部分
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+@AllArgsConstructor
+public class SnowflakeId {
+
+    private final long id;
+
+    /** 生成ID 的时间截(毫秒) */
+    private final long timestamp;
+
+    /** 数据中心ID */
+    private final long datacenterId;
+
+    /** 工作机器ID */
+    private final long workerId;
+
+    /** 毫秒内序列, STRIPED 模式下高4位为分段号 */
+    private final long sequence;
+
+    /**
+     * 解析 SnowflakeIdWorker 生成的ID
+     * @param id SnowflakeId
+     * @return
+     */
+    public static SnowflakeId decode(long id) {
+        if (id < 0) {
+            throw new IllegalArgumentException(String.format("snowflake id can't be less than 0, but %d", id));
+        }
+        return new SnowflakeId(id,
+                (id >>> SnowflakeIdWorker.timestampLeftShift) + SnowflakeIdWorker.twepoch,
+                (id >>> SnowflakeIdWorker.datacenterIdShift) & SnowflakeIdWorker.maxDatacenterId,
+                (id >>> SnowflakeIdWorker.workerIdShift) & SnowflakeIdWorker.maxWorkerId,
+                id & SnowflakeIdWorker.sequenceMask);
+    }
+
+    public Instant getInstant() {
+        return Instant.ofEpochMilli(timestamp);
+    }
+}
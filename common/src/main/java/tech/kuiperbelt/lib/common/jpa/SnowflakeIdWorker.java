@@ -4,6 +4,10 @@ package tech.kuiperbelt.lib.common.jpa;
 
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
 /**
  * Twitter_Snowflake<br>
  * SnowFlake的结构如下(每部分用-分开):<br>
@@ -21,7 +25,7 @@ public class SnowflakeIdWorker  {
 
     // ==============================Fields===========================================
     /** 开始时间截 (Fri Mar 08 21:53:23 CST 2019) */
-    private final static long twepoch = 1552053203957L;
+    final static long twepoch = 1552053203957L;
 
     /** 机器id所占的位数 256 个*/
     private final static long workerIdBits = 8L;
@@ -31,33 +35,33 @@ public class SnowflakeIdWorker  {
 
     /** 支持的最大机器id，结果是255 (这个移位算法可以很快的计算出几位二进制数所能表示的最大十进制数) */
     //maxWorkerId = -1L ^ (-1L << workerIdBits);
-    private final static long maxWorkerId = ~(-1L << workerIdBits);
+    final static long maxWorkerId = ~(-1L << workerIdBits);
 
     /** 支持的最大数据中心标识id，结果是31 */
     //maxDatacenterId = -1L ^ (-1L << datacenterIdBits)
-    private final static long maxDatacenterId = ~(-1L << datacenterIdBits);
+    final static long maxDatacenterId = ~(-1L << datacenterIdBits);
 
     /** 序列在id中占的位数 */
-    private final static long sequenceBits = 12L;
+    final static long sequenceBits = 12L;
 
     /** 机器ID向左移12位 */
-    private final static long workerIdShift = sequenceBits;
+    final static long workerIdShift = sequenceBits;
 
     /** 数据标识id向左移20位(12+8) */
-    private final static long datacenterIdShift = sequenceBits + workerIdBits;
+    final static long datacenterIdShift = sequenceBits + workerIdBits;
 
     /** 时间截向左移22位(8+2+12) */
-    private final static long timestampLeftShift = sequenceBits + workerIdBits + datacenterIdBits;
+    final static long timestampLeftShift = sequenceBits + workerIdBits + datacenterIdBits;
 
     /** 生成序列的掩码，这里为4095 (0b111111111111=0xfff=4095) */
     //sequenceMask = -1L ^ (-1L << sequenceBits)
-    private final static long sequenceMask = ~(-1L << sequenceBits);
+    final static long sequenceMask = ~(-1L << sequenceBits);
 
     /** 工作机器ID(0~31) */
-    private long workerId;
+    private final long workerId;
 
     /** 数据中心ID(0~31) */
-    private long datacenterId;
+    private final long datacenterId;
 
     /** 毫秒内序列(0~4095) */
     private long sequence = 0L;
@@ -65,6 +69,33 @@ public class SnowflakeIdWorker  {
     /** 上次生成ID的时间截 */
     private long lastTimestamp = -1L;
 
+    /** 系统时钟回退时的处理策略, 默认拒绝生成ID */
+    private volatile ClockBackwardsStrategy clockBackwardsStrategy = new ClockBackwardsStrategy.Reject();
+
+    /** 毫秒内序列溢出时的等待策略, 默认忙等 */
+    private volatile SequenceOverflowStrategy sequenceOverflowStrategy = new SequenceOverflowStrategy.Spin();
+
+    /** 已生成的ID 个数 */
+    private final LongAdder generated = new LongAdder();
+
+    /** 毫秒内序列溢出的次数 */
+    private final LongAdder overflows = new LongAdder();
+
+    /** 序列溢出后等待下一个毫秒的累计时间(纳秒) */
+    private final LongAdder overflowWaitNanos = new LongAdder();
+
+    /** 系统时钟回退的次数 */
+    private final LongAdder clockBackwards = new LongAdder();
+
+    /** 读到过的最大系统时间截, 与逻辑时钟 lastTimestamp 分开记录, 只用于统计时钟回退 */
+    private final AtomicLong lastSystemTimestamp = new AtomicLong(-1L);
+
+    /** 已经计为一次时钟回退的最大系统时间截, 同一次回退中的多次读取只计一次 */
+    private final AtomicLong clockBackwardsFrom = new AtomicLong(-1L);
+
+    /** worker id 来自租约时校验租约是否仍然有效, 为空时不校验 */
+    private volatile BooleanSupplier lease;
+
 
 
     private static volatile SnowflakeIdWorker snowflakeIdWorker;
@@ -74,10 +105,21 @@ public class SnowflakeIdWorker  {
      * @return
      */
     public static SnowflakeIdWorker getInstance(Long workerId, Long datacenterId){
+        return getInstance(workerId, datacenterId, Mode.SYNCHRONIZED);
+    }
+
+    /**
+     * 单例模式, 按照指定的并发模式创建 ID 生成器
+     * @param workerId
+     * @param datacenterId
+     * @param mode
+     * @return
+     */
+    public static SnowflakeIdWorker getInstance(Long workerId, Long datacenterId, Mode mode){
         if(null == snowflakeIdWorker){
             synchronized (SnowflakeIdWorker.class){
                 if( null == snowflakeIdWorker){
-                    snowflakeIdWorker = new SnowflakeIdWorker(workerId,datacenterId);
+                    snowflakeIdWorker = mode.create(workerId, datacenterId);
                 }
             }
         }
@@ -102,7 +144,7 @@ public class SnowflakeIdWorker  {
      * @param datacenterId
      *            数据中心ID (0~31)
      */
-    private SnowflakeIdWorker(long workerId, long datacenterId) {
+    SnowflakeIdWorker(long workerId, long datacenterId) {
         if (workerId > maxWorkerId || workerId < 0) {
             throw new IllegalArgumentException(
                     String.format("worker Id can't be greater than %d or less than 0", maxWorkerId));
@@ -114,7 +156,7 @@ public class SnowflakeIdWorker  {
         this.workerId = workerId;
         this.datacenterId = datacenterId;
 
-        log.info("SnowflakeIdWorker 初始配置，data center Id: {},  worker Id: {}", datacenterId, workerId);
+        log.info("{} 初始配置，data center Id: {},  worker Id: {}", getClass().getSimpleName(), datacenterId, workerId);
     }
 
     // ==============================Methods==========================================
@@ -124,12 +166,12 @@ public class SnowflakeIdWorker  {
      * @return SnowflakeId
      */
     public synchronized long nextId() {
-        long timestamp = timeGen();
+        checkLease();
+        long timestamp = currentTime();
 
-        // 如果当前时间小于上一次ID生成的时间戳，说明系统时钟回退过这个时候应当抛出异常
+        // 如果当前时间小于上一次ID生成的时间戳，说明系统时钟回退过, 交给时钟回退策略处理
         if (timestamp < lastTimestamp) {
-            throw new RuntimeException(String.format(
-                    "系统时钟回退过.  拒绝生成 id %d ms", lastTimestamp - timestamp));
+            timestamp = onClockBackwards(lastTimestamp, timestamp);
         }
 
         // 如果是同一时间生成的，则进行毫秒内序列
@@ -149,7 +191,34 @@ public class SnowflakeIdWorker  {
         // 上次生成ID的时间截
         lastTimestamp = timestamp;
 
-        // 移位并通过或运算拼到一起组成64位的ID
+        generated.increment();
+        return toId(timestamp, sequence);
+    }
+
+    /**
+     * 批量获得 n 个ID, 在一次临界区内预留一段连续的序列 (该方法是线程安全的)
+     *
+     * @param n 需要的ID个数
+     * @return 按生成顺序递增的 SnowflakeId
+     */
+    public synchronized long[] nextIds(int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException(String.format("id count must be greater than 0, but %d", n));
+        }
+        long[] ids = new long[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = nextId();
+        }
+        return ids;
+    }
+
+    /**
+     * 移位并通过或运算拼到一起组成64位的ID
+     * @param timestamp 时间戳
+     * @param sequence 毫秒内序列
+     * @return SnowflakeId
+     */
+    final long toId(long timestamp, long sequence) {
         return ((timestamp - twepoch) << timestampLeftShift) //
                 | (datacenterId << datacenterIdShift) //
                 | (workerId << workerIdShift) //
@@ -157,20 +226,128 @@ public class SnowflakeIdWorker  {
     }
 
     /**
-     * 阻塞到下一个毫秒，直到获得新的时间戳
+     * 系统时钟回退时, 按照时钟回退策略得到可以继续使用的时间戳
      *
      * @param lastTimestamp
      *            上次生成ID的时间截
-     * @return 当前时间戳
+     * @param timestamp
+     *            当前时间截
+     * @return 大于等于 lastTimestamp 的时间戳
+     */
+    long onClockBackwards(long lastTimestamp, long timestamp) {
+        return clockBackwardsStrategy.onClockBackwards(this, lastTimestamp, timestamp);
+    }
+
+    /**
+     * 读取系统时钟, 系统时钟小于读到过的最大系统时间时记为一次时钟回退;
+     * 没有加锁的调用方也会调用这里, 最大值由 getAndAccumulate 原子更新,
+     * 时钟追上之前 (例如 BORROW 期间) 的多次读取只计一次
+     *
+     * @return 当前时间截
      */
-    private long tilNextMillis(long lastTimestamp) {
+    final long currentTime() {
         long timestamp = timeGen();
-        while (timestamp <= lastTimestamp) {
-            timestamp = timeGen();
+        if (timestamp == lastSystemTimestamp.get()) {
+            return timestamp;
+        }
+        long previous = lastSystemTimestamp.getAndAccumulate(timestamp, Math::max);
+        if (previous > timestamp && clockBackwardsFrom.getAndAccumulate(previous, Math::max) < previous) {
+            clockBackwards.increment();
         }
         return timestamp;
     }
 
+    /**
+     * 阻塞到下一个毫秒，直到获得新的时间戳; 时钟回退策略允许时直接借用下一个毫秒
+     *
+     * @param lastTimestamp
+     *            上次生成ID的时间截
+     * @return 当前时间戳
+     */
+    long tilNextMillis(long lastTimestamp) {
+        overflows.increment();
+        long now = timeGen();
+        if (clockBackwardsStrategy.canBorrow(lastTimestamp + 1, now)) {
+            return Math.max(lastTimestamp + 1, now);
+        }
+        long start = System.nanoTime();
+        try {
+            return sequenceOverflowStrategy.awaitNextMillis(this, lastTimestamp);
+        } finally {
+            overflowWaitNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 租约已失效时拒绝生成ID, 该 worker id 可能已被其他节点占用, 继续生成会产生重复ID
+     */
+    final void checkLease() {
+        BooleanSupplier current = lease;
+        if (current != null && !current.getAsBoolean()) {
+            throw new IllegalStateException(String.format("worker id: %d 的租约已失效, 停止生成ID", workerId));
+        }
+    }
+
+    /**
+     * 记录已生成的ID 个数, 供子类在生成ID 后调用
+     * @param count
+     */
+    final void recordGenerated(long count) {
+        generated.add(count);
+    }
+
+    /** @return 已生成的ID 个数 */
+    public long getGeneratedCount() {
+        return generated.sum();
+    }
+
+    /** @return 毫秒内序列溢出的次数 */
+    public long getOverflowCount() {
+        return overflows.sum();
+    }
+
+    /** @return 序列溢出后等待下一个毫秒的累计时间(纳秒) */
+    public long getOverflowWaitNanos() {
+        return overflowWaitNanos.sum();
+    }
+
+    /** @return 系统时钟回退的次数 */
+    public long getClockBackwardsCount() {
+        return clockBackwards.sum();
+    }
+
+    public long getWorkerId() {
+        return workerId;
+    }
+
+    public long getDatacenterId() {
+        return datacenterId;
+    }
+
+    public ClockBackwardsStrategy getClockBackwardsStrategy() {
+        return clockBackwardsStrategy;
+    }
+
+    void setClockBackwardsStrategy(ClockBackwardsStrategy clockBackwardsStrategy) {
+        this.clockBackwardsStrategy = clockBackwardsStrategy;
+    }
+
+    public SequenceOverflowStrategy getSequenceOverflowStrategy() {
+        return sequenceOverflowStrategy;
+    }
+
+    void setSequenceOverflowStrategy(SequenceOverflowStrategy sequenceOverflowStrategy) {
+        this.sequenceOverflowStrategy = sequenceOverflowStrategy;
+    }
+
+    /**
+     * worker id 来自租约时设置租约的校验, 每次生成ID 前检查
+     * @param lease 租约有效时返回 true
+     */
+    public void setLease(BooleanSupplier lease) {
+        this.lease = lease;
+    }
+
     /**
      * 返回以毫秒为单位的当前时间 20180101111111 10 10 10 10   1111111
      *
@@ -180,7 +357,42 @@ public class SnowflakeIdWorker  {
      * 0000000000000000000
      * @return 当前时间(毫秒)
      */
-    private long timeGen() {
+    long timeGen() {
         return System.currentTimeMillis();
     }
+
+    /**
+     * ID 生成器的并发模式
+     */
+    public enum Mode {
+        /**
+         * 同一个 JVM 内所有线程竞争同一把锁 (默认)
+         */
+        SYNCHRONIZED {
+            @Override
+            SnowflakeIdWorker create(long workerId, long datacenterId) {
+                return new SnowflakeIdWorker(workerId, datacenterId);
+            }
+        },
+        /**
+         * 将时间戳与序列打包到一个 AtomicLong 中, 以 CAS 方式无锁生成
+         */
+        LOCK_FREE {
+            @Override
+            SnowflakeIdWorker create(long workerId, long datacenterId) {
+                return new LockFreeSnowflakeIdWorker(workerId, datacenterId);
+            }
+        },
+        /**
+         * 将毫秒内序列按线程拆分为多个分段, 每个分段独立以 CAS 方式生成
+         */
+        STRIPED {
+            @Override
+            SnowflakeIdWorker create(long workerId, long datacenterId) {
+                return new StripedSnowflakeIdWorker(workerId, datacenterId);
+            }
+        };
+
+        abstract SnowflakeIdWorker create(long workerId, long datacenterId);
+    }
 }
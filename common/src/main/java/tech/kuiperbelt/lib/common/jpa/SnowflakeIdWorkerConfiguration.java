@@ -1,8 +1,14 @@
 package tech.kuiperbelt.lib.common.jpa;
 
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.transaction.PlatformTransactionManager;
+import tech.kuiperbelt.lib.common.jpa.worker.WorkerIdLeaseAllocator;
+
+import javax.persistence.EntityManager;
 
 
 @Configuration
@@ -26,9 +32,68 @@ public class SnowflakeIdWorkerConfiguration {
     @Value("${tech.kuiperbelt.cluster.netmask:255.255.255.0}")
     private String netmask;
 
+    /**
+     * ID 生成器的并发模式, SYNCHRONIZED(默认), LOCK_FREE 或者 STRIPED
+     */
+    @Value("${tech.kuiperbelt.snowflake.mode:SYNCHRONIZED}")
+    private SnowflakeIdWorker.Mode mode;
+
+    /**
+     * LongIdentifierGenerator 每个线程一次预留的ID 个数, 默认 1 即不预留
+     */
+    @Value("${tech.kuiperbelt.snowflake.block-size:1}")
+    private int blockSize;
+
+    /**
+     * 系统时钟回退时的处理策略, REJECT(默认), WAIT 或者 BORROW
+     */
+    @Value("${tech.kuiperbelt.snowflake.clock-backwards:REJECT}")
+    private String clockBackwards;
+
+    /**
+     * WAIT 最多等待的毫秒数, BORROW 逻辑时钟最多超前系统时钟的毫秒数
+     */
+    @Value("${tech.kuiperbelt.snowflake.clock-backwards-max-millis:10}")
+    private long clockBackwardsMaxMillis;
+
+    /**
+     * 毫秒内序列溢出时的等待策略, SPIN(默认) 或者 PARK
+     */
+    @Value("${tech.kuiperbelt.snowflake.sequence-overflow:SPIN}")
+    private String sequenceOverflow;
+
+    /**
+     * worker id 的租期(毫秒), 仅在 tech.kuiperbelt.snowflake.worker-id-source=lease 时使用
+     */
+    @Value("${tech.kuiperbelt.snowflake.lease-millis:30000}")
+    private long leaseMillis;
+
+    /**
+     * worker id 的来源为 lease 时, 从数据库表 WorkerIdLease 中租用 worker id, 否则根据机器IP 和子网掩码计算
+     */
+    @Bean
+    @ConditionalOnProperty(name = "tech.kuiperbelt.snowflake.worker-id-source", havingValue = "lease")
+    public WorkerIdLeaseAllocator workerIdLeaseAllocator(EntityManager entityManager, PlatformTransactionManager transactionManager) {
+        return new WorkerIdLeaseAllocator(entityManager, transactionManager, SnowflakeIdWorker.maxWorkerId, leaseMillis);
+    }
+
+    @Bean
+    public SnowflakeIdWorker getSnowflakeIdWorker(ObjectProvider<WorkerIdLeaseAllocator> workerIdLeaseAllocator){
+        LongIdentifierGenerator.setBlockSize(blockSize);
+        WorkerIdLeaseAllocator allocator = workerIdLeaseAllocator.getIfAvailable();
+        long workerId = allocator != null ? allocator.acquire() : IpAddressUtil.sequence(clientIp, netmask);
+        SnowflakeIdWorker worker = SnowflakeIdWorker.getInstance(workerId, datacenterId, mode);
+        worker.setClockBackwardsStrategy(ClockBackwardsStrategy.of(clockBackwards, clockBackwardsMaxMillis));
+        worker.setSequenceOverflowStrategy(SequenceOverflowStrategy.of(sequenceOverflow));
+        if (allocator != null) {
+            worker.setLease(allocator::isLeaseValid);
+        }
+        return worker;
+    }
+
     @Bean
-    public SnowflakeIdWorker getSnowflakeIdWorker(){
-        return SnowflakeIdWorker.getInstance(IpAddressUtil.sequence(clientIp, netmask), datacenterId);
+    public SnowflakeIdWorkerMetrics snowflakeIdWorkerMetrics(SnowflakeIdWorker snowflakeIdWorker) {
+        return new SnowflakeIdWorkerMetrics(snowflakeIdWorker);
     }
 
 
@@ -0,0 +1,95 @@
+package tech.kuiperbelt.lib.common.jpa;
+
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 将 SnowflakeIdWorker 的计数注册到 Micrometer:<br>
+ * snowflake.ids: 已生成的ID 个数, 按秒取 rate 即为每秒生成的ID 数<br>
+ * snowflake.ids.capacity: 每秒最多可生成的ID 数, 与 snowflake.ids 的 rate 相比即为序列空间的使用率<br>
+ * snowflake.sequence.overflow: 毫秒内序列溢出后等待下一毫秒的次数与耗时<br>
+ * snowflake.clock.backwards: 系统时钟回退的次数, 每次回退只计一次<br>
+ * snowflake.clock.backwards.rejected / handled / waited / borrowed: 时钟回退策略的计数, 以 strategy 标签区分 REJECT、WAIT 和 BORROW,
+ * 分别为拒绝的次数、没有拒绝而处理的回退次数 (WAIT 等待的次数, BORROW 沿用逻辑时钟的次数)、WAIT 累计等待的毫秒数以及 BORROW 借用未来毫秒的次数
+ */
+public class SnowflakeIdWorkerMetrics implements MeterBinder {
+
+    private final SnowflakeIdWorker worker;
+
+    public SnowflakeIdWorkerMetrics(SnowflakeIdWorker worker) {
+        this.worker = worker;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Tags tags = Tags.of(
+                "datacenter", String.valueOf(worker.getDatacenterId()),
+                "worker", String.valueOf(worker.getWorkerId()),
+                "mode", worker.getClass().getSimpleName());
+
+        FunctionCounter.builder("snowflake.ids", worker, SnowflakeIdWorker::getGeneratedCount)
+                .tags(tags)
+                .description("已生成的ID 个数")
+                .register(registry);
+        Gauge.builder("snowflake.ids.capacity", () -> (SnowflakeIdWorker.sequenceMask + 1) * 1000)
+                .tags(tags)
+                .description("每秒最多可生成的ID 个数")
+                .register(registry);
+        FunctionTimer.builder("snowflake.sequence.overflow", worker,
+                SnowflakeIdWorker::getOverflowCount, SnowflakeIdWorker::getOverflowWaitNanos, TimeUnit.NANOSECONDS)
+                .tags(tags)
+                .description("毫秒内序列溢出后等待下一个毫秒")
+                .register(registry);
+        FunctionCounter.builder("snowflake.clock.backwards", worker, SnowflakeIdWorker::getClockBackwardsCount)
+                .tags(tags)
+                .description("系统时钟回退的次数")
+                .register(registry);
+        bindClockBackwardsStrategy(registry, tags, worker.getClockBackwardsStrategy());
+    }
+
+    /**
+     * 注册绑定时正在使用的时钟回退策略的计数, 自定义的策略不注册
+     */
+    private static void bindClockBackwardsStrategy(MeterRegistry registry, Tags tags, ClockBackwardsStrategy strategy) {
+        if (strategy instanceof ClockBackwardsStrategy.Reject) {
+            ClockBackwardsStrategy.Reject reject = (ClockBackwardsStrategy.Reject) strategy;
+            Tags strategyTags = tags.and("strategy", "REJECT");
+            rejected(registry, strategyTags, reject, ClockBackwardsStrategy.Reject::getRejectedCount);
+        } else if (strategy instanceof ClockBackwardsStrategy.Wait) {
+            ClockBackwardsStrategy.Wait wait = (ClockBackwardsStrategy.Wait) strategy;
+            Tags strategyTags = tags.and("strategy", "WAIT");
+            rejected(registry, strategyTags, wait, ClockBackwardsStrategy.Wait::getRejectedCount);
+            FunctionCounter.builder("snowflake.clock.backwards.handled", wait, ClockBackwardsStrategy.Wait::getWaitCount)
+                    .tags(strategyTags)
+                    .description("等待时钟追上的次数")
+                    .register(registry);
+            FunctionCounter.builder("snowflake.clock.backwards.waited", wait, ClockBackwardsStrategy.Wait::getWaitedMillis)
+                    .tags(strategyTags)
+                    .baseUnit("milliseconds")
+                    .description("等待时钟追上的累计时间")
+                    .register(registry);
+        } else if (strategy instanceof ClockBackwardsStrategy.Borrow) {
+            ClockBackwardsStrategy.Borrow borrow = (ClockBackwardsStrategy.Borrow) strategy;
+            Tags strategyTags = tags.and("strategy", "BORROW");
+            rejected(registry, strategyTags, borrow, ClockBackwardsStrategy.Borrow::getRejectedCount);
+            FunctionCounter.builder("snowflake.clock.backwards.handled", borrow, ClockBackwardsStrategy.Borrow::getBackwardsCount)
+                    .tags(strategyTags)
+                    .description("沿用逻辑时钟处理的时钟回退次数")
+                    .register(registry);
+            FunctionCounter.builder("snowflake.clock.backwards.borrowed", borrow, ClockBackwardsStrategy.Borrow::getBorrowedCount)
+                    .tags(strategyTags)
+                    .description("序列溢出时借用未来毫秒的次数")
+                    .register(registry);
+        }
+    }
+
+    private static <T> void rejected(MeterRegistry registry, Tags tags, T strategy, ToDoubleFunction<T> count) {
+        FunctionCounter.builder("snowflake.clock.backwards.rejected", strategy, count)
+                .tags(tags)
+                .description("时钟回退时拒绝生成ID 的次数")
+                .register(registry);
+    }
+}
@@ -0,0 +1,123 @@
+package tech.kuiperbelt.lib.common.jpa;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 分段版本的 SnowflakeIdWorker<br>
+ * 12位毫秒内序列的高4位作为分段号, 低8位作为分段内序列:<br>
+ * 0 - 00000000000 - 0000000000 0000000000 0000000000 0 - 00 - 00000000 - 0000 - 00000000 <br>
+ * 每个分段各自维护 (时间截, 分段内序列) 并以 CAS 方式更新, 线程按照线程ID 固定落在某个分段上,
+ * 多核下不同线程不再竞争同一个计数器。<br>
+ * 不同分段的序列号段互不重叠, 所以ID 全局唯一; 同一线程生成的ID 严格递增, 不同线程之间只保证按毫秒有序。
+ * 单个分段每毫秒最多生成256个ID, 溢出后依次借用更高的分段, 全部用完才阻塞到下一毫秒。
+ */
+public class StripedSnowflakeIdWorker extends SnowflakeIdWorker {
+
+    /** 分段号所占的位数, 共16个分段 */
+    final static long stripeBits = 4L;
+
+    /** 分段内序列所占的位数 */
+    final static long stripeSequenceBits = sequenceBits - stripeBits;
+
+    /** 分段号的掩码，这里为15 */
+    final static long stripeMask = ~(-1L << stripeBits);
+
+    /** 分段内序列的掩码，这里为255 */
+    final static long stripeSequenceMask = ~(-1L << stripeSequenceBits);
+
+    /** 每个分段的状态之间间隔的 long 个数, 使不同分段落在不同的缓存行上, 避免伪共享 */
+    private final static int PADDING = 8;
+
+    /** 每个分段打包后的 (时间截 - 开始时间截) 与 分段内序列 */
+    private final AtomicLongArray states = new AtomicLongArray((int) (stripeMask + 1) * PADDING);
+
+    StripedSnowflakeIdWorker(long workerId, long datacenterId) {
+        super(workerId, datacenterId);
+    }
+
+    /**
+     * 获得下一个ID (该方法是线程安全的, 且不持有锁)
+     *
+     * @return SnowflakeId
+     */
+    @Override
+    public long nextId() {
+        checkLease();
+        long home = stripe();
+        long stripe = home;
+        // 一次调用内只在时间戳推进时回到本线程的分段, 借用分段期间使用同一个时间戳, 保证线程内ID 递增
+        long timestamp = currentTime();
+        while (true) {
+            int index = (int) stripe * PADDING;
+            long current = states.get(index);
+            long lastTimestamp = (current >>> stripeSequenceBits) + twepoch;
+            long sequence = current & stripeSequenceMask;
+
+            if (timestamp < lastTimestamp) {
+                long now = currentTime();
+                // 如果当前时间小于上一次ID生成的时间戳，说明系统时钟回退过, 交给时钟回退策略处理
+                if (now < lastTimestamp) {
+                    now = onClockBackwards(lastTimestamp, now);
+                }
+                // 其他线程已经进入新的毫秒, 以新的时间戳从本线程的分段重新开始
+                timestamp = now;
+                stripe = home;
+                continue;
+            }
+
+            // 如果是同一时间生成的，则进行分段内序列
+            if (lastTimestamp == timestamp) {
+                // 分段内序列溢出
+                if (sequence == stripeSequenceMask) {
+                    if (stripe < stripeMask) {
+                        // 借用更高的分段, 同一毫秒内已溢出的分段不会再有空位, 所以线程内ID 依然递增
+                        stripe++;
+                    } else {
+                        // 所有更高的分段都已用完, 阻塞到下一个毫秒后回到本线程的分段
+                        timestamp = tilNextMillis(lastTimestamp);
+                        stripe = home;
+                    }
+                    continue;
+                }
+                sequence++;
+            }
+            // 时间戳改变，分段内序列重置
+            else {
+                sequence = 0L;
+            }
+
+            // 同一分段上只有落在该分段的线程竞争, CAS 失败后重新读取状态再试
+            if (states.compareAndSet(index, current, ((timestamp - twepoch) << stripeSequenceBits) | sequence)) {
+                recordGenerated(1);
+                return toId(timestamp, (stripe << stripeSequenceBits) | sequence);
+            }
+        }
+    }
+
+    /**
+     * 批量获得 n 个ID, 从当前线程所在的分段开始生成, 不持有锁
+     *
+     * @param n 需要的ID个数
+     * @return 按生成顺序递增的 SnowflakeId
+     */
+    @Override
+    public long[] nextIds(int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException(String.format("id count must be greater than 0, but %d", n));
+        }
+        long[] ids = new long[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = nextId();
+        }
+        return ids;
+    }
+
+    /**
+     * 当前线程所在的分段, 同一线程始终落在同一分段上, 以保证线程内ID 递增
+     * @return 分段号 (0~15)
+     */
+    long stripe() {
+        long threadId = Thread.currentThread().getId();
+        return (threadId ^ (threadId >>> stripeBits)) & stripeMask;
+    }
+}
@@ -0,0 +1,134 @@
+package tech.kuiperbelt.lib.common.jpa.audit;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.ConfigurableObjectInputStream;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * write-behind 模式下已提交但还没有写入审计表的审计记录<br>
+ * 1 每条记录都已经在业务事务中写入 AuditOutboxRecord 表, 内存队列只是为了免去 AuditOutboxWorker 再读一次表<br>
+ * 2 队列是有界的, 队列满时丢弃内存中的记录并要求 AuditOutboxWorker 从表中补写, 不会阻塞业务事务<br>
+ * 3 Envers 实例化 AuditStrategy 时不经过 Spring, 因此以静态方法提供给 WriteBehindAuditStrategy
+ */
+@Slf4j
+public final class AuditOutbox {
+
+    private static final int DEFAULT_CAPACITY = 10000;
+
+    private static volatile BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(DEFAULT_CAPACITY);
+
+    private static final AtomicBoolean recoveryRequested = new AtomicBoolean(false);
+
+    private static final LongAdder overflowCount = new LongAdder();
+
+    private AuditOutbox() {
+    }
+
+    /**
+     * 一条已提交的审计记录
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Entry {
+
+        /** AuditOutboxRecord 的 id */
+        private final Long id;
+
+        private final String auditEntityName;
+
+        private final long createdTime;
+
+        /** Envers 生成的审计数据, revision entity 已替换成 revision 号 */
+        private final Map<String, Object> data;
+    }
+
+    /**
+     * 设置内存队列的容量, 队列中还没有处理的记录会留在表中, 由 AuditOutboxWorker 补写
+     * @param capacity
+     */
+    public static void configure(int capacity) {
+        queue = new ArrayBlockingQueue<>(capacity > 0 ? capacity : DEFAULT_CAPACITY);
+        recoveryRequested.set(true);
+    }
+
+    /**
+     * 在业务事务提交后放入队列, 队列满时只记录溢出
+     * @param entry
+     */
+    public static void offer(Entry entry) {
+        if(!queue.offer(entry)) {
+            overflowCount.increment();
+            if(recoveryRequested.compareAndSet(false, true)) {
+                log.warn("审计队列已满, 审计记录: {} 等待从 {} 表中补写", entry.getId(), AuditOutboxRecord.TABLE);
+            }
+        }
+    }
+
+    static Entry poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return queue.poll(timeout, unit);
+    }
+
+    static void drainTo(List<Entry> entries, int maxElements) {
+        queue.drainTo(entries, maxElements);
+    }
+
+    static Entry peek() {
+        return queue.peek();
+    }
+
+    public static int size() {
+        return queue.size();
+    }
+
+    public static long getOverflowCount() {
+        return overflowCount.sum();
+    }
+
+    /**
+     * 要求 AuditOutboxWorker 从表中补写, 例如写入审计表失败之后
+     */
+    static void requestRecovery() {
+        recoveryRequested.set(true);
+    }
+
+    /**
+     * @return 是否有补写的要求, 同时清除这个要求
+     */
+    static boolean takeRecoveryRequest() {
+        return recoveryRequested.getAndSet(false);
+    }
+
+    static byte[] toPayload(Map<String, Object> data) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(new HashMap<>(data));
+        } catch (IOException e) {
+            throw new IllegalStateException("序列化审计数据失败", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 审计数据中有业务的枚举等类型, 用线程的 ClassLoader 加载, 避免 Spring Boot 的 fat jar 中找不到类
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> fromPayload(byte[] payload) {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        try (ObjectInputStream input = new ConfigurableObjectInputStream(new ByteArrayInputStream(payload), classLoader)) {
+            return (Map<String, Object>) input.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("反序列化审计数据失败", e);
+        }
+    }
+}
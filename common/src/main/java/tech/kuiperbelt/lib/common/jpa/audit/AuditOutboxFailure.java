@@ -0,0 +1,54 @@
+package tech.kuiperbelt.lib.common.jpa.audit;
+
+import lombok.*;
+
+import javax.persistence.*;
+
+/**
+ * 多次补写仍然失败的审计记录, 例如审计数据中的类已经被修改或者删除, 或者写入审计表时违反约束;
+ * AuditOutboxWorker 把它从 AuditOutboxRecord 表移到这里, 不再阻塞后面的记录。
+ * 修复原因后可以把记录移回 AuditOutboxRecord 表重新写入
+ */
+@Getter
+@Setter
+@Entity
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Table(name = AuditOutboxFailure.TABLE)
+public class AuditOutboxFailure {
+
+    public static final String TABLE = "audit_outbox_failed";
+
+    /** 错误信息的最大长度 */
+    static final int MAX_ERROR_LENGTH = 2000;
+
+    /**
+     * 原来的 AuditOutboxRecord 的 id
+     */
+    @Id
+    private Long id;
+
+    private String auditEntityName;
+
+    private long createdTime;
+
+    @Lob
+    private byte[] payload;
+
+    /**
+     * 失败的次数
+     */
+    private int attempts;
+
+    /**
+     * 移到这个表的时间(毫秒)
+     */
+    private long failedTime;
+
+    /**
+     * 最后一次失败的错误信息
+     */
+    @Column(length = MAX_ERROR_LENGTH)
+    private String error;
+}
@@ -0,0 +1,43 @@
+package tech.kuiperbelt.lib.common.jpa.audit;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * 将 write-behind 审计的状态注册到 Micrometer:<br>
+ * audit.outbox.pending: AuditOutboxRecord 表中等待写入审计表的记录数, 包括内存队列中的记录; 由 worker 线程定时统计, 采集时不查询数据库<br>
+ * audit.outbox.lag: 最早一条还没有写入审计表的记录已经等待的时间(毫秒)<br>
+ * audit.outbox.written: 已写入审计表的记录数<br>
+ * audit.outbox.overflow: 队列满时留在表中等待补写的记录数<br>
+ * audit.outbox.failed: 多次写入失败后移到 AuditOutboxFailure 表的记录数
+ */
+public class AuditOutboxMetrics implements MeterBinder {
+
+    private final AuditOutboxWorker worker;
+
+    public AuditOutboxMetrics(AuditOutboxWorker worker) {
+        this.worker = worker;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("audit.outbox.pending", worker, AuditOutboxWorker::getPendingCount)
+                .description("AuditOutboxRecord 表中等待写入审计表的记录数")
+                .register(registry);
+        Gauge.builder("audit.outbox.lag", worker, AuditOutboxWorker::getLagMillis)
+                .baseUnit("milliseconds")
+                .description("最早一条还没有写入审计表的记录已经等待的时间")
+                .register(registry);
+        FunctionCounter.builder("audit.outbox.written", worker, AuditOutboxWorker::getWrittenCount)
+                .description("已写入审计表的记录数")
+                .register(registry);
+        FunctionCounter.builder("audit.outbox.failed", worker, AuditOutboxWorker::getFailedCount)
+                .description("多次写入失败后移到 AuditOutboxFailure 表的记录数")
+                .register(registry);
+        FunctionCounter.builder("audit.outbox.overflow", AuditOutbox.class, type -> AuditOutbox.getOverflowCount())
+                .description("队列满时留在表中等待补写的记录数")
+                .register(registry);
+    }
+}
@@ -0,0 +1,53 @@
+package tech.kuiperbelt.lib.common.jpa.audit;
+
+import lombok.*;
+import org.hibernate.annotations.GenericGenerator;
+
+import javax.persistence.*;
+
+/**
+ * 等待写入审计表的一条审计记录, write-behind 模式下由 WriteBehindAuditStrategy 在业务事务中写入,
+ * AuditOutboxWorker 写入审计表 (_AUD) 后在同一个事务中删除
+ */
+@Getter
+@Setter
+@Entity
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Table(name = AuditOutboxRecord.TABLE)
+public class AuditOutboxRecord {
+
+    public static final String TABLE = "audit_outbox";
+
+    /**
+     * 由 ID 生成器生成, 审计记录按照 id 的顺序写入审计表。id 只是大致按照时间递增:
+     * tech.kuiperbelt.snowflake.block-size 大于 1 时每个线程从自己预留的一段 id 中分配, 不同线程之间 id 与写入的先后顺序不一致。
+     * 审计表以 (id, revision) 为主键, 写入的先后不影响审计查询的结果
+     */
+    @Id
+    @GenericGenerator(name = "long_by_uuid", strategy = "tech.kuiperbelt.lib.common.jpa.LongIdentifierGenerator")
+    @GeneratedValue(generator = "long_by_uuid")
+    private Long id;
+
+    /**
+     * 审计表对应的 Envers entity 名, 例如 tech.kuiperbelt.lib.common.domain.Foo_AUD
+     */
+    private String auditEntityName;
+
+    /**
+     * 写入时间(毫秒), 用于计算审计的延迟
+     */
+    private long createdTime;
+
+    /**
+     * 补写失败的次数, 达到 tech.kuiperbelt.jpa.audit.write-behind.max-attempts 后移到 AuditOutboxFailure 表
+     */
+    private int attempts;
+
+    /**
+     * Envers 生成的审计数据, 其中的 revision entity 替换成了 revision 号, 以 java 序列化保存
+     */
+    @Lob
+    private byte[] payload;
+}
@@ -0,0 +1,462 @@
+package tech.kuiperbelt.lib.common.jpa.audit;
+
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.envers.NotAudited;
+import org.hibernate.envers.boot.internal.EnversService;
+import org.hibernate.envers.configuration.internal.AuditEntitiesConfiguration;
+import org.hibernate.envers.internal.entities.EntitiesConfigurations;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.CollectionType;
+import org.hibernate.type.ComponentType;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.Type;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.ReflectionUtils;
+
+import javax.persistence.EntityManager;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * 把 AuditOutbox 中的审计记录写入审计表 (_AUD), 单线程运行<br>
+ * 1 平时从内存队列中一次取出最多 batchSize 条, 按照 id 排序后在一个事务中写入, 使用 JDBC 批量插入<br>
+ * 2 启动时、队列溢出后、写入失败后以及每隔 recoveryIntervalMillis, 按照 id 的顺序从 AuditOutboxRecord 表中补写,
+ *   包括其他节点退出时没有写完的记录<br>
+ * 3 写入前在同一个事务中删除 AuditOutboxRecord, 已经被删除的记录 (被其他节点或者补写处理过) 跳过;
+ *   事务失败时记录留在表中, 之后补写, 因此每条审计记录至少写入一次, 不会重复写入<br>
+ * 4 补写时一批失败后逐条重试, 仍然失败的记录增加失败次数, 在这一轮补写中跳过; 失败 maxAttempts 次的记录
+ *   移到 AuditOutboxFailure 表, 一条坏记录不会阻塞后面的记录
+ */
+@Slf4j
+public class AuditOutboxWorker implements SmartLifecycle {
+
+    /** 队列为空时等待的时间 */
+    private static final long POLL_MILLIS = 100L;
+
+    /** 写入失败之后重试的间隔 */
+    private static final long RETRY_MILLIS = 1000L;
+
+    /** 写入一批之后统计表中记录数的最小间隔 */
+    private static final long PENDING_REFRESH_MILLIS = 1000L;
+
+    private final EntityManager entityManager;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final int batchSize;
+
+    private final long recoveryIntervalMillis;
+
+    private final int maxAttempts;
+
+    private final LongAdder writtenCount = new LongAdder();
+
+    private final LongAdder failedCount = new LongAdder();
+
+    /** 最近一次统计的 AuditOutboxRecord 表中的记录数 */
+    private volatile long pendingCount;
+
+    /** 最近一次统计表中记录数的时间, 只在 worker 线程中使用 */
+    private long pendingRefreshedAt;
+
+    /** 正在从表中补写的最早一条记录的写入时间, 没有补写时为 0 */
+    private volatile long recoveringSince;
+
+    private volatile boolean running;
+
+    /** 驱动的批量删除是否返回每一行的删除数, 第一次遇到 SUCCESS_NO_INFO 后改为逐行删除 */
+    private volatile boolean batchClaim = true;
+
+    private Thread thread;
+
+    /** 是否已经检查过审计数据的类型 */
+    private boolean payloadTypesChecked;
+
+    public AuditOutboxWorker(EntityManager entityManager, PlatformTransactionManager transactionManager,
+                             int batchSize, long recoveryIntervalMillis, int maxAttempts) {
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+        this.recoveryIntervalMillis = recoveryIntervalMillis;
+        this.maxAttempts = Math.max(maxAttempts, 1);
+    }
+
+    @Override
+    public synchronized void start() {
+        if(running) {
+            return;
+        }
+        if(!payloadTypesChecked) {
+            checkPayloadTypes();
+            payloadTypesChecked = true;
+        }
+        running = true;
+        AuditOutbox.requestRecovery();
+        thread = new Thread(this::run, "audit-outbox-worker");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        running = false;
+        if(thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return 已写入审计表的记录数
+     */
+    public long getWrittenCount() {
+        return writtenCount.sum();
+    }
+
+    /**
+     * @return 移到 AuditOutboxFailure 表的记录数
+     */
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
+
+    /**
+     * 每条记录在写入审计表之前都留在 AuditOutboxRecord 表中, 表中的记录数包括内存队列中的记录、
+     * 队列溢出后等待补写的记录以及其他节点没有写完的记录。
+     * worker 线程在每一轮补写之后以及写入一批之后 (最多每秒一次) 统计, 这里只返回最近一次的结果, 不查询数据库
+     * @return 等待写入审计表的记录数
+     */
+    public long getPendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * @return 最早一条还没有写入审计表的记录已经等待的时间(毫秒), 没有等待的记录时为 0
+     */
+    public long getLagMillis() {
+        long oldest = recoveringSince;
+        AuditOutbox.Entry head = AuditOutbox.peek();
+        if(head != null && (oldest == 0 || head.getCreatedTime() < oldest)) {
+            oldest = head.getCreatedTime();
+        }
+        return oldest == 0 ? 0 : Math.max(System.currentTimeMillis() - oldest, 0);
+    }
+
+    /**
+     * 审计数据以 java 序列化写入 AuditOutboxRecord, 启动时检查被审计的属性类型都可以序列化,
+     * 不在 flush 时才让业务事务失败。嵌入对象按照 Envers 的方式展开检查它的属性, 关联对象检查 id 的类型,
+     * 集合仍然同步写入审计表, 不检查; 声明为接口或者抽象类的属性只能在序列化时检查
+     */
+    private void checkPayloadTypes() {
+        SessionFactoryImplementor sessionFactory = entityManager.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class);
+        EntitiesConfigurations entitiesConfigurations = sessionFactory.getServiceRegistry()
+                .getService(EnversService.class).getEntitiesConfigurations();
+        List<String> invalid = new ArrayList<>();
+        for(EntityPersister persister : sessionFactory.getMetamodel().entityPersisters().values()) {
+            if(!entitiesConfigurations.isVersioned(persister.getEntityName())) {
+                continue;
+            }
+            String[] names = persister.getPropertyNames();
+            Type[] types = persister.getPropertyTypes();
+            for(int i = 0; i < names.length; i++) {
+                Field field = ReflectionUtils.findField(persister.getMappedClass(), names[i]);
+                if(field == null || !field.isAnnotationPresent(NotAudited.class)) {
+                    checkPayloadType(sessionFactory, persister.getEntityName() + "." + names[i], types[i], invalid);
+                }
+            }
+        }
+        if(!invalid.isEmpty()) {
+            throw new IllegalStateException("write-behind 审计数据以 java 序列化保存, 以下被审计的属性类型不能序列化: "
+                    + String.join(", ", invalid));
+        }
+    }
+
+    private static void checkPayloadType(SessionFactoryImplementor sessionFactory, String property, Type type, List<String> invalid) {
+        if(type instanceof CollectionType) {
+            return;
+        }
+        if(type instanceof ComponentType) {
+            ComponentType component = (ComponentType) type;
+            for(int i = 0; i < component.getPropertyNames().length; i++) {
+                checkPayloadType(sessionFactory, property + "." + component.getPropertyNames()[i], component.getSubtypes()[i], invalid);
+            }
+            return;
+        }
+        if(type instanceof EntityType) {
+            checkPayloadType(sessionFactory, property, ((EntityType) type).getIdentifierOrUniqueKeyType(sessionFactory), invalid);
+            return;
+        }
+        Class<?> javaType = type.getReturnedClass();
+        if(javaType.isPrimitive() || Serializable.class.isAssignableFrom(javaType) || javaType == Object.class
+                || javaType.isInterface() || Modifier.isAbstract(javaType.getModifiers())) {
+            return;
+        }
+        invalid.add(property + ": " + javaType.getName());
+    }
+
+    private void run() {
+        long lastRecovery = System.currentTimeMillis();
+        while(running) {
+            try {
+                if(AuditOutbox.takeRecoveryRequest() || System.currentTimeMillis() - lastRecovery >= recoveryIntervalMillis) {
+                    recover();
+                    refreshPendingCount(true);
+                    lastRecovery = System.currentTimeMillis();
+                    continue;
+                }
+                AuditOutbox.Entry first = AuditOutbox.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if(first == null) {
+                    continue;
+                }
+                List<AuditOutbox.Entry> entries = new ArrayList<>();
+                entries.add(first);
+                AuditOutbox.drainTo(entries, batchSize - 1);
+                entries.sort(Comparator.comparing(AuditOutbox.Entry::getId));
+                write(entries);
+                refreshPendingCount(false);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("写入审计表失败, 等待从 {} 表中补写", AuditOutboxRecord.TABLE, e);
+                AuditOutbox.requestRecovery();
+                try {
+                    Thread.sleep(RETRY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 按照 id 的顺序从表中补写, 直到表的末尾; 每一批从上一批的最后一个 id 之后读取,
+     * 这一轮中失败的记录不会被再次读取
+     */
+    private void recover() {
+        long after = Long.MIN_VALUE;
+        try {
+            while(running) {
+                List<AuditOutboxRecord> records = entityManager.createQuery(
+                        "select o from AuditOutboxRecord o where o.id > :after order by o.id", AuditOutboxRecord.class)
+                        .setParameter("after", after)
+                        .setMaxResults(batchSize)
+                        .getResultList();
+                if(records.isEmpty()) {
+                    return;
+                }
+                after = records.get(records.size() - 1).getId();
+                recoveringSince = records.get(0).getCreatedTime();
+                try {
+                    write(records.stream().map(AuditOutboxWorker::toEntry).collect(Collectors.toList()));
+                } catch (RuntimeException e) {
+                    log.warn("从 {} 表中补写 {} 条审计记录失败, 逐条重试", AuditOutboxRecord.TABLE, records.size(), e);
+                    records.forEach(this::writeOne);
+                }
+                refreshPendingCount(false);
+                if(records.size() < batchSize) {
+                    return;
+                }
+            }
+        } finally {
+            recoveringSince = 0;
+        }
+    }
+
+    /**
+     * 统计表中的记录数, 统计失败时保留上一次的结果
+     * @param force 为 false 时距离上一次统计不足 PENDING_REFRESH_MILLIS 则跳过
+     */
+    private void refreshPendingCount(boolean force) {
+        long now = System.currentTimeMillis();
+        if(!force && now - pendingRefreshedAt < PENDING_REFRESH_MILLIS) {
+            return;
+        }
+        pendingRefreshedAt = now;
+        try {
+            Long count = transactionTemplate.execute(status -> entityManager.createQuery(
+                    "select count(o) from AuditOutboxRecord o", Long.class).getSingleResult());
+            pendingCount = count == null ? 0 : count;
+        } catch (RuntimeException e) {
+            log.debug("统计 {} 表中的记录数失败", AuditOutboxRecord.TABLE, e);
+        }
+    }
+
+    private static AuditOutbox.Entry toEntry(AuditOutboxRecord record) {
+        return new AuditOutbox.Entry(record.getId(), record.getAuditEntityName(),
+                record.getCreatedTime(), AuditOutbox.fromPayload(record.getPayload()));
+    }
+
+    private void writeOne(AuditOutboxRecord record) {
+        try {
+            write(Collections.singletonList(toEntry(record)));
+        } catch (RuntimeException e) {
+            recordFailure(record, e);
+        }
+    }
+
+    /**
+     * 增加失败次数, 达到 maxAttempts 时移到 AuditOutboxFailure 表;
+     * 数据库不可用时这里同样失败, 异常抛给 run 等待重试, 不会增加失败次数
+     */
+    private void recordFailure(AuditOutboxRecord record, RuntimeException cause) {
+        int attempts = record.getAttempts() + 1;
+        if(attempts < maxAttempts) {
+            transactionTemplate.executeWithoutResult(status -> entityManager.createQuery(
+                    "update AuditOutboxRecord o set o.attempts = :attempts where o.id = :id")
+                    .setParameter("attempts", attempts)
+                    .setParameter("id", record.getId())
+                    .executeUpdate());
+            log.warn("审计记录: {} 第 {} 次写入失败, 下次补写时重试", record.getId(), attempts, cause);
+            return;
+        }
+        Boolean moved = transactionTemplate.execute(status -> {
+            int deleted = entityManager.createQuery("delete from AuditOutboxRecord o where o.id = :id")
+                    .setParameter("id", record.getId())
+                    .executeUpdate();
+            if(deleted == 0) {
+                // 已经被其他节点处理
+                return false;
+            }
+            String error = String.valueOf(cause);
+            entityManager.persist(AuditOutboxFailure.builder()
+                    .id(record.getId())
+                    .auditEntityName(record.getAuditEntityName())
+                    .createdTime(record.getCreatedTime())
+                    .payload(record.getPayload())
+                    .attempts(attempts)
+                    .failedTime(System.currentTimeMillis())
+                    .error(error.length() > AuditOutboxFailure.MAX_ERROR_LENGTH ?
+                            error.substring(0, AuditOutboxFailure.MAX_ERROR_LENGTH) : error)
+                    .build());
+            return true;
+        });
+        if(Boolean.TRUE.equals(moved)) {
+            failedCount.increment();
+            log.error("审计记录: {} 写入失败 {} 次, 移到 {} 表", record.getId(), attempts, AuditOutboxFailure.TABLE, cause);
+        }
+    }
+
+    private void write(List<AuditOutbox.Entry> entries) {
+        Integer written = transactionTemplate.execute(status -> {
+            Session session = entityManager.unwrap(Session.class);
+            List<AuditOutbox.Entry> claimed = claim(session, entries);
+            if(claimed.isEmpty()) {
+                return 0;
+            }
+            AuditEntitiesConfiguration configuration = entityManager.getEntityManagerFactory()
+                    .unwrap(SessionFactoryImplementor.class).getServiceRegistry()
+                    .getService(EnversService.class).getAuditEntitiesConfiguration();
+            session.setJdbcBatchSize(batchSize);
+            for(AuditOutbox.Entry entry : claimed) {
+                session.save(entry.getAuditEntityName(), withRevision(session, configuration, entry.getData()));
+            }
+            session.flush();
+            session.clear();
+            return claimed.size();
+        });
+        if(written != null && written > 0) {
+            writtenCount.add(written);
+            long now = System.currentTimeMillis();
+            log.debug("写入 {} 条审计记录, 最早的一条延迟 {} 毫秒", written, now - entries.get(0).getCreatedTime());
+        }
+    }
+
+    /**
+     * 删除这些记录, 只返回确实由这个事务删除的记录; 行锁保证同一条记录只会被一个事务删除<br>
+     * 平时用一个 JDBC 批次删除; 驱动合并批次时 (例如 MySQL 的 rewriteBatchedStatements) 返回 SUCCESS_NO_INFO,
+     * 无法知道哪些记录已经被其他节点删除, 这时回滚到批次之前并改为逐行删除
+     */
+    private List<AuditOutbox.Entry> claim(Session session, List<AuditOutbox.Entry> entries) {
+        return session.doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "delete from " + AuditOutboxRecord.TABLE + " where id = ?")) {
+                if(batchClaim) {
+                    List<AuditOutbox.Entry> claimed = claimInBatch(connection, statement, entries);
+                    if(claimed != null) {
+                        return claimed;
+                    }
+                }
+                List<AuditOutbox.Entry> claimed = new ArrayList<>();
+                for(AuditOutbox.Entry entry : entries) {
+                    statement.setLong(1, entry.getId());
+                    if(statement.executeUpdate() > 0) {
+                        claimed.add(entry);
+                    }
+                }
+                return claimed;
+            }
+        });
+    }
+
+    /**
+     * @return 由这个事务删除的记录, 驱动没有返回每一行的删除数时为 null, 批次的删除已经回滚
+     */
+    private List<AuditOutbox.Entry> claimInBatch(Connection connection, PreparedStatement statement,
+                                                 List<AuditOutbox.Entry> entries) throws SQLException {
+        Savepoint savepoint = connection.setSavepoint();
+        for(AuditOutbox.Entry entry : entries) {
+            statement.setLong(1, entry.getId());
+            statement.addBatch();
+        }
+        int[] counts = statement.executeBatch();
+        List<AuditOutbox.Entry> claimed = new ArrayList<>();
+        for(int i = 0; i < counts.length; i++) {
+            if(counts[i] == Statement.SUCCESS_NO_INFO) {
+                connection.rollback(savepoint);
+                batchClaim = false;
+                log.info("JDBC 驱动的批量删除没有返回删除的行数, 改为逐行删除 {} 中的记录", AuditOutboxRecord.TABLE);
+                return null;
+            }
+            if(counts[i] > 0) {
+                claimed.add(entries.get(i));
+            }
+        }
+        return claimed;
+    }
+
+    /**
+     * 把审计数据主键中的 revision 号换回 revision entity
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> withRevision(Session session, AuditEntitiesConfiguration configuration,
+                                                    Map<String, Object> data) {
+        Map<String, Object> auditData = new HashMap<>(data);
+        Map<String, Object> originalId = new HashMap<>((Map<String, Object>) data.get(configuration.getOriginalIdPropName()));
+        Serializable revision = (Serializable) originalId.get(configuration.getRevisionFieldName());
+        originalId.put(configuration.getRevisionFieldName(),
+                session.load(configuration.getRevisionInfoEntityName(), revision));
+        auditData.put(configuration.getOriginalIdPropName(), originalId);
+        return auditData;
+    }
+}
@@ -1,9 +1,14 @@
 package tech.kuiperbelt.lib.common.jpa.audit;
 
+import org.hibernate.envers.query.criteria.AuditCriterion;
+import org.hibernate.envers.query.order.AuditOrder;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.rest.core.annotation.RestResource;
+import tech.kuiperbelt.lib.common.jpa.CountMode;
 
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -20,6 +25,18 @@ public interface AuditRepository<T> {
     @RestResource(exported = false)
     Page<T> findAllVersions(Class<T> tClass, Long entityId, Pageable pageable);
 
+    /**
+     * 找到指定 entity 的 change log, 按照 countMode 决定是否执行 count 查询
+     * @param tClass
+     * @param entityId
+     * @param pageable
+     * @param countMode EXACT 执行 count 查询; NONE 多取一行判断是否还有下一页;
+     *                  单个 entity 的版本没有统计信息可用, ESTIMATED 与 NONE 相同
+     * @return
+     */
+    @RestResource(exported = false)
+    Page<T> findAllVersions(Class<T> tClass, Long entityId, Pageable pageable, CountMode countMode);
+
 
     /**
      *
@@ -39,4 +56,36 @@ public interface AuditRepository<T> {
     @RestResource(exported = false)
     Optional<T> findVersion(Class<T> tClass, Long entityId, Long version);
 
+    /**
+     * 找到 entity 在 fromVersion 与 toVersion 之间(包含两端)的所有版本, 按照 revision 正序排列
+     * @param tClass
+     * @param entityId
+     * @param fromVersion
+     * @param toVersion
+     * @return
+     */
+    @RestResource(exported = false)
+    List<T> findVersionRange(Class<T> tClass, Long entityId, Long fromVersion, Long toVersion);
+
+    /**
+     * 在某个 revision 的快照上分页查询, 已经删除的 entity 不会出现在结果中
+     * @param tClass
+     * @param revision
+     * @param criterion 可以为空
+     * @param orders 排序
+     * @param pageable
+     * @param countMode EXACT 执行 count 查询, 其他不执行
+     * @return
+     */
+    @RestResource(exported = false)
+    Page<T> findAtRevision(Class<T> tClass, Number revision, AuditCriterion criterion, List<AuditOrder> orders,
+                           Pageable pageable, CountMode countMode);
+
+    /**
+     * 找到某个时刻之前(包含)最后一个 revision
+     * @param instant
+     * @return 该时刻之前没有 revision 时为空
+     */
+    Optional<Number> findRevisionAt(LocalDateTime instant);
+
 }
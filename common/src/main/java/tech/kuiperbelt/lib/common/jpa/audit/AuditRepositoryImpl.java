@@ -1,15 +1,26 @@
 package tech.kuiperbelt.lib.common.jpa.audit;
 
+import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.hibernate.envers.AuditReader;
 import org.hibernate.envers.AuditReaderFactory;
+import org.hibernate.envers.RevisionType;
+import org.hibernate.envers.boot.internal.EnversService;
+import org.hibernate.envers.exception.RevisionDoesNotExistException;
 import org.hibernate.envers.query.AuditEntity;
 import org.hibernate.envers.query.AuditQuery;
+import org.hibernate.envers.query.criteria.AuditCriterion;
+import org.hibernate.envers.query.order.AuditOrder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.repository.support.PageableExecutionUtils;
+import tech.kuiperbelt.lib.common.jpa.CountMode;
+import tech.kuiperbelt.lib.common.jpa.QueryLimits;
 
 import javax.persistence.EntityManager;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
 
 /**
@@ -30,52 +41,80 @@ public class AuditRepositoryImpl<T> implements AuditRepository<T> {
 
     @Override
     public Page<T> findAllVersions(Class<T> tClass, Long entityId, Pageable pageable) {
+        return findAllVersions(tClass, entityId, pageable, CountMode.EXACT);
+    }
 
+    /**
+     * 分页直接交给 Envers 查询 (limit/offset), 不再把所有版本号读入内存;
+     * 总数由单独的 count 查询给出, 第一页不满或者最后一页时不执行 count 查询
+     * @param tClass
+     * @param entityId
+     * @param pageable
+     * @param countMode
+     * @return
+     */
+    @Override
+    public Page<T> findAllVersions(Class<T> tClass, Long entityId, Pageable pageable, CountMode countMode) {
         AuditReader auditReader = AuditReaderFactory.get(entityManager);
-        List versionList = auditReader.createQuery()
-                .forRevisionsOfEntity(tClass, false, true)
+        AuditQuery query = auditReader.createQuery()
+                .forRevisionsOfEntity(tClass, true, false)
                 .add(AuditEntity.id().eq(entityId))
-                .addProjection(AuditEntity.revisionNumber())
-                .addOrder(AuditEntity.revisionNumber().desc())
-                .getResultList();
-
-        if(pageable.getOffset() > versionList.size()) {
-            return new PageImpl<>(Collections.emptyList(), pageable, 0);
+                .addOrder(AuditEntity.revisionNumber().desc());
+        if(pageable.isUnpaged()) {
+            return new PageImpl<>(getResultList(query));
+        }
+        query.setFirstResult(Math.toIntExact(pageable.getOffset()));
+        if(countMode == null || countMode == CountMode.EXACT) {
+            query.setMaxResults(pageable.getPageSize());
+            return PageableExecutionUtils.getPage(getResultList(query), pageable,
+                    () -> countVersions(auditReader, tClass, entityId));
         }
-        long upperBound = Math.min(pageable.getOffset() + pageable.getPageSize(), versionList.size());
-        List subList = versionList.subList((int)pageable.getOffset(), (int)upperBound);
+        // 多取一行判断是否还有下一页
+        query.setMaxResults(pageable.getPageSize() + 1);
+        List<T> content = getResultList(query);
+        boolean hasNext = content.size() > pageable.getPageSize();
+        if(hasNext) {
+            content = content.subList(0, pageable.getPageSize());
+        }
+        long fetched = pageable.getOffset() + content.size();
+        return new PageImpl<>(content, pageable, hasNext ? fetched + 1 : fetched);
+    }
 
-        @SuppressWarnings("unchecked") List<T> resultList = (List<T>) auditReader.createQuery()
-                .forRevisionsOfEntity(tClass, true, false)
+    private long countVersions(AuditReader auditReader, Class<T> tClass, Long entityId) {
+        Number count = (Number) auditReader.createQuery()
+                .forRevisionsOfEntity(tClass, false, false)
                 .add(AuditEntity.id().eq(entityId))
-                .add(AuditEntity.revisionNumber().in(subList))
-                .addOrder(AuditEntity.revisionNumber().desc())
-                .getResultList();
+                .addProjection(AuditEntity.revisionNumber().count())
+                .getSingleResult();
+        return count == null ? 0L : count.longValue();
+    }
 
-        return new PageImpl<>(new ArrayList<>(resultList), pageable, versionList.size());
+    private List<T> getResultList(AuditQuery query) {
+        //noinspection unchecked
+        return new ArrayList<>((List<T>) query.getResultList());
     }
 
+    /**
+     * 按照 revision 倒序跳过最新的一条, 一次查询读出前一个版本; 审计表的主键 (id, REV) 保证这是一次索引读取
+     * @param tClass
+     * @param entityId
+     * @return 前一个 revision 是删除时返回空
+     */
     @Override
     public Optional<T> findPriorVersion(Class<T> tClass, Long entityId) {
         AuditReader auditReader = AuditReaderFactory.get(entityManager);
-        Number prior = (Number) auditReader.createQuery()
+        Object[] prior = (Object[]) auditReader.createQuery()
                 .forRevisionsOfEntity(tClass, false, true)
                 .add(AuditEntity.id().eq(entityId))
-                .addProjection(AuditEntity.revisionNumber())
                 .addOrder(AuditEntity.revisionNumber().desc())
                 .setFirstResult(1)
                 .setMaxResults(1)
                 .getSingleResult();
-        if(prior == null) {
+        if(prior == null || prior[2] == RevisionType.DEL) {
             return Optional.empty();
-        } else {
-            @SuppressWarnings("unchecked") T singleResult = (T) auditReader.createQuery()
-                    .forRevisionsOfEntity(tClass, true, false)
-                    .add(AuditEntity.id().eq(entityId))
-                    .add(AuditEntity.revisionNumber().eq(prior))
-                    .getSingleResult();
-            return Optional.of(singleResult);
         }
+        //noinspection unchecked
+        return Optional.of((T) prior[0]);
     }
 
 
@@ -92,7 +131,110 @@ public class AuditRepositoryImpl<T> implements AuditRepository<T> {
         AuditQuery query = auditReader.createQuery().forRevisionsOfEntity(tClass, true, false);
         query.add(AuditEntity.id().eq(entityId));
         query.add(AuditEntity.property(VERSION).eq(version));
+        // 同一个版本只会有一条审计记录, 按照 AuditVersionIndexIntegrator 加上的 (id, version) 索引读取
+        query.setMaxResults(1);
         //noinspection unchecked
         return (Optional<T>) query.getResultList().stream().findFirst();
     }
+
+    /**
+     * 按照 (id, version) 索引读取一段版本
+     * @param tClass
+     * @param entityId
+     * @param fromVersion
+     * @param toVersion
+     * @return
+     */
+    @Override
+    public List<T> findVersionRange(Class<T> tClass, Long entityId, Long fromVersion, Long toVersion) {
+        AuditReader auditReader = AuditReaderFactory.get(entityManager);
+        AuditQuery query = auditReader.createQuery().forRevisionsOfEntity(tClass, true, false)
+                .add(AuditEntity.id().eq(entityId))
+                .add(AuditEntity.property(VERSION).between(fromVersion, toVersion))
+                .addOrder(AuditEntity.revisionNumber().asc());
+        return getResultList(query);
+    }
+
+    /**
+     * 以 forEntitiesAtRevision 读取快照, 分页在 Envers 查询中完成
+     * @param tClass
+     * @param revision
+     * @param criterion
+     * @param orders
+     * @param pageable
+     * @param countMode
+     * @return
+     */
+    @Override
+    public Page<T> findAtRevision(Class<T> tClass, Number revision, AuditCriterion criterion, List<AuditOrder> orders,
+                                  Pageable pageable, CountMode countMode) {
+        AuditReader auditReader = AuditReaderFactory.get(entityManager);
+        Number revisionNumber = toRevisionNumber(revision);
+        AuditQuery query = atRevision(auditReader, tClass, revisionNumber, criterion);
+        orders.forEach(query::addOrder);
+        if(pageable.isUnpaged()) {
+            return new PageImpl<>(getResultList(query));
+        }
+        query.setFirstResult(Math.toIntExact(pageable.getOffset()));
+        if(countMode == null || countMode == CountMode.EXACT) {
+            query.setMaxResults(pageable.getPageSize());
+            return PageableExecutionUtils.getPage(getResultList(query), pageable, () -> {
+                Number count = (Number) atRevision(auditReader, tClass, revisionNumber, criterion)
+                        .addProjection(AuditEntity.id().count())
+                        .getSingleResult();
+                return count == null ? 0L : count.longValue();
+            });
+        }
+        // 多取一行判断是否还有下一页
+        query.setMaxResults(pageable.getPageSize() + 1);
+        List<T> content = getResultList(query);
+        boolean hasNext = content.size() > pageable.getPageSize();
+        if(hasNext) {
+            content = content.subList(0, pageable.getPageSize());
+        }
+        long fetched = pageable.getOffset() + content.size();
+        return new PageImpl<>(content, pageable, hasNext ? fetched + 1 : fetched);
+    }
+
+    private AuditQuery atRevision(AuditReader auditReader, Class<T> tClass, Number revision, AuditCriterion criterion) {
+        AuditQuery query = auditReader.createQuery().forEntitiesAtRevision(tClass, revision);
+        if(criterion != null) {
+            query.add(criterion);
+        }
+        int timeoutMillis = QueryLimits.of(tClass).getTimeoutMillis();
+        if(timeoutMillis > 0) {
+            // Envers 的超时以秒为单位
+            query.setTimeout((timeoutMillis + 999) / 1000);
+        }
+        return query;
+    }
+
+    /**
+     * 将 revision 编号转换成 revision entity 主键的类型, 默认的 revision entity 使用 int;
+     * 超出主键类型范围的编号是错误的查询参数
+     */
+    private Number toRevisionNumber(Number revision) {
+        SessionFactoryImplementor sessionFactory = entityManager.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class);
+        String revisionEntityName = sessionFactory.getServiceRegistry().getService(EnversService.class)
+                .getAuditEntitiesConfiguration().getRevisionInfoEntityName();
+        Class<?> idType = sessionFactory.getMetamodel().entityPersister(revisionEntityName).getIdentifierType().getReturnedClass();
+        if(idType == Integer.class || idType == int.class) {
+            long value = revision.longValue();
+            if(value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("revision 编号超出范围: " + revision);
+            }
+            return (int) value;
+        }
+        return revision.longValue();
+    }
+
+    @Override
+    public Optional<Number> findRevisionAt(LocalDateTime instant) {
+        AuditReader auditReader = AuditReaderFactory.get(entityManager);
+        try {
+            return Optional.of(auditReader.getRevisionNumberForDate(Date.from(instant.atZone(ZoneId.systemDefault()).toInstant())));
+        } catch (RevisionDoesNotExistException e) {
+            return Optional.empty();
+        }
+    }
 }
@@ -1,5 +1,12 @@
 package tech.kuiperbelt.lib.common.jpa.audit;
 
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.jpa.boot.internal.EntityManagerFactoryBuilderImpl;
+import org.hibernate.jpa.boot.spi.IntegratorProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
@@ -8,25 +15,121 @@ import org.springframework.data.domain.AuditorAware;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.transaction.PlatformTransactionManager;
 
+import javax.annotation.PostConstruct;
 import javax.persistence.EntityManager;
 import java.security.Principal;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 /**
  * Config Audit behaviors
  * 1 audit version field
  * 2 audit username
+ * 3 (id, version) index on audit tables
+ * 4 write-behind audit pipeline (opt-in)
  */
 @Configuration
 @PropertySource("classpath:tech/kuiperbelt/lib/common/jpa/audit/auditor.properties")
 public class KuiperbeltAuditAutoConfiguration implements AuditorAware<String> {
 
+    private static final String AUDIT_STRATEGY = "org.hibernate.envers.audit_strategy";
+
+    /**
+     * 是否为审计表加上 (id, version) 索引, 只在由 Hibernate 生成表结构时生效
+     */
+    @Value("${tech.kuiperbelt.jpa.audit.version-index.enabled:true}")
+    private boolean versionIndexEnabled;
+
+    /**
+     * 是否以 write-behind 模式写审计表: 业务事务中只写 AuditOutboxRecord 表, 由 AuditOutboxWorker 异步写入审计表
+     */
+    @Value("${tech.kuiperbelt.jpa.audit.write-behind.enabled:false}")
+    private boolean writeBehindEnabled;
+
+    /**
+     * write-behind 模式下内存队列的容量, 溢出的记录从 AuditOutboxRecord 表中补写
+     */
+    @Value("${tech.kuiperbelt.jpa.audit.write-behind.queue-capacity:10000}")
+    private int writeBehindQueueCapacity;
+
+    /**
+     * write-behind 模式下一个事务写入审计表的最大记录数, 也是 JDBC 批次的大小
+     */
+    @Value("${tech.kuiperbelt.jpa.audit.write-behind.batch-size:500}")
+    private int writeBehindBatchSize;
+
+    /**
+     * write-behind 模式下从 AuditOutboxRecord 表中补写的间隔(毫秒), 处理其他节点遗留的记录
+     */
+    @Value("${tech.kuiperbelt.jpa.audit.write-behind.recovery-interval-millis:60000}")
+    private long writeBehindRecoveryIntervalMillis;
+
+    /**
+     * write-behind 模式下一条记录补写失败的最大次数, 达到后移到 AuditOutboxFailure 表, 不再阻塞后面的记录
+     */
+    @Value("${tech.kuiperbelt.jpa.audit.write-behind.max-attempts:5}")
+    private int writeBehindMaxAttempts;
+
+    @PostConstruct
+    public void configureWriteBehind() {
+        if(writeBehindEnabled) {
+            AuditOutbox.configure(writeBehindQueueCapacity);
+        }
+    }
+
     @Bean("auditedQueryRepositoryImpl")
     public AuditRepository auditedQueryRepositoryImpl(EntityManager entityManager) {
         return new AuditRepositoryImpl(entityManager);
     }
 
+    // 注册 AuditVersionIndexIntegrator, 保留已经配置的其它 Integrator
+    @Bean
+    public HibernatePropertiesCustomizer auditVersionIndexCustomizer() {
+        return hibernateProperties -> {
+            if(!versionIndexEnabled) {
+                return;
+            }
+            Object existing = hibernateProperties.get(EntityManagerFactoryBuilderImpl.INTEGRATOR_PROVIDER);
+            hibernateProperties.put(EntityManagerFactoryBuilderImpl.INTEGRATOR_PROVIDER, (IntegratorProvider) () -> {
+                List<Integrator> integrators = new ArrayList<>();
+                if(existing instanceof IntegratorProvider) {
+                    integrators.addAll(((IntegratorProvider) existing).getIntegrators());
+                }
+                integrators.add(new AuditVersionIndexIntegrator());
+                return integrators;
+            });
+        };
+    }
+
+    // write-behind 模式下替换 Envers 的审计策略
+    @Bean
+    public HibernatePropertiesCustomizer auditWriteBehindCustomizer() {
+        return hibernateProperties -> {
+            if(writeBehindEnabled) {
+                hibernateProperties.put(AUDIT_STRATEGY, WriteBehindAuditStrategy.class.getName());
+            }
+        };
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "tech.kuiperbelt.jpa.audit.write-behind.enabled", havingValue = "true")
+    public AuditOutboxWorker auditOutboxWorker(EntityManager entityManager, PlatformTransactionManager transactionManager) {
+        return new AuditOutboxWorker(entityManager, transactionManager, writeBehindBatchSize, writeBehindRecoveryIntervalMillis,
+                writeBehindMaxAttempts);
+    }
+
+    /**
+     * 将 write-behind 审计的队列长度、延迟等指标注册到 Micrometer, 指标名以 audit.outbox 开头
+     */
+    @Bean
+    @ConditionalOnProperty(name = "tech.kuiperbelt.jpa.audit.write-behind.enabled", havingValue = "true")
+    public MeterBinder auditOutboxMetrics(AuditOutboxWorker auditOutboxWorker) {
+        return new AuditOutboxMetrics(auditOutboxWorker);
+    }
+
     @Override
     public Optional<String> getCurrentAuditor() {
         return Optional.of(SecurityContextHolder.getContext())
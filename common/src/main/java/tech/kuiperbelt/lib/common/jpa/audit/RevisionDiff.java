@@ -0,0 +1,81 @@
+package tech.kuiperbelt.lib.common.jpa.audit;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * entity 两个版本之间的差异, 只包含有变化的字段
+ */
+@Getter
+@AllArgsConstructor
+public class RevisionDiff {
+
+    private final Long fromVersion;
+
+    private final Long toVersion;
+
+    /** toVersion 的修改人 */
+    private final String lastUpdatedBy;
+
+    /** toVersion 的修改时间 */
+    private final LocalDateTime lastUpdatedTime;
+
+    private final List<FieldChange> changes;
+
+    /**
+     * 一个字段的变化, 没有变化的字段不会出现在 changes 中
+     */
+    @Getter
+    @AllArgsConstructor
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class FieldChange {
+        private final String field;
+
+        /** 字段的显示名, 没有定义时为空 */
+        private final String label;
+
+        private final Object from;
+
+        private final Object to;
+    }
+
+    /**
+     * 比较两个版本的字段值, 字段在一边不存在时按照 null 比较
+     * @param from 旧版本的字段值
+     * @param to 新版本的字段值
+     * @param labels 字段名到显示名的映射, 可以返回空
+     * @return 有变化的字段
+     */
+    public static List<FieldChange> compare(Map<String, Object> from, Map<String, Object> to, Function<String, String> labels) {
+        Set<String> fields = new LinkedHashSet<>(from.keySet());
+        fields.addAll(to.keySet());
+        List<FieldChange> changes = new ArrayList<>();
+        for(String field : fields) {
+            Object oldValue = from.get(field);
+            Object newValue = to.get(field);
+            if(!isSame(oldValue, newValue)) {
+                changes.add(new FieldChange(field, labels.apply(field), oldValue, newValue));
+            }
+        }
+        return changes;
+    }
+
+    private static boolean isSame(Object oldValue, Object newValue) {
+        if(oldValue instanceof BigDecimal && newValue instanceof BigDecimal) {
+            // 精度不同的同一个数值不算变化
+            return ((BigDecimal) oldValue).compareTo((BigDecimal) newValue) == 0;
+        }
+        return Objects.equals(oldValue, newValue);
+    }
+}
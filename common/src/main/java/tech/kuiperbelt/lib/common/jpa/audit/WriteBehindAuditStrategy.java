@@ -0,0 +1,73 @@
+package tech.kuiperbelt.lib.common.jpa.audit;
+
+import org.hibernate.Session;
+import org.hibernate.envers.configuration.internal.AuditEntitiesConfiguration;
+import org.hibernate.envers.strategy.DefaultAuditStrategy;
+import org.hibernate.event.spi.EventSource;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * write-behind 模式的审计策略, 由 tech.kuiperbelt.jpa.audit.write-behind.enabled 开启<br>
+ * 1 flush 时不写审计表 (_AUD), 而是把 Envers 生成的审计数据写入 AuditOutboxRecord 表, 与业务数据在同一个事务中提交;
+ *   所有 entity 的审计记录都写同一张只有主键的表, 可以由 hibernate.jdbc.batch_size 合并成一个批次<br>
+ * 2 事务提交后放入 AuditOutbox 的内存队列, 由 AuditOutboxWorker 批量写入审计表;
+ *   FlushMode.MANUAL 时 Envers 在临时 session 中写入, 临时 session 的 ActionQueue 是否回调取决于 Hibernate 的实现,
+ *   因此有 Spring 事务时注册在 Spring 事务上, 没有时才注册在 session 上<br>
+ * 3 revision 记录 (REVINFO) 仍然在业务事务中写入, 集合的审计记录仍然同步写入审计表<br>
+ * 只支持默认的审计策略, 不能与 ValidityAuditStrategy 一起使用
+ */
+public class WriteBehindAuditStrategy extends DefaultAuditStrategy {
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void perform(Session session, String entityName, AuditEntitiesConfiguration auditEntitiesConfiguration,
+                        Serializable id, Object data, Object revision) {
+        String auditEntityName = auditEntitiesConfiguration.getAuditEntityName(entityName);
+        Map<String, Object> auditData = withRevisionNumber(session, auditEntitiesConfiguration,
+                (Map<String, Object>) data, revision);
+        AuditOutboxRecord record = AuditOutboxRecord.builder()
+                .auditEntityName(auditEntityName)
+                .createdTime(System.currentTimeMillis())
+                .payload(AuditOutbox.toPayload(auditData))
+                .build();
+        session.save(record);
+        // 回滚的事务不会写入 AuditOutboxRecord, 也不进入队列
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    offer(record, auditData);
+                }
+            });
+        } else {
+            ((EventSource) session).getActionQueue().registerProcess((success, sessionImplementor) -> {
+                if(success) {
+                    offer(record, auditData);
+                }
+            });
+        }
+    }
+
+    private static void offer(AuditOutboxRecord record, Map<String, Object> auditData) {
+        AuditOutbox.offer(new AuditOutbox.Entry(record.getId(), record.getAuditEntityName(), record.getCreatedTime(), auditData));
+    }
+
+    /**
+     * 审计数据的主键中引用了 revision entity, 替换成 revision 号以便序列化, 写入审计表时再换回来
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> withRevisionNumber(Session session, AuditEntitiesConfiguration auditEntitiesConfiguration,
+                                                          Map<String, Object> data, Object revision) {
+        String originalIdPropName = auditEntitiesConfiguration.getOriginalIdPropName();
+        Map<String, Object> auditData = new HashMap<>(data);
+        Map<String, Object> originalId = new HashMap<>((Map<String, Object>) data.get(originalIdPropName));
+        originalId.put(auditEntitiesConfiguration.getRevisionFieldName(), session.getIdentifier(revision));
+        auditData.put(originalIdPropName, originalId);
+        return auditData;
+    }
+}
@@ -0,0 +1,38 @@
+package tech.kuiperbelt.lib.common.jpa.worker;
+
+import lombok.*;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.LocalDateTime;
+
+/**
+ * SnowflakeIdWorker 的 worker id 租约, 每个 worker id 一行, 首次使用时预先生成所有行
+ */
+@Getter
+@Setter
+@Entity
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Table(indexes = @Index(columnList = "expiresAt"))
+public class WorkerIdLease {
+
+    /**
+     * worker id, 由 WorkerIdLeaseAllocator 预先生成, 不使用 ID 生成器
+     */
+    @Id
+    private Long workerId;
+
+    /**
+     * 当前持有租约的节点, 未被占用时为空
+     */
+    private String owner;
+
+    /**
+     * 租约到期时间, 以数据库的时间计算; 为空或者早于数据库当前时间的租约可以被任意节点重新占用
+     */
+    private LocalDateTime expiresAt;
+}
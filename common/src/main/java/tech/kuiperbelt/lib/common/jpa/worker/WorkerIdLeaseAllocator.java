@@ -0,0 +1,260 @@
+package tech.kuiperbelt.lib.common.jpa.worker;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 从数据库表 WorkerIdLease 中租用 worker id<br>
+ * 1 启动时用一条带条件的 update 抢占一个已过期的租约, 抢占失败换下一个候选, 不依赖行锁<br>
+ * 2 以 leaseMillis / 3 的间隔续约<br>
+ * 3 关闭时释放租约, 节点异常退出时租约到期后可被其他节点重新占用<br>
+ * 租约的到期时间以数据库的时间计算, 不受各个节点时钟偏差的影响;
+ * 本节点以发出续约请求时的 System.nanoTime 加上租期作为租约的有效期限, 超过期限或者租约被占用后
+ * isLeaseValid 返回 false, SnowflakeIdWorker 随之拒绝生成ID, 直到续约成功
+ */
+@Slf4j
+public class WorkerIdLeaseAllocator implements DisposableBean {
+
+    /** 每次查询的候选 worker id 个数 */
+    private static final int CANDIDATES = 16;
+
+    /** 抢占租约的最大尝试次数 */
+    private static final int MAX_ATTEMPTS = 10;
+
+    private final EntityManager entityManager;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final long maxWorkerId;
+
+    private final long leaseMillis;
+
+    private final String owner;
+
+    private volatile Long workerId;
+
+    /** 本节点认定租约有效的期限 (System.nanoTime), 续约成功时延长 */
+    private volatile long validUntilNanos;
+
+    /** 最近一次确认的租约到期时间 (数据库时间) */
+    private volatile LocalDateTime expiresAt;
+
+    private ScheduledExecutorService heartbeat;
+
+    public WorkerIdLeaseAllocator(EntityManager entityManager, PlatformTransactionManager transactionManager,
+                                  long maxWorkerId, long leaseMillis) {
+        this(entityManager, transactionManager, maxWorkerId, leaseMillis, defaultOwner());
+    }
+
+    public WorkerIdLeaseAllocator(EntityManager entityManager, PlatformTransactionManager transactionManager,
+                                  long maxWorkerId, long leaseMillis, String owner) {
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.maxWorkerId = maxWorkerId;
+        this.leaseMillis = leaseMillis;
+        this.owner = owner;
+    }
+
+    /**
+     * 占用一个 worker id 并开始定时续约, 重复调用返回同一个 worker id
+     * @return worker id
+     */
+    public synchronized long acquire() {
+        if (workerId != null) {
+            return workerId;
+        }
+        seed();
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            List<Long> candidates = new ArrayList<>(transactionTemplate.execute(status ->
+                    entityManager.createQuery("select l.workerId from WorkerIdLease l " +
+                            "where l.expiresAt is null or l.expiresAt < current_timestamp", Long.class)
+                            .setMaxResults(CANDIDATES)
+                            .getResultList()));
+            if (candidates.isEmpty()) {
+                break;
+            }
+            // 打乱候选顺序, 避免同时启动的节点争抢同一行
+            Collections.shuffle(candidates);
+            for (Long candidate : candidates) {
+                if (claim(candidate)) {
+                    workerId = candidate;
+                    startHeartbeat();
+                    log.info("{} 租用 worker id: {}, 到期时间 {}", owner, candidate, expiresAt);
+                    return candidate;
+                }
+            }
+        }
+        throw new IllegalStateException(String.format("没有可用的 worker id, 所有 %d 个 worker id 都已被占用", maxWorkerId + 1));
+    }
+
+    /**
+     * 续约, 租约已被其他节点占用时返回 false, 之后 isLeaseValid 也返回 false
+     * @return
+     */
+    public boolean renew() {
+        Long current = workerId;
+        if (current == null) {
+            return false;
+        }
+        // 续约失败期间租约可能已经过期, 只要还没有被其他节点占用就继续持有
+        boolean renewed = update("update WorkerIdLease l set l.owner = :owner, l.expiresAt = :expiresAt " +
+                "where l.workerId = :workerId " +
+                "and (l.owner = :owner or l.expiresAt is null or l.expiresAt < current_timestamp)", current);
+        if (!renewed) {
+            validUntilNanos = System.nanoTime();
+            log.error("{} 续约 worker id: {} 失败, 已被其他节点占用, 停止生成ID", owner, current);
+        }
+        return renewed;
+    }
+
+    /**
+     * 租约是否仍然有效: 已经租用 worker id, 并且没有超过最近一次续约成功时确认的期限
+     * @return
+     */
+    public boolean isLeaseValid() {
+        return workerId != null && validUntilNanos - System.nanoTime() > 0;
+    }
+
+    /**
+     * @return 最近一次确认的租约到期时间 (数据库时间), 没有租用时为空
+     */
+    public LocalDateTime getExpiresAt() {
+        return workerId != null ? expiresAt : null;
+    }
+
+    /**
+     * 停止续约并释放租约, 使其他节点可以立即占用
+     */
+    public synchronized void release() {
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+            heartbeat = null;
+        }
+        Long current = workerId;
+        if (current == null) {
+            return;
+        }
+        workerId = null;
+        validUntilNanos = System.nanoTime();
+        transactionTemplate.execute(status ->
+                entityManager.createQuery("update WorkerIdLease l set l.owner = null, l.expiresAt = null " +
+                        "where l.workerId = :workerId and l.owner = :owner")
+                        .setParameter("workerId", current)
+                        .setParameter("owner", owner)
+                        .executeUpdate());
+        log.info("{} 释放 worker id: {}", owner, current);
+    }
+
+    @Override
+    public void destroy() {
+        release();
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * 首次使用时生成 0 ~ maxWorkerId 的所有租约行, 多个节点同时生成时主键冲突的一方忽略即可
+     */
+    private void seed() {
+        Long count = transactionTemplate.execute(status ->
+                entityManager.createQuery("select count(l) from WorkerIdLease l", Long.class).getSingleResult());
+        if (count != null && count > maxWorkerId) {
+            return;
+        }
+        try {
+            transactionTemplate.execute(status -> {
+                List<Long> existing = entityManager
+                        .createQuery("select l.workerId from WorkerIdLease l", Long.class)
+                        .getResultList();
+                for (long id = 0; id <= maxWorkerId; id++) {
+                    if (!existing.contains(id)) {
+                        entityManager.persist(WorkerIdLease.builder().workerId(id).build());
+                    }
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            log.info("worker id 租约已由其他节点生成: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 抢占一个已过期的租约
+     */
+    private boolean claim(long candidate) {
+        return update("update WorkerIdLease l set l.owner = :owner, l.expiresAt = :expiresAt " +
+                "where l.workerId = :workerId and (l.expiresAt is null or l.expiresAt < current_timestamp)", candidate);
+    }
+
+    /**
+     * 在一个事务中读取数据库的当前时间, 以它加上租期作为新的到期时间执行租约的 update;
+     * 成功时以发出请求前的 System.nanoTime 加上租期作为本节点的有效期限, 不会晚于数据库中的到期时间
+     */
+    private boolean update(String jpql, long candidate) {
+        long startNanos = System.nanoTime();
+        LocalDateTime[] renewedExpiresAt = new LocalDateTime[1];
+        Integer updated = transactionTemplate.execute(status -> {
+            Date current = entityManager.createQuery("select current_timestamp from WorkerIdLease l", Date.class)
+                    .setMaxResults(1)
+                    .getSingleResult();
+            LocalDateTime databaseNow = new Timestamp(current.getTime()).toLocalDateTime();
+            renewedExpiresAt[0] = databaseNow.plus(leaseMillis, ChronoUnit.MILLIS);
+            return entityManager.createQuery(jpql)
+                    .setParameter("owner", owner)
+                    .setParameter("expiresAt", renewedExpiresAt[0])
+                    .setParameter("workerId", candidate)
+                    .executeUpdate();
+        });
+        if (updated == null || updated != 1) {
+            return false;
+        }
+        expiresAt = renewedExpiresAt[0];
+        validUntilNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(leaseMillis);
+        return true;
+    }
+
+    private void startHeartbeat() {
+        heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "worker-id-lease-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(leaseMillis / 3, 1L);
+        heartbeat.scheduleAtFixedRate(() -> {
+            try {
+                renew();
+            } catch (RuntimeException e) {
+                log.warn("{} 续约 worker id: {} 异常", owner, workerId, e);
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private static String defaultOwner() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "unknown";
+        }
+        return host + "/" + UUID.randomUUID().toString();
+    }
+}
@@ -1,5 +1,6 @@
 package tech.kuiperbelt.lib.common.datarest;
 
+import com.jayway.jsonpath.JsonPath;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.RandomUtils;
 import org.junit.Before;
@@ -10,11 +11,14 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.support.TransactionTemplate;
 import tech.kuiperbelt.lib.common.IntegrationTest;
+import tech.kuiperbelt.lib.common.domain.Bar;
+import tech.kuiperbelt.lib.common.domain.BarRepository;
 import tech.kuiperbelt.lib.common.domain.Foo;
 import tech.kuiperbelt.lib.common.domain.FooRepository;
 import tech.kuiperbelt.lib.common.util.JsonMapBuilder;
 
 import javax.transaction.Transactional;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -24,6 +28,7 @@ import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static tech.kuiperbelt.lib.common.domain.Foo.Status.ENABLED;
@@ -37,6 +42,9 @@ public class DataRestControllerTest extends IntegrationTest {
     @Autowired
     private FooRepository fooRepository;
 
+    @Autowired
+    private BarRepository barRepository;
+
     private Foo savedFoo;
 
     @Before
@@ -137,6 +145,247 @@ public class DataRestControllerTest extends IntegrationTest {
                 .andExpect(jsonPath("$._embedded.foos[0].id").value(String.valueOf(savedFoo.getId())));
     }
 
+    @Transactional
+    @Test
+    public void searchByFilterWithKeyset() throws Exception {
+        Foo another = fooRepository.save(Foo.builder()
+                .aaa(savedFoo.getAaa())
+                .ccc(RandomUtils.nextInt())
+                .status(ENABLED)
+                .build());
+
+        String content = mvc.perform(get("/foos/search/findByFilter")
+                .queryParam("filter", "aaa==" + savedFoo.getAaa())
+                .queryParam("after", "")
+                .queryParam("size", "1")
+                .queryParam("sort", "id,asc")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.foos.length()").value(1))
+                .andExpect(jsonPath("$._embedded.foos[0].id").value(String.valueOf(Math.min(savedFoo.getId(), another.getId()))))
+                .andExpect(jsonPath("$.cursor.next").isNotEmpty())
+                .andExpect(jsonPath("$._links.next.href").exists())
+                .andReturn().getResponse().getContentAsString();
+        String next = JsonPath.read(content, "$.cursor.next");
+
+        mvc.perform(get("/foos/search/findByFilter")
+                .queryParam("filter", "aaa==" + savedFoo.getAaa())
+                .queryParam("after", next)
+                .queryParam("size", "1")
+                .queryParam("sort", "id,asc")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.foos.length()").value(1))
+                .andExpect(jsonPath("$._embedded.foos[0].id").value(String.valueOf(Math.max(savedFoo.getId(), another.getId()))))
+                .andExpect(jsonPath("$.cursor.next").doesNotExist())
+                .andExpect(jsonPath("$._links.next").doesNotExist());
+    }
+
+    @Transactional
+    @Test
+    public void searchByFilterWithoutCount() throws Exception {
+        fooRepository.save(Foo.builder()
+                .aaa(savedFoo.getAaa())
+                .ccc(RandomUtils.nextInt())
+                .status(ENABLED)
+                .build());
+
+        mvc.perform(get("/foos/search/findByFilter")
+                .queryParam("filter", "aaa==" + savedFoo.getAaa())
+                .queryParam("count", "none")
+                .queryParam("size", "1")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.foos.length()").value(1))
+                .andExpect(jsonPath("$.page.hasNext").value(true))
+                .andExpect(jsonPath("$.page.totalElements").doesNotExist())
+                .andExpect(jsonPath("$._links.next.href").exists());
+
+        mvc.perform(get("/foos/search/findByFilter")
+                .queryParam("filter", "aaa==" + savedFoo.getAaa())
+                .queryParam("count", "none")
+                .queryParam("size", "1")
+                .queryParam("page", "1")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.foos.length()").value(1))
+                .andExpect(jsonPath("$.page.hasNext").value(false))
+                .andExpect(jsonPath("$._links.prev.href").exists())
+                .andExpect(jsonPath("$._links.next").doesNotExist());
+
+        mvc.perform(get("/foos/search/findByFilter")
+                .queryParam("filter", "aaa==" + savedFoo.getAaa())
+                .queryParam("count", "estimated")
+                .queryParam("size", "1")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.foos.length()").value(1))
+                .andExpect(jsonPath("$.page.hasNext").value(true))
+                .andExpect(jsonPath("$.page.totalElements").doesNotExist());
+    }
+
+    @Transactional
+    @Test
+    public void searchByFilterWithFields() throws Exception {
+        mvc.perform(get("/foos/search/findByFilter")
+                .queryParam("filter", "aaa==" + savedFoo.getAaa())
+                .queryParam("fields", "aaa,ccc")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.foos.length()").value(1))
+                .andExpect(jsonPath("$._embedded.foos[0].id").value(String.valueOf(savedFoo.getId())))
+                .andExpect(jsonPath("$._embedded.foos[0].aaa").value(savedFoo.getAaa()))
+                .andExpect(jsonPath("$._embedded.foos[0].ccc").value(savedFoo.getCcc()))
+                .andExpect(jsonPath("$._embedded.foos[0].status").doesNotExist())
+                .andExpect(jsonPath("$._embedded.foos[0]._links.self.href").exists())
+                .andExpect(jsonPath("$.page.totalElements").value(1));
+
+        mvc.perform(get("/foos/search/findByFilter")
+                .queryParam("filter", "aaa==" + savedFoo.getAaa())
+                .queryParam("fields", "aaa")
+                .queryParam("count", "none")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.foos.length()").value(1))
+                .andExpect(jsonPath("$.page.hasNext").value(false));
+    }
+
+    @Transactional
+    @Test
+    public void searchByFilterWithFetch() throws Exception {
+        barRepository.save(Bar.builder().name("bar-" + RandomStringUtils.randomAlphanumeric(5)).foo(savedFoo).build());
+
+        mvc.perform(get("/bars/search/findByFilter")
+                .queryParam("filter", "foo.aaa==" + savedFoo.getAaa())
+                .queryParam("fetch", "foo")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.bars.length()").value(1))
+                .andExpect(jsonPath("$.page.totalElements").value(1));
+
+        mvc.perform(get("/bars/search/findByFilter")
+                .queryParam("filter", "foo.aaa==" + savedFoo.getAaa())
+                .queryParam("graph", Bar.WITH_FOO)
+                .queryParam("count", "none")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.bars.length()").value(1))
+                .andExpect(jsonPath("$.page.hasNext").value(false));
+    }
+
+    @Transactional
+    @Test
+    public void searchByFilterOverQueryLimit() throws Exception {
+        mvc.perform(get("/bars/search/findByFilter")
+                .queryParam("filter", "name==x")
+                .queryParam("size", "51")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.code").value("query_limit_exceeded"))
+                .andExpect(jsonPath("$.detail.limit").value("max-page-size"))
+                .andExpect(jsonPath("$.detail.maximum").value("50"));
+    }
+
+    @Transactional
+    @Test
+    public void searchByFilterInvalidatedByCreate() throws Exception {
+        String name = "bar-" + RandomStringUtils.randomAlphanumeric(5);
+        mvc.perform(get("/bars/search/findByFilter")
+                .queryParam("filter", "name==" + name)
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.page.totalElements").value(0));
+
+        mvc.perform(post("/bars")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"name\": \"" + name + "\"}"))
+                .andExpect(status().isCreated());
+
+        mvc.perform(get("/bars/search/findByFilter")
+                .queryParam("filter", "name==" + name)
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.page.totalElements").value(1))
+                .andExpect(jsonPath("$._embedded.bars[0].name").value(name));
+    }
+
+    /**
+     * 批量查询在线程池中使用自己的事务, 只能看到已经提交的数据, 所以这里不使用测试事务
+     */
+    @Test
+    public void batchSearch() throws Exception {
+        try {
+            String body = "[" +
+                    "{\"repository\": \"foos\", \"filter\": \"aaa==" + savedFoo.getAaa() + "\", \"sort\": [\"ccc,desc\", \"along,desc\"]}," +
+                    "{\"repository\": \"foos\", \"filter\": \"aaa==" + savedFoo.getAaa() + "\", \"count\": \"none\", \"size\": 5}," +
+                    "{\"repository\": \"foos\", \"filter\": \"notExists==1\"}," +
+                    "{\"repository\": \"nothing\", \"filter\": \"aaa==1\"}" +
+                    "]";
+            mvc.perform(post("/search/batch")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(body))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.results.length()").value(4))
+                    .andExpect(jsonPath("$.results[0].status").value(200))
+                    .andExpect(jsonPath("$.results[0].result._embedded.foos[0].id").value(String.valueOf(savedFoo.getId())))
+                    .andExpect(jsonPath("$.results[0].result.page.totalElements").value(1))
+                    .andExpect(jsonPath("$.results[1].status").value(200))
+                    .andExpect(jsonPath("$.results[1].result.page.size").value(5))
+                    .andExpect(jsonPath("$.results[1].result.page.hasNext").value(false))
+                    .andExpect(jsonPath("$.results[2].status").value(400))
+                    .andExpect(jsonPath("$.results[2].error.code").value("bad_request"))
+                    .andExpect(jsonPath("$.results[3].status").value(404))
+                    .andExpect(jsonPath("$.results[3].error.code").value("resource_not_found"));
+        } finally {
+            fooRepository.delete(savedFoo);
+        }
+    }
+
+    @Transactional
+    @Test
+    public void streamByFilter() throws Exception {
+        Foo another = fooRepository.save(Foo.builder()
+                .aaa(savedFoo.getAaa())
+                .ccc(RandomUtils.nextInt())
+                .status(ENABLED)
+                .build());
+
+        String content = mvc.perform(get("/foos/search/streamByFilter")
+                .queryParam("filter", "aaa==" + savedFoo.getAaa())
+                .queryParam("sort", "id,desc"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", startsWith("application/x-ndjson")))
+                .andReturn().getResponse().getContentAsString(StandardCharsets.UTF_8);
+        String[] lines = content.split("\n");
+        assertThat(lines.length, equalTo(2));
+        assertThat(JsonPath.read(lines[0], "$.id"), equalTo(String.valueOf(Math.max(savedFoo.getId(), another.getId()))));
+        assertThat(JsonPath.read(lines[1], "$.id"), equalTo(String.valueOf(Math.min(savedFoo.getId(), another.getId()))));
+        assertThat(JsonPath.read(lines[1], "$.aaa"), equalTo(savedFoo.getAaa()));
+        assertThat(JsonPath.read(lines[1], "$._links.self.href"), notNullValue());
+    }
+
+    @Transactional
+    @Test
+    public void aggregateByFilter() throws Exception {
+        fooRepository.save(Foo.builder()
+                .aaa(savedFoo.getAaa())
+                .ccc(1)
+                .status(Foo.Status.DISABLED)
+                .build());
+
+        mvc.perform(get("/foos/search/aggregateByFilter")
+                .queryParam("filter", "aaa==" + savedFoo.getAaa())
+                .queryParam("groupBy", "status")
+                .queryParam("aggregate", "count,max(ccc)")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.groups.length()").value(2))
+                .andExpect(jsonPath("$.groups[?(@.status == 'ENABLED')].count").value(1))
+                .andExpect(jsonPath("$.groups[?(@.status == 'ENABLED')]['max(ccc)']").value(savedFoo.getCcc()))
+                .andExpect(jsonPath("$.groups[?(@.status == 'DISABLED')]['max(ccc)']").value(1))
+                .andExpect(jsonPath("$._links.self.href").exists());
+    }
+
     @Transactional
     @Test
     public void searchByFilter() throws Exception {
@@ -171,6 +420,13 @@ public class DataRestControllerTest extends IntegrationTest {
                     .andExpect(jsonPath("$._embedded.foos.length()").value(1))
                     .andExpect(jsonPath("$._embedded.foos[0].id").value(String.valueOf(existedFoo.getId())));
 
+            mvc.perform(get("/foos/{foo-id}/audits", existedFoo.getId())
+                    .param("count", "none")
+                    .contentType(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$._embedded.foos.length()").value(1))
+                    .andExpect(jsonPath("$.page.hasNext").value(false))
+                    .andExpect(jsonPath("$.page.totalElements").doesNotExist());
         } finally {
             template.executeWithoutResult(transactionStatus -> fooRepository.deleteAll());
         }
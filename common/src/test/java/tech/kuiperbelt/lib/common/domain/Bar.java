@@ -0,0 +1,30 @@
+package tech.kuiperbelt.lib.common.domain;
+
+import lombok.*;
+import tech.kuiperbelt.lib.common.jpa.BaseEntity;
+import tech.kuiperbelt.lib.common.jpa.FilterResultCacheable;
+import tech.kuiperbelt.lib.common.jpa.QueryLimit;
+
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.ManyToOne;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
+
+@Getter
+@Setter
+@Entity
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@QueryLimit(maxPageSize = 50)
+@FilterResultCacheable
+@NamedEntityGraph(name = Bar.WITH_FOO, attributeNodes = @NamedAttributeNode("foo"))
+public class Bar extends BaseEntity {
+    public static final String WITH_FOO = "Bar.foo";
+
+    private String name;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    private Foo foo;
+}
@@ -0,0 +1,8 @@
+package tech.kuiperbelt.lib.common.domain;
+
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import tech.kuiperbelt.lib.common.jpa.BaseRepository;
+
+@RepositoryRestResource
+public interface BarRepository extends BaseRepository<Bar> {
+}
@@ -0,0 +1,16 @@
+package tech.kuiperbelt.lib.common.domain;
+
+import lombok.*;
+
+import javax.persistence.Embeddable;
+import java.io.Serializable;
+
+@Getter
+@Setter
+@Embeddable
+@NoArgsConstructor
+@AllArgsConstructor
+public class Contact implements Serializable {
+    private String city;
+    private String phone;
+}
@@ -4,6 +4,7 @@ import lombok.*;
 import org.hibernate.envers.Audited;
 import tech.kuiperbelt.lib.common.jpa.BaseEntity;
 
+import javax.persistence.Embedded;
 import javax.persistence.Entity;
 import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
@@ -32,6 +33,9 @@ public class Foo extends BaseEntity {
     @Enumerated(EnumType.STRING)
     private Status status;
 
+    @Embedded
+    private Contact contact;
+
     public enum Status {
         ENABLED, DISABLED
     }
@@ -1,37 +1,70 @@
 package tech.kuiperbelt.lib.common.jpa;
 
+import cz.jirutka.rsql.parser.RSQLParserException;
+import cz.jirutka.rsql.parser.ast.RSQLOperators;
+import org.hibernate.Hibernate;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.RandomUtils;
+import org.hibernate.envers.AuditReaderFactory;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.support.TransactionTemplate;
 import tech.kuiperbelt.lib.common.IntegrationTest;
+import tech.kuiperbelt.lib.common.domain.Bar;
+import tech.kuiperbelt.lib.common.domain.BarRepository;
+import tech.kuiperbelt.lib.common.domain.Contact;
 import tech.kuiperbelt.lib.common.domain.Foo;
 import tech.kuiperbelt.lib.common.domain.FooRepository;
+import tech.kuiperbelt.lib.common.jpa.audit.RevisionDiff;
 
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
 import javax.transaction.Transactional;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 class BaseRepositoryTest extends IntegrationTest {
 
     @Autowired
     private FooRepository fooRepository;
 
+    @Autowired
+    private BarRepository barRepository;
+
     @Autowired
     private PlatformTransactionManager platformTransactionManager;
 
+    @Autowired
+    private EntityManager entityManager;
+
     @Transactional
     @Test
     void happyPath() {
@@ -146,6 +179,459 @@ class BaseRepositoryTest extends IntegrationTest {
         assertThat(byFilter.getTotalElements(), equalTo(1L));
     }
 
+    @Transactional
+    @Test
+    void findByFilterReusesCompiledFilter() {
+        String filterStr = "ccc=ge=0 and aaa==cached*";
+        long hits = RSQLFilterCache.getCache().stats().hitCount();
+
+        Page<Foo> byFilter = fooRepository.findByFilter(filterStr, PageRequest.of(0, 10));
+        assertThat(byFilter.getTotalElements(), equalTo(0L));
+
+        fooRepository.save(Foo.builder().aaa("cached-foo").ccc(1).build());
+        byFilter = fooRepository.findByFilter(filterStr, PageRequest.of(0, 10));
+        assertThat(byFilter.getTotalElements(), equalTo(1L));
+        assertThat(RSQLFilterCache.getCache().stats().hitCount(), greaterThan(hits));
+
+        // 解析失败的 filter 不缓存, 异常不被包装
+        assertThrows(RSQLParserException.class, () -> fooRepository.findByFilter("ccc=", PageRequest.of(0, 10)));
+    }
+
+    @Transactional
+    @Test
+    void findByFilterWithInList() {
+        Foo newFoo = fooRepository.save(Foo.builder().ccc(250).status(Foo.Status.DISABLED).build());
+
+        String cccList = IntStream.range(0, 500).mapToObj(String::valueOf).collect(Collectors.joining(","));
+        String filterStr = "ccc=in=(" + cccList + ") and status=in=(ENABLED,DISABLED)";
+        for (int i = 0; i < 2; i++) {
+            Page<Foo> byFilter = fooRepository.findByFilter(filterStr, PageRequest.of(0, 10));
+            assertThat(byFilter.getTotalElements(), equalTo(1L));
+            assertThat(byFilter.getContent().get(0).getId(), equalTo(newFoo.getId()));
+        }
+
+        // IllegalArgumentException 会被 Spring 转换为 InvalidDataAccessApiUsageException
+        assertThrows(InvalidDataAccessApiUsageException.class, () -> fooRepository.findByFilter("status=in=(UNKNOWN)", PageRequest.of(0, 10)));
+    }
+
+    @Transactional
+    @Test
+    void findByFilterWithKeyset() {
+        for (int i = 0; i < 25; i++) {
+            // ccc 有重复值, 由 id 决定顺序
+            fooRepository.save(Foo.builder().aaa("keyset-" + i).ccc(i % 7).build());
+        }
+        fooRepository.save(Foo.builder().aaa("other").ccc(100).build());
+
+        PageRequest pageRequest = PageRequest.of(0, 10, Sort.by(Sort.Direction.DESC, "ccc"));
+        List<Foo> walked = new ArrayList<>();
+        String after = null;
+        int pages = 0;
+        do {
+            KeysetSlice<Foo> slice = fooRepository.findByFilter("aaa==keyset-*", after, pageRequest);
+            walked.addAll(slice.getContent());
+            after = slice.getNextCursor();
+            pages++;
+        } while (after != null);
+
+        assertThat(pages, equalTo(3));
+        assertThat(walked, hasSize(25));
+        assertThat(walked.stream().map(Foo::getId).distinct().count(), equalTo(25L));
+        for (int i = 1; i < walked.size(); i++) {
+            Foo previous = walked.get(i - 1);
+            Foo current = walked.get(i);
+            assertTrue(previous.getCcc() > current.getCcc()
+                    || (previous.getCcc().equals(current.getCcc()) && previous.getId() > current.getId()));
+        }
+
+        // 游标只能和生成它时相同的排序一起使用
+        String cursor = fooRepository.findByFilter("aaa==keyset-*", null, pageRequest).getNextCursor();
+        assertThrows(InvalidDataAccessApiUsageException.class,
+                () -> fooRepository.findByFilter("aaa==keyset-*", cursor, PageRequest.of(0, 10, Sort.by("aaa"))));
+        // keyset 分页必须指定每页的行数
+        assertThrows(InvalidDataAccessApiUsageException.class,
+                () -> fooRepository.findByFilter("aaa==keyset-*", null, Pageable.unpaged()));
+    }
+
+    @Transactional
+    @Test
+    void findSliceByFilter() {
+        for (int i = 0; i < 25; i++) {
+            fooRepository.save(Foo.builder().aaa("slice-" + i).ccc(i).build());
+        }
+
+        Slice<Foo> first = fooRepository.findSliceByFilter("aaa==slice-*", PageRequest.of(0, 10, Sort.by("ccc")));
+        assertThat(first.getContent(), hasSize(10));
+        assertTrue(first.hasNext());
+        assertThat(first.getContent().get(0).getCcc(), equalTo(0));
+
+        Slice<Foo> last = fooRepository.findSliceByFilter("aaa==slice-*", PageRequest.of(2, 10, Sort.by("ccc")));
+        assertThat(last.getContent(), hasSize(5));
+        assertFalse(last.hasNext());
+        assertThat(last.getContent().get(0).getCcc(), equalTo(20));
+
+        // 不计算总数时, 最后一页的总数是准确的, 其他页只保证还有下一页
+        Page<Foo> page = fooRepository.findByFilter("aaa==slice-*", PageRequest.of(0, 10), CountMode.NONE);
+        assertThat(page.getTotalElements(), equalTo(11L));
+        assertTrue(page.hasNext());
+        Page<Foo> lastPage = fooRepository.findByFilter("aaa==slice-*", PageRequest.of(2, 10), CountMode.NONE);
+        assertThat(lastPage.getTotalElements(), equalTo(25L));
+        assertFalse(lastPage.hasNext());
+
+        // 带 filter 时无法估算, 与不计算总数相同
+        Page<Foo> estimated = fooRepository.findByFilter("aaa==slice-*", PageRequest.of(0, 10), CountMode.ESTIMATED);
+        assertThat(estimated.getContent(), hasSize(10));
+        assertThat(estimated.getTotalElements(), equalTo(11L));
+        assertTrue(estimated.hasNext());
+
+        // 没有 filter 时使用表的统计信息, 统计信息可能滞后, 估算的总数至少覆盖下一页
+        Page<Foo> unfiltered = fooRepository.findByFilter("", PageRequest.of(0, 10), CountMode.ESTIMATED);
+        assertThat(unfiltered.getContent(), hasSize(10));
+        assertTrue(unfiltered.getTotalElements() > 10L);
+    }
+
+    @Transactional
+    @Test
+    void findFieldsByFilter() {
+        for (int i = 0; i < 5; i++) {
+            fooRepository.save(Foo.builder().aaa("fields-" + i).ccc(i).status(Foo.Status.ENABLED).build());
+        }
+
+        Page<Map<String, Object>> page = fooRepository.findFieldsByFilter("aaa==fields-*",
+                Arrays.asList("ccc", "aaa"), PageRequest.of(0, 3, Sort.by(Sort.Direction.DESC, "ccc")), CountMode.EXACT);
+        assertThat(page.getTotalElements(), equalTo(5L));
+        assertThat(page.getContent(), hasSize(3));
+        Map<String, Object> first = page.getContent().get(0);
+        assertThat(new ArrayList<>(first.keySet()), contains("id", "ccc", "aaa"));
+        assertThat(first.get("ccc"), equalTo(4));
+        assertThat(first.get("aaa"), equalTo("fields-4"));
+
+        Page<Map<String, Object>> last = fooRepository.findFieldsByFilter("aaa==fields-*",
+                Collections.singletonList("status"), PageRequest.of(1, 3), CountMode.NONE);
+        assertThat(last.getContent(), hasSize(2));
+        assertFalse(last.hasNext());
+        assertThat(last.getContent().get(0).get("status"), equalTo(Foo.Status.ENABLED));
+
+        // 关联对象使用 left join, 关联为空的行也会返回
+        Foo foo = fooRepository.findByFilter("aaa==fields-0", PageRequest.of(0, 1)).getContent().get(0);
+        barRepository.save(Bar.builder().name("fields-bar-0").foo(foo).build());
+        barRepository.save(Bar.builder().name("fields-bar-1").build());
+        Page<Map<String, Object>> bars = barRepository.findFieldsByFilter("name==fields-bar-*",
+                Arrays.asList("name", "foo.aaa"), PageRequest.of(0, 10, Sort.by("name")), CountMode.EXACT);
+        assertThat(bars.getContent(), hasSize(2));
+        assertThat(bars.getContent().get(0).get("foo.aaa"), equalTo("fields-0"));
+        assertThat(bars.getContent().get(1).get("foo.aaa"), nullValue());
+        List<Map<String, Object>> barGroups = barRepository.aggregateByFilter("name==fields-bar-*",
+                Collections.singletonList("foo.aaa"), null);
+        assertThat(barGroups, hasSize(2));
+
+        // 只能投影基本类型的属性, JsonIgnore 的属性也不允许
+        assertThrows(InvalidDataAccessApiUsageException.class, () -> fooRepository.findFieldsByFilter(null,
+                Collections.singletonList("hashCode"), PageRequest.of(0, 3), CountMode.EXACT));
+        assertThrows(InvalidDataAccessApiUsageException.class, () -> fooRepository.findFieldsByFilter(null,
+                Collections.singletonList("unknown"), PageRequest.of(0, 3), CountMode.EXACT));
+    }
+
+    @Transactional
+    @Test
+    void streamByFilter() {
+        for (int i = 0; i < 7; i++) {
+            fooRepository.save(Foo.builder().aaa("stream-" + i).ccc(i).build());
+        }
+
+        BaseRepositoryImplement.configureStream(2, 3);
+        try {
+            List<Integer> streamed = new ArrayList<>();
+            List<Foo> entities = new ArrayList<>();
+            long count = fooRepository.streamByFilter("aaa==stream-*", Sort.by(Sort.Direction.DESC, "ccc"), foo -> {
+                streamed.add(foo.getCcc());
+                entities.add(foo);
+            });
+            assertThat(count, equalTo(7L));
+            assertThat(streamed, contains(6, 5, 4, 3, 2, 1, 0));
+            // 每 3 行清空一次持久化上下文, 之前读取的实体都已经 detach
+            assertFalse(entityManager.contains(entities.get(0)));
+            assertTrue(entityManager.contains(entities.get(6)));
+        } finally {
+            BaseRepositoryImplement.configureStream(1000, 1000);
+        }
+    }
+
+    @Transactional
+    @Test
+    void compilePredicateMatchesFindByFilter() {
+        for (int i = 0; i < 10; i++) {
+            fooRepository.save(Foo.builder()
+                    .aaa("predicate-" + i)
+                    .bbb(i % 2 == 0)
+                    .ccc(i)
+                    .aLong(i % 3 == 0 ? null : (long) i)
+                    .aDecimal(BigDecimal.valueOf(i).setScale(2, RoundingMode.HALF_UP))
+                    .aLocalDate(LocalDate.of(2020, 1, 1).plusDays(i))
+                    .status(i < 5 ? Foo.Status.ENABLED : Foo.Status.DISABLED)
+                    .build());
+        }
+        List<String> filters = Arrays.asList(
+                "aaa==predicate-1*",
+                "aaa!=predicate-1",
+                "ccc>3;ccc<=7",
+                "ccc=in=(1,3,5),bbb==true",
+                "ccc=out=(1,3,5)",
+                "aLong>=4",
+                "aLong!=4",
+                "aDecimal==3",
+                "aLocalDate<2020-01-04",
+                "status==DISABLED;bbb==false",
+                "aaa=ilike=PREDICATE-1*",
+                "aaa=nilike=Predicate-2",
+                "aaa=ilike=*DICATE-_");
+        for (String filter : filters) {
+            String scoped = "aaa==predicate-*;(" + filter + ")";
+            Set<Long> expected = fooRepository.findByFilter(scoped, Pageable.unpaged()).stream()
+                    .map(Foo::getId)
+                    .collect(Collectors.toSet());
+            Set<Long> actual = fooRepository.findAll().stream()
+                    .filter(fooRepository.compilePredicate(scoped))
+                    .map(Foo::getId)
+                    .collect(Collectors.toSet());
+            assertThat(filter, actual, equalTo(expected));
+        }
+
+        // 编译结果按 filter 缓存
+        assertThat(fooRepository.compilePredicate("ccc>3"), sameInstance(fooRepository.compilePredicate("ccc>3")));
+        assertTrue(fooRepository.compilePredicate(null).test(new Foo()));
+    }
+
+    @Transactional
+    @Test
+    void findByFilterWithStringPlan() {
+        for (String aaa : new String[]{"plan-a", "plan-ab", "plan-b", "Plan-A", "plan_a"}) {
+            fooRepository.save(Foo.builder().aaa(aaa).ccc(RandomUtils.nextInt()).build());
+        }
+
+        assertThat(LikePattern.of("plan-a").getKind(), equalTo(LikePattern.Kind.EXACT));
+        assertThat(LikePattern.of("plan-a*").getKind(), equalTo(LikePattern.Kind.PREFIX));
+        assertThat(LikePattern.of("*plan").getKind(), equalTo(LikePattern.Kind.PATTERN));
+        assertThat(LikePattern.of("plan_a*").getKind(), equalTo(LikePattern.Kind.PATTERN));
+
+        assertThat(aaaOf("aaa==plan-a"), containsInAnyOrder("plan-a"));
+        assertThat(aaaOf("aaa==plan-a*"), containsInAnyOrder("plan-a", "plan-ab"));
+        assertThat(aaaOf("aaa!=plan-a;aaa==plan*"), containsInAnyOrder("plan-ab", "plan-b", "plan_a"));
+        // _ 与 SQL like 一样匹配单个字符
+        assertThat(aaaOf("aaa==plan_a"), containsInAnyOrder("plan-a", "plan_a"));
+        assertThat(aaaOf("aaa=ilike=plan-a"), containsInAnyOrder("plan-a", "Plan-A"));
+        assertThat(aaaOf("aaa=ilike=PLAN-A*"), containsInAnyOrder("plan-a", "plan-ab", "Plan-A"));
+        assertThat(aaaOf("aaa=nilike=plan-a;aaa=ilike=plan*"), containsInAnyOrder("plan-ab", "plan-b", "plan_a"));
+
+        assertThrows(InvalidDataAccessApiUsageException.class, () -> fooRepository.findByFilter("ccc=ilike=1", PageRequest.of(0, 10)));
+    }
+
+    private List<String> aaaOf(String filter) {
+        return fooRepository.findByFilter(filter, Pageable.unpaged()).stream()
+                .map(Foo::getAaa)
+                .collect(Collectors.toList());
+    }
+
+    @Transactional
+    @Test
+    void findByFilterWithFetchPlan() {
+        Foo foo = fooRepository.save(Foo.builder().aaa("fetch-" + RandomStringUtils.randomAlphanumeric(5)).build());
+        for (int i = 0; i < 3; i++) {
+            barRepository.save(Bar.builder().name("bar-" + i).foo(foo).build());
+        }
+        barRepository.save(Bar.builder().name("bar-without-foo").build());
+        entityManager.flush();
+        entityManager.clear();
+
+        String filter = "foo.aaa==" + foo.getAaa();
+        Page<Bar> lazy = barRepository.findByFilter(filter, PageRequest.of(0, 2), CountMode.EXACT, null);
+        assertThat(lazy.getTotalElements(), equalTo(3L));
+        assertFalse(Hibernate.isInitialized(lazy.getContent().get(0).getFoo()));
+        entityManager.clear();
+
+        Page<Bar> fetched = barRepository.findByFilter(filter, PageRequest.of(0, 2), CountMode.EXACT, FetchPlan.fetch("foo"));
+        assertThat(fetched.getTotalElements(), equalTo(3L));
+        assertThat(fetched.getContent(), hasSize(2));
+        assertTrue(fetched.getContent().stream().allMatch(bar -> Hibernate.isInitialized(bar.getFoo())));
+        entityManager.clear();
+
+        // left join fetch 也返回没有关联的行
+        Slice<Bar> all = barRepository.findSliceByFilter("name==bar-*", PageRequest.of(0, 10), FetchPlan.fetch("foo"));
+        assertThat(all.getContent(), hasSize(4));
+        entityManager.clear();
+
+        Page<Bar> graph = barRepository.findByFilter(filter, PageRequest.of(0, 2), CountMode.NONE, FetchPlan.graph(Bar.WITH_FOO));
+        assertTrue(graph.getContent().stream().allMatch(bar -> Hibernate.isInitialized(bar.getFoo())));
+        entityManager.clear();
+
+        KeysetSlice<Bar> keyset = barRepository.findByFilter(filter, null, PageRequest.of(0, 2), FetchPlan.fetch("foo"));
+        assertTrue(keyset.hasNext());
+        assertTrue(Hibernate.isInitialized(keyset.getContent().get(0).getFoo()));
+
+        assertThrows(InvalidDataAccessApiUsageException.class,
+                () -> barRepository.findByFilter(filter, PageRequest.of(0, 2), CountMode.EXACT, FetchPlan.fetch("name")));
+    }
+
+    @Test
+    void fetchPlanReusesJoinInPredicate() {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Bar> query = criteriaBuilder.createQuery(Bar.class);
+        Root<Bar> root = query.from(Bar.class);
+        Specification<Bar> specification = new GenericRSQLSpecification<>("foo.aaa", RSQLOperators.EQUAL, Collections.singletonList("x"));
+
+        FetchPlan.fetch("foo").applyTo(specification).toPredicate(root, query, criteriaBuilder);
+        assertThat(root.getFetches(), hasSize(1));
+        assertThat(root.getJoins(), empty());
+    }
+
+    @Transactional
+    @Test
+    void queryLimits() {
+        // Bar 上的 QueryLimit 覆盖了全局的 max-page-size
+        barRepository.findByFilter("name==x", PageRequest.of(0, 50));
+        QueryLimitExceededException pageSize = assertThrows(QueryLimitExceededException.class,
+                () -> barRepository.findByFilter("name==x", PageRequest.of(0, 51)));
+        assertThat(pageSize.getLimit(), equalTo(QueryLimits.MAX_PAGE_SIZE));
+        assertThat(pageSize.getActual(), equalTo(51));
+        assertThrows(QueryLimitExceededException.class,
+                () -> barRepository.findSliceByFilter("name==x", PageRequest.of(0, 51)));
+        fooRepository.findByFilter("aaa==x", PageRequest.of(0, 51));
+
+        // 聚合查询的分组数同样受 max-page-size 限制
+        for (int i = 0; i < 51; i++) {
+            barRepository.save(Bar.builder().name("limit-" + i).build());
+        }
+        assertThat(barRepository.aggregateByFilter("name==limit-*", null, null), hasSize(1));
+        QueryLimitExceededException groups = assertThrows(QueryLimitExceededException.class,
+                () -> barRepository.aggregateByFilter("name==limit-*", Collections.singletonList("name"), null));
+        assertThat(groups.getActual(), equalTo(51));
+
+        String in = IntStream.rangeClosed(0, QueryLimits.getDefaults().getMaxInArguments())
+                .mapToObj(String::valueOf)
+                .collect(Collectors.joining(",", "ccc=in=(", ")"));
+        QueryLimitExceededException inArguments = assertThrows(QueryLimitExceededException.class,
+                () -> fooRepository.findByFilter(in, PageRequest.of(0, 10)));
+        assertThat(inArguments.getLimit(), equalTo(QueryLimits.MAX_IN_ARGUMENTS));
+
+        String nested = "ccc==0";
+        for (int i = 1; i <= QueryLimits.getDefaults().getMaxFilterDepth(); i++) {
+            nested = "ccc==" + i + (i % 2 == 0 ? ";" : ",") + "(" + nested + ")";
+        }
+        String deep = nested;
+        QueryLimitExceededException depth = assertThrows(QueryLimitExceededException.class,
+                () -> fooRepository.findByFilter(deep, PageRequest.of(0, 10)));
+        assertThat(depth.getLimit(), equalTo(QueryLimits.MAX_FILTER_DEPTH));
+    }
+
+    @Transactional
+    @Test
+    void findByFilterWithResultCache() {
+        String prefix = "cache-" + RandomStringUtils.randomAlphanumeric(5);
+        for (int i = 0; i < 3; i++) {
+            barRepository.save(Bar.builder().name(prefix + i).build());
+        }
+        PageRequest pageable = PageRequest.of(0, 2, Sort.by(Sort.Direction.DESC, "name"));
+        Page<Bar> first = barRepository.findByFilter("name==" + prefix + "*", pageable);
+        assertThat(first.getTotalElements(), equalTo(3L));
+
+        long hits = FilterResultCache.getCache().stats().hitCount();
+        // 括号不同的 filter 规范化之后相同
+        Page<Bar> cached = barRepository.findByFilter("(name==" + prefix + "*)", pageable);
+        assertThat(FilterResultCache.getCache().stats().hitCount(), equalTo(hits + 1));
+        assertThat(cached.getTotalElements(), equalTo(3L));
+        assertThat(cached.getContent().stream().map(Bar::getName).collect(Collectors.toList()),
+                contains(prefix + 2, prefix + 1));
+
+        // 参数不同的 filter 不共用缓存, 即使 rsql-parser 的 toString 相同
+        barRepository.findByFilter("name=in=(\"" + prefix + "0','x\",y)", pageable);
+        Page<Bar> other = barRepository.findByFilter("name=in=(" + prefix + "0,\"x','y\")", pageable);
+        assertThat(FilterResultCache.getCache().stats().hitCount(), equalTo(hits + 1));
+        assertThat(other.getContent().stream().map(Bar::getName).collect(Collectors.toList()), contains(prefix + 0));
+
+        // 没有标注 FilterResultCacheable 的 entity 不缓存
+        fooRepository.findByFilter("aaa==" + prefix, PageRequest.of(0, 2));
+        fooRepository.findByFilter("aaa==" + prefix, PageRequest.of(0, 2));
+        assertThat(FilterResultCache.getCache().stats().hitCount(), equalTo(hits + 1));
+
+        barRepository.save(Bar.builder().name(prefix + 3).build());
+        FilterResultCache.invalidate(Bar.class);
+        Page<Bar> invalidated = barRepository.findByFilter("name==" + prefix + "*", pageable);
+        assertThat(FilterResultCache.getCache().stats().hitCount(), equalTo(hits + 1));
+        assertThat(invalidated.getTotalElements(), equalTo(4L));
+        assertThat(invalidated.getContent().get(0).getName(), equalTo(prefix + 3));
+    }
+
+    @Transactional
+    @Test
+    void aggregateByFilter() {
+        for (int i = 0; i < 6; i++) {
+            fooRepository.save(Foo.builder()
+                    .aaa("aggregate-" + i)
+                    .ccc(i)
+                    .aLocalDate(LocalDate.of(2020, 1, 1).plusDays(i))
+                    .status(i % 2 == 0 ? Foo.Status.ENABLED : Foo.Status.DISABLED)
+                    .build());
+        }
+
+        List<Map<String, Object>> groups = fooRepository.aggregateByFilter("aaa==aggregate-*",
+                Collections.singletonList("status"),
+                Arrays.asList("count", "sum(ccc)", "min(aLocalDate)", "max(ccc)", "avg(ccc)"));
+        assertThat(groups, hasSize(2));
+        // 按分组字段升序
+        Map<String, Object> enabled = groups.stream()
+                .filter(group -> group.get("status") == Foo.Status.ENABLED)
+                .findFirst().orElseThrow(AssertionError::new);
+        assertThat(enabled.get("count"), equalTo(3L));
+        assertThat(((Number) enabled.get("sum(ccc)")).longValue(), equalTo(6L));
+        assertThat(enabled.get("min(aLocalDate)"), equalTo(LocalDate.of(2020, 1, 1)));
+        assertThat(enabled.get("max(ccc)"), equalTo(4));
+        assertThat(((Number) enabled.get("avg(ccc)")).doubleValue(), equalTo(2.0));
+
+        List<Map<String, Object>> total = fooRepository.aggregateByFilter("aaa==aggregate-*", null, null);
+        assertThat(total, hasSize(1));
+        assertThat(total.get(0).get("count"), equalTo(6L));
+
+        assertThrows(InvalidDataAccessApiUsageException.class, () -> fooRepository.aggregateByFilter(null,
+                null, Collections.singletonList("sum(aaa)")));
+        assertThrows(InvalidDataAccessApiUsageException.class, () -> fooRepository.aggregateByFilter(null,
+                null, Collections.singletonList("median(ccc)")));
+    }
+
+    @Transactional
+    @Test
+    void findByFilterWithCreatedTimeIdRange() {
+        Foo newFoo = Foo.builder()
+                .aaa(RandomStringUtils.random(10))
+                .ccc(RandomUtils.nextInt())
+                .build();
+        fooRepository.saveAndFlush(newFoo);
+        String today = LocalDate.now().format(DateTimeFormatter.ISO_DATE);
+        String tomorrow = LocalDate.now().plusDays(1).format(DateTimeFormatter.ISO_DATE);
+
+        CreatedTimeIdRange.configure(true, 5000L);
+        try {
+            Page<Foo> byFilter = fooRepository.findByFilter("createdTime=ge=" + today, PageRequest.of(0, 10));
+            assertThat(byFilter.getTotalElements(), equalTo(1L));
+
+            byFilter = fooRepository.findByFilter("createdTime=lt=" + tomorrow + " and createdTime=gt=" + today, PageRequest.of(0, 10));
+            assertThat(byFilter.getTotalElements(), equalTo(1L));
+
+            byFilter = fooRepository.findByFilter("createdTime=ge=" + tomorrow, PageRequest.of(0, 10));
+            assertThat(byFilter.getTotalElements(), equalTo(0L));
+
+            // id 不是按照时间生成的数据会被 id 范围过滤掉
+            entityManager.createNativeQuery("update foo set id = 1 where id = :id")
+                    .setParameter("id", newFoo.getId())
+                    .executeUpdate();
+            byFilter = fooRepository.findByFilter("createdTime=ge=" + today, PageRequest.of(0, 10));
+            assertThat(byFilter.getTotalElements(), equalTo(0L));
+        } finally {
+            CreatedTimeIdRange.configure(false, 5000L);
+        }
+        Page<Foo> byFilter = fooRepository.findByFilter("createdTime=ge=" + today, PageRequest.of(0, 10));
+        assertThat(byFilter.getTotalElements(), equalTo(1L));
+    }
+
     /**
      * without @Transaction, we need control transaction to trigger Audit Listener
      */
@@ -181,11 +667,105 @@ class BaseRepositoryTest extends IntegrationTest {
                 fooRepository.findAllVersions(savedFoo.getId(), PageRequest.of(0, 100)));
         assertThat(allVersions.getTotalElements(), equalTo(2L));
 
+        // 分页在 Envers 查询中完成, 最新的版本在前
+        Page<Foo> firstPage = transactionTemplate.execute(transactionStatus ->
+                fooRepository.findAllVersions(savedFoo.getId(), PageRequest.of(0, 1)));
+        assertThat(firstPage.getContent().size(), equalTo(1));
+        assertThat(firstPage.getTotalElements(), equalTo(2L));
+        assertThat(firstPage.getContent().get(0).getCcc(), not(equalTo(savedFoo.getCcc())));
+
+        Page<Foo> lastPage = transactionTemplate.execute(transactionStatus ->
+                fooRepository.findAllVersions(savedFoo.getId(), PageRequest.of(1, 1), CountMode.NONE));
+        assertThat(lastPage.getContent().get(0).getCcc(), equalTo(savedFoo.getCcc()));
+        assertFalse(lastPage.hasNext());
+        assertTrue(transactionTemplate.execute(transactionStatus ->
+                fooRepository.findAllVersions(savedFoo.getId(), PageRequest.of(0, 1), CountMode.NONE)).hasNext());
+
         Optional<Foo> oldFoo = transactionTemplate.execute(transactionStatus -> fooRepository.findPriorVersion(savedFoo.getId()));
         assertTrue(oldFoo.isPresent());
         assertThat(oldFoo.get().getCcc(), equalTo(savedFoo.getCcc()));
 
+        Optional<Foo> firstVersion = transactionTemplate.execute(transactionStatus -> fooRepository.findVersion(savedFoo.getId(), savedFoo.getVersion()));
+        assertTrue(firstVersion.isPresent());
+        assertThat(firstVersion.get().getCcc(), equalTo(savedFoo.getCcc()));
+        assertFalse(transactionTemplate.execute(transactionStatus -> fooRepository.findVersion(savedFoo.getId(), savedFoo.getVersion() + 10)).isPresent());
+
+        // 只返回有变化的字段
+        RevisionDiff diff = transactionTemplate.execute(transactionStatus ->
+                fooRepository.diffVersions(savedFoo.getId(), savedFoo.getVersion(), savedFoo.getVersion() + 1)).get();
+        assertThat(diff.getChanges().size(), equalTo(1));
+        assertThat(diff.getChanges().get(0).getField(), equalTo("ccc"));
+        assertThat(diff.getChanges().get(0).getFrom(), equalTo(savedFoo.getCcc()));
+        List<RevisionDiff> diffs = transactionTemplate.execute(transactionStatus ->
+                fooRepository.diffVersionRange(savedFoo.getId(), savedFoo.getVersion(), savedFoo.getVersion() + 5));
+        assertThat(diffs.size(), equalTo(1));
+        assertThat(diffs.get(0).getToVersion(), equalTo(savedFoo.getVersion() + 1));
+
+        // 嵌入对象的属性展开为 component.field
+        transactionTemplate.executeWithoutResult(transactionStatus ->
+                fooRepository.getById(savedFoo.getId()).setContact(new Contact("shanghai", null)));
+        RevisionDiff contactDiff = transactionTemplate.execute(transactionStatus ->
+                fooRepository.diffVersions(savedFoo.getId(), savedFoo.getVersion() + 1, savedFoo.getVersion() + 2)).get();
+        assertThat(contactDiff.getChanges().size(), equalTo(1));
+        assertThat(contactDiff.getChanges().get(0).getField(), equalTo("contact.city"));
+        assertThat(contactDiff.getChanges().get(0).getTo(), equalTo("shanghai"));
+
         //clear DB
         transactionTemplate.executeWithoutResult(transactionStatus -> fooRepository.deleteAll());
     }
-}
\ No newline at end of file
+
+    @Test
+    void auditVersionIndex() {
+        // AuditVersionIndexIntegrator 为审计表加上 (id, version) 索引
+        Number count = (Number) entityManager.createNativeQuery(
+                "select count(*) from information_schema.indexes where table_name = 'FOO_AUD' and index_name = 'IDX_FOO_AUD_VERSION'")
+                .getSingleResult();
+        assertThat(count.intValue(), greaterThan(0));
+    }
+
+    @Test
+    void findByFilterAsOf() throws InterruptedException {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(platformTransactionManager);
+        int oldCcc = RandomUtils.nextInt();
+        Foo savedFoo = transactionTemplate.execute(transactionStatus -> fooRepository.save(Foo.builder()
+                .aaa(RandomStringUtils.randomAlphanumeric(10))
+                .ccc(oldCcc)
+                .status(Foo.Status.ENABLED)
+                .build()));
+        try {
+            Thread.sleep(20);
+            String beforeUpdate = LocalDateTime.now().toString();
+            Thread.sleep(20);
+            transactionTemplate.executeWithoutResult(transactionStatus -> fooRepository.getById(savedFoo.getId()).setCcc(oldCcc + 1));
+
+            String filter = "ccc==" + oldCcc + ";aaa==" + savedFoo.getAaa().substring(0, 5) + "*";
+            assertThat(fooRepository.findByFilter(filter, PageRequest.of(0, 10)).getTotalElements(), equalTo(0L));
+            Page<Foo> snapshot = transactionTemplate.execute(transactionStatus ->
+                    fooRepository.findByFilterAsOf(filter, beforeUpdate, PageRequest.of(0, 10), CountMode.EXACT));
+            assertThat(snapshot.getTotalElements(), equalTo(1L));
+            assertThat(snapshot.getContent().get(0).getCcc(), equalTo(oldCcc));
+
+            // 以 revision 编号指定快照
+            Number latest = transactionTemplate.execute(transactionStatus -> {
+                List<Number> revisions = AuditReaderFactory.get(entityManager).getRevisions(Foo.class, savedFoo.getId());
+                return revisions.get(revisions.size() - 1);
+            });
+            Page<Foo> current = transactionTemplate.execute(transactionStatus ->
+                    fooRepository.findByFilterAsOf("ccc==" + (oldCcc + 1), latest.toString(), PageRequest.of(0, 10), CountMode.NONE));
+            assertThat(current.getContent().size(), equalTo(1));
+            assertFalse(current.hasNext());
+
+            // 第一个 revision 之前没有数据
+            assertThat(transactionTemplate.execute(transactionStatus ->
+                    fooRepository.findByFilterAsOf(null, "2000-01-01", PageRequest.of(0, 10), CountMode.EXACT)).getTotalElements(), equalTo(0L));
+
+            // revision 编号超出 int 的范围是错误的参数
+            assertThrows(InvalidDataAccessApiUsageException.class, () -> transactionTemplate.execute(transactionStatus ->
+                    fooRepository.findByFilterAsOf(null, "3000000000", PageRequest.of(0, 10), CountMode.EXACT)));
+            assertThrows(InvalidDataAccessApiUsageException.class, () -> transactionTemplate.execute(transactionStatus ->
+                    fooRepository.findByFilterAsOf(null, "", PageRequest.of(0, 10), CountMode.EXACT)));
+        } finally {
+            transactionTemplate.executeWithoutResult(transactionStatus -> fooRepository.deleteAll());
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package tech.kuiperbelt.lib.common.jpa;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 比较各个并发模式下 nextId() 的吞吐量, 不在单元测试中执行, 通过 main 方法运行:
+ * <pre>
+ * mvn -Pjmh test-compile
+ * java -cp target/test-classes:target/classes:$(cat target/jmh.classpath) \
+ *     tech.kuiperbelt.lib.common.jpa.SnowflakeIdWorkerBenchmark 32
+ * </pre>
+ * 参数为并发线程数, 默认为 CPU 核数。
+ * 注意单个 worker 每毫秒最多 4096 个ID, 线程足够多时各模式都会顶到这个上限, 比较的是到达上限之前的锁竞争开销。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SnowflakeIdWorkerBenchmark {
+
+    @Param({"SYNCHRONIZED", "LOCK_FREE", "STRIPED"})
+    private SnowflakeIdWorker.Mode mode;
+
+    private SnowflakeIdWorker worker;
+
+    @Setup
+    public void setUp() {
+        worker = mode.create(1, 0);
+    }
+
+    @Benchmark
+    public long nextId() {
+        return worker.nextId();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        Options options = new OptionsBuilder()
+                .include(SnowflakeIdWorkerBenchmark.class.getSimpleName())
+                .threads(threads)
+                .build();
+        new Runner(options).run();
+    }
+}
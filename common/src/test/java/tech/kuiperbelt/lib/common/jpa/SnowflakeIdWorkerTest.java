@@ -0,0 +1,288 @@
+package tech.kuiperbelt.lib.common.jpa;
+
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SnowflakeIdWorkerTest {
+
+    private static final int THREADS = 8;
+    private static final int IDS_PER_THREAD = 20_000;
+
+    @Test
+    void lockFreeKeepsBitLayout() {
+        SnowflakeIdWorker worker = SnowflakeIdWorker.Mode.LOCK_FREE.create(5, 2);
+        long before = System.currentTimeMillis();
+        long id = worker.nextId();
+
+        long timestamp = (id >>> SnowflakeIdWorker.timestampLeftShift) + SnowflakeIdWorker.twepoch;
+        assertThat(timestamp, greaterThanOrEqualTo(before));
+        assertThat((id >>> SnowflakeIdWorker.datacenterIdShift) & 0x3L, equalTo(2L));
+        assertThat((id >>> SnowflakeIdWorker.workerIdShift) & 0xFFL, equalTo(5L));
+    }
+
+    @Test
+    void decodeSplitsIdIntoParts() {
+        long timestamp = SnowflakeIdWorker.twepoch + 123_456L;
+        SnowflakeIdWorker worker = new SnowflakeIdWorker(5, 2) {
+            @Override
+            long timeGen() {
+                return timestamp;
+            }
+        };
+        worker.nextId();
+        SnowflakeId id = SnowflakeId.decode(worker.nextId());
+
+        assertThat(id.getTimestamp(), equalTo(timestamp));
+        assertThat(id.getDatacenterId(), equalTo(2L));
+        assertThat(id.getWorkerId(), equalTo(5L));
+        assertThat(id.getSequence(), equalTo(1L));
+        assertThrows(IllegalArgumentException.class, () -> SnowflakeId.decode(-1L));
+    }
+
+    @Test
+    void metricsReflectWorkerCounters() {
+        AtomicLong clock = new AtomicLong(SnowflakeIdWorker.twepoch + 1000L);
+        SnowflakeIdWorker worker = fixedClockWorker(clock);
+        worker.setClockBackwardsStrategy(new ClockBackwardsStrategy.Borrow(10L));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        new SnowflakeIdWorkerMetrics(worker).bindTo(registry);
+
+        worker.nextId();
+        clock.addAndGet(-1L);
+        worker.nextIds(4096);
+
+        assertThat(registry.get("snowflake.ids").functionCounter().count(), equalTo(4097.0));
+        // 时钟回退一次, 逻辑时钟超前期间生成的ID 不重复计数
+        assertThat(registry.get("snowflake.clock.backwards").functionCounter().count(), equalTo(1.0));
+        assertThat(registry.get("snowflake.clock.backwards.handled").tag("strategy", "BORROW").functionCounter().count(), equalTo(1.0));
+        assertThat(registry.get("snowflake.clock.backwards.borrowed").tag("strategy", "BORROW").functionCounter().count(), greaterThan(0.0));
+        assertThat(registry.get("snowflake.clock.backwards.rejected").tag("strategy", "BORROW").functionCounter().count(), equalTo(0.0));
+        FunctionTimer overflow = registry.get("snowflake.sequence.overflow").functionTimer();
+        assertThat(overflow.count(), equalTo(1.0));
+        assertThat(registry.get("snowflake.ids.capacity").tag("worker", "1").gauge().value(), equalTo(4_096_000.0));
+    }
+
+    @Test
+    void stripedCarriesStripeInSequence() {
+        StripedSnowflakeIdWorker worker = (StripedSnowflakeIdWorker) SnowflakeIdWorker.Mode.STRIPED.create(5, 2);
+        long id = worker.nextId();
+
+        assertThat((id >>> StripedSnowflakeIdWorker.stripeSequenceBits) & StripedSnowflakeIdWorker.stripeMask,
+                equalTo(worker.stripe()));
+        assertThat((id >>> SnowflakeIdWorker.workerIdShift) & 0xFFL, equalTo(5L));
+    }
+
+    @Test
+    void stripedBorrowsHigherStripeOnOverflow() {
+        StripedSnowflakeIdWorker worker = new StripedSnowflakeIdWorker(1, 0) {
+            @Override
+            long stripe() {
+                return 0L;
+            }
+
+            @Override
+            long timeGen() {
+                return twepoch + 1000L;
+            }
+        };
+        long[] ids = worker.nextIds((int) StripedSnowflakeIdWorker.stripeSequenceMask + 2);
+        long last = ids[ids.length - 1];
+        assertThat((last >>> StripedSnowflakeIdWorker.stripeSequenceBits) & StripedSnowflakeIdWorker.stripeMask, equalTo(1L));
+        assertThat(last & StripedSnowflakeIdWorker.stripeSequenceMask, equalTo(0L));
+    }
+
+    @Test
+    void idsAreUniqueAndIncreasingPerThread() throws InterruptedException {
+        for (SnowflakeIdWorker.Mode mode : SnowflakeIdWorker.Mode.values()) {
+            SnowflakeIdWorker worker = mode.create(1, 0);
+            Set<Long> ids = ConcurrentHashMap.newKeySet();
+            ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+            for (int t = 0; t < THREADS; t++) {
+                executor.execute(() -> {
+                    long last = -1;
+                    for (int i = 0; i < IDS_PER_THREAD; i++) {
+                        long id = worker.nextId();
+                        assertThat(id, greaterThan(last));
+                        last = id;
+                        ids.add(id);
+                    }
+                });
+            }
+            executor.shutdown();
+            assertThat(executor.awaitTermination(1, TimeUnit.MINUTES), is(true));
+            assertThat(mode.name(), ids, hasSize(THREADS * IDS_PER_THREAD));
+        }
+    }
+
+    @Test
+    void nextIdsReservesIncreasingBlock() {
+        for (SnowflakeIdWorker.Mode mode : SnowflakeIdWorker.Mode.values()) {
+            SnowflakeIdWorker worker = mode.create(1, 0);
+            long previous = worker.nextId();
+            // 跨越多个毫秒的序列空间
+            long[] ids = worker.nextIds(10_000);
+            assertThat(ids.length, equalTo(10_000));
+            for (long id : ids) {
+                assertThat(mode.name(), id, greaterThan(previous));
+                previous = id;
+            }
+            assertThat(worker.nextId(), greaterThan(previous));
+        }
+    }
+
+    @Test
+    void lostLeaseStopsIdGeneration() {
+        for (SnowflakeIdWorker.Mode mode : SnowflakeIdWorker.Mode.values()) {
+            AtomicBoolean valid = new AtomicBoolean(true);
+            SnowflakeIdWorker worker = mode.create(1, 0);
+            worker.setLease(valid::get);
+            worker.nextId();
+
+            valid.set(false);
+            assertThrows(IllegalStateException.class, worker::nextId);
+            assertThrows(IllegalStateException.class, () -> worker.nextIds(3));
+
+            // 续约成功后恢复
+            valid.set(true);
+            worker.nextId();
+        }
+    }
+
+    @Test
+    void rejectClockBackwardsByDefault() {
+        AtomicLong clock = new AtomicLong(SnowflakeIdWorker.twepoch + 1000L);
+        SnowflakeIdWorker worker = fixedClockWorker(clock);
+        worker.nextId();
+        clock.addAndGet(-5L);
+
+        assertThrows(RuntimeException.class, worker::nextId);
+        ClockBackwardsStrategy.Reject strategy = (ClockBackwardsStrategy.Reject) worker.getClockBackwardsStrategy();
+        assertThat(strategy.getRejectedCount(), equalTo(1L));
+    }
+
+    @Test
+    void borrowLogicalClockWhenClockBackwards() {
+        AtomicLong clock = new AtomicLong(SnowflakeIdWorker.twepoch + 1000L);
+        ClockBackwardsStrategy.Borrow strategy = new ClockBackwardsStrategy.Borrow(10L);
+        for (SnowflakeIdWorker worker : new SnowflakeIdWorker[]{fixedClockWorker(clock), fixedClockLockFreeWorker(clock)}) {
+            worker.setClockBackwardsStrategy(strategy);
+            long previous = worker.nextId();
+            clock.addAndGet(-5L);
+            // 时钟停在回退后的时间, 逻辑时钟需要借用后续的毫秒
+            for (long id : worker.nextIds(4096 * 3)) {
+                assertThat(id, greaterThan(previous));
+                previous = id;
+            }
+            clock.addAndGet(100L);
+        }
+        // 每个 worker 回退一次, 逻辑时钟超前期间生成的ID 不重复计数
+        assertThat(strategy.getBackwardsCount(), equalTo(2L));
+        assertThat(strategy.getBorrowedCount(), greaterThan(0L));
+        assertThat(strategy.getRejectedCount(), equalTo(0L));
+    }
+
+    @Test
+    void countClockBackwardsOncePerRollback() {
+        AtomicLong clock = new AtomicLong(SnowflakeIdWorker.twepoch + 1000L);
+        SnowflakeIdWorker worker = fixedClockLockFreeWorker(clock);
+        worker.setClockBackwardsStrategy(new ClockBackwardsStrategy.Borrow(10L));
+        worker.nextId();
+        clock.addAndGet(-5L);
+        worker.nextIds(100);
+        // 时钟走动但还没有追上回退前的时间, 仍然是同一次回退
+        clock.addAndGet(2L);
+        worker.nextIds(100);
+        assertThat(worker.getClockBackwardsCount(), equalTo(1L));
+
+        clock.addAndGet(100L);
+        worker.nextId();
+        clock.addAndGet(-5L);
+        worker.nextId();
+        assertThat(worker.getClockBackwardsCount(), equalTo(2L));
+    }
+
+    @Test
+    void borrowRejectsBeyondBound() {
+        AtomicLong clock = new AtomicLong(SnowflakeIdWorker.twepoch + 1000L);
+        SnowflakeIdWorker worker = fixedClockWorker(clock);
+        ClockBackwardsStrategy.Borrow strategy = new ClockBackwardsStrategy.Borrow(10L);
+        worker.setClockBackwardsStrategy(strategy);
+        worker.nextId();
+        clock.addAndGet(-20L);
+
+        assertThrows(RuntimeException.class, worker::nextId);
+        assertThat(strategy.getRejectedCount(), equalTo(1L));
+    }
+
+    @Test
+    void waitUntilClockCatchesUp() {
+        AtomicLong clock = new AtomicLong(SnowflakeIdWorker.twepoch + 1000L);
+        // 每次读取时钟前进 1 ms, 模拟回退后时钟继续走动
+        SnowflakeIdWorker worker = new SnowflakeIdWorker(1, 0) {
+            @Override
+            long timeGen() {
+                return clock.getAndIncrement();
+            }
+        };
+        ClockBackwardsStrategy.Wait strategy = new ClockBackwardsStrategy.Wait(10L);
+        worker.setClockBackwardsStrategy(strategy);
+        long previous = worker.nextId();
+        clock.addAndGet(-5L);
+
+        assertThat(worker.nextId(), greaterThan(previous));
+        assertThat(strategy.getWaitCount(), equalTo(1L));
+        assertThat(strategy.getWaitedMillis(), greaterThan(0L));
+    }
+
+    @Test
+    void parkOnSequenceOverflow() {
+        AtomicLong reads = new AtomicLong();
+        // 每 5000 次读取时钟前进 1 ms, 保证 4096 个序列在同一毫秒内溢出
+        SnowflakeIdWorker worker = new SnowflakeIdWorker(1, 0) {
+            @Override
+            long timeGen() {
+                return SnowflakeIdWorker.twepoch + 1000L + reads.getAndIncrement() / 5000;
+            }
+        };
+        SequenceOverflowStrategy.Park strategy = new SequenceOverflowStrategy.Park();
+        worker.setSequenceOverflowStrategy(strategy);
+        long previous = -1;
+        for (long id : worker.nextIds(4096 + 1)) {
+            assertThat(id, greaterThan(previous));
+            previous = id;
+        }
+        assertThat(strategy.getOverflowCount(), equalTo(1L));
+        assertThat(strategy.getParkCount(), greaterThan(0L));
+    }
+
+    private static SnowflakeIdWorker fixedClockWorker(AtomicLong clock) {
+        return new SnowflakeIdWorker(1, 0) {
+            @Override
+            long timeGen() {
+                return clock.get();
+            }
+        };
+    }
+
+    private static SnowflakeIdWorker fixedClockLockFreeWorker(AtomicLong clock) {
+        return new LockFreeSnowflakeIdWorker(1, 0) {
+            @Override
+            long timeGen() {
+                return clock.get();
+            }
+        };
+    }
+}
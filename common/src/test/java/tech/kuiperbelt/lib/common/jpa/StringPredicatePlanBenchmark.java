@@ -0,0 +1,127 @@
+package tech.kuiperbelt.lib.common.jpa;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 比较 LikePattern 为字符串条件生成的 SQL 在 H2 带索引的列上的查询耗时, 不在单元测试中执行, 通过 main 方法运行:
+ * <pre>
+ * mvn -Pjmh test-compile
+ * java -cp target/test-classes:target/classes:$(cat target/jmh.classpath) \
+ *     tech.kuiperbelt.lib.common.jpa.StringPredicatePlanBenchmark
+ * </pre>
+ * 每组的第一个是改写前的 like, 第二个是 LikePattern 实际生成的条件, 参数相同, 结果相同:
+ * aaa like ? / aaa = ?, aaa like 'prefix%' / (不变), lower(aaa) like ? / lower(aaa) = ?。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StringPredicatePlanBenchmark {
+
+    private static final String EXACT = "Name-054321";
+
+    private static final String PREFIX = "Name-05432";
+
+    @Param({"100000"})
+    private int rows;
+
+    private Connection connection;
+
+    private PreparedStatement likeExact;
+    private PreparedStatement equal;
+    private PreparedStatement likePrefix;
+    private PreparedStatement lowerLike;
+    private PreparedStatement lowerEqual;
+
+    @Setup
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:plan;DB_CLOSE_DELAY=-1;OPTIMIZE_REUSE_RESULTS=FALSE");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("drop table if exists foo");
+            statement.execute("create table foo (id bigint primary key, aaa varchar(64))");
+            statement.execute("create index idx_foo_aaa on foo(aaa)");
+        }
+        try (PreparedStatement insert = connection.prepareStatement("insert into foo(id, aaa) values (?, ?)")) {
+            for (int i = 0; i < rows; i++) {
+                insert.setLong(1, i);
+                insert.setString(2, String.format("Name-%06d", i));
+                insert.addBatch();
+                if (i % 1000 == 999) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+        likeExact = prepare("select count(*) from foo where aaa like ?", EXACT);
+        equal = prepare("select count(*) from foo where aaa = ?", EXACT);
+        likePrefix = prepare("select count(*) from foo where aaa like ?", PREFIX + "%");
+        lowerLike = prepare("select count(*) from foo where lower(aaa) like ?", EXACT.toLowerCase());
+        lowerEqual = prepare("select count(*) from foo where lower(aaa) = ?", EXACT.toLowerCase());
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Benchmark
+    public long likeExact() throws SQLException {
+        return count(likeExact);
+    }
+
+    @Benchmark
+    public long equal() throws SQLException {
+        return count(equal);
+    }
+
+    @Benchmark
+    public long likePrefix() throws SQLException {
+        return count(likePrefix);
+    }
+
+    @Benchmark
+    public long lowerLike() throws SQLException {
+        return count(lowerLike);
+    }
+
+    @Benchmark
+    public long lowerEqual() throws SQLException {
+        return count(lowerEqual);
+    }
+
+    private PreparedStatement prepare(String sql, String... parameters) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql);
+        for (int i = 0; i < parameters.length; i++) {
+            statement.setString(i + 1, parameters[i]);
+        }
+        return statement;
+    }
+
+    private static long count(PreparedStatement statement) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery()) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(StringPredicatePlanBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,186 @@
+package tech.kuiperbelt.lib.common.jpa.audit;
+
+import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.RandomUtils;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import tech.kuiperbelt.lib.common.IntegrationTest;
+import tech.kuiperbelt.lib.common.domain.Foo;
+import tech.kuiperbelt.lib.common.domain.FooRepository;
+
+import javax.persistence.EntityManager;
+import java.util.Optional;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * write-behind 模式使用单独的 Spring 上下文和数据库, 避免替换审计策略影响其他测试
+ */
+@DirtiesContext
+@TestPropertySource(properties = {
+        "tech.kuiperbelt.jpa.audit.write-behind.enabled=true",
+        "tech.kuiperbelt.jpa.audit.write-behind.batch-size=10",
+        "tech.kuiperbelt.jpa.audit.write-behind.max-attempts=1",
+        "spring.datasource.generate-unique-name=true"})
+class WriteBehindAuditTest extends IntegrationTest {
+
+    private static final long WAIT_MILLIS = 10_000L;
+
+    @Autowired
+    private FooRepository fooRepository;
+
+    @Autowired
+    private AuditOutboxWorker auditOutboxWorker;
+
+    @Autowired
+    private PlatformTransactionManager platformTransactionManager;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @AfterEach
+    void tearDown() {
+        auditOutboxWorker.start();
+        new TransactionTemplate(platformTransactionManager).executeWithoutResult(transactionStatus -> fooRepository.deleteAll());
+    }
+
+    @Test
+    void auditWrittenAfterCommit() throws InterruptedException {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(platformTransactionManager);
+        Foo savedFoo = transactionTemplate.execute(transactionStatus -> fooRepository.save(newFoo()));
+        int newCcc = RandomUtils.nextInt();
+        transactionTemplate.executeWithoutResult(transactionStatus -> fooRepository.getById(savedFoo.getId()).setCcc(newCcc));
+
+        awaitOutboxDrained(transactionTemplate);
+
+        Page<Foo> allVersions = transactionTemplate.execute(transactionStatus ->
+                fooRepository.findAllVersions(savedFoo.getId(), PageRequest.of(0, 100)));
+        assertThat(allVersions.getTotalElements(), equalTo(2L));
+        assertThat(allVersions.getContent().get(0).getCcc(), equalTo(newCcc));
+        assertThat(allVersions.getContent().get(1).getCcc(), equalTo(savedFoo.getCcc()));
+        assertThat(allVersions.getContent().get(1).getStatus(), equalTo(Foo.Status.ENABLED));
+        assertThat(auditOutboxWorker.getWrittenCount(), greaterThanOrEqualTo(2L));
+
+        Optional<Foo> oldFoo = transactionTemplate.execute(transactionStatus -> fooRepository.findPriorVersion(savedFoo.getId()));
+        assertTrue(oldFoo.isPresent());
+        assertThat(oldFoo.get().getCcc(), equalTo(savedFoo.getCcc()));
+    }
+
+    @Test
+    void auditWrittenAfterCommitWithManualFlush() throws InterruptedException {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(platformTransactionManager);
+        // Envers 在临时 session 中写入审计数据, 提交后仍然进入队列, 不需要等到补写
+        Foo savedFoo = transactionTemplate.execute(transactionStatus -> {
+            entityManager.unwrap(Session.class).setHibernateFlushMode(FlushMode.MANUAL);
+            return fooRepository.saveAndFlush(newFoo());
+        });
+
+        awaitOutboxDrained(transactionTemplate);
+
+        assertThat(transactionTemplate.execute(transactionStatus ->
+                fooRepository.findAllVersions(savedFoo.getId(), PageRequest.of(0, 100))).getTotalElements(), equalTo(1L));
+    }
+
+    @Test
+    void rolledBackTransactionLeavesNoRecord() {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(platformTransactionManager);
+        transactionTemplate.executeWithoutResult(transactionStatus -> {
+            fooRepository.saveAndFlush(newFoo());
+            transactionStatus.setRollbackOnly();
+        });
+        assertThat(countOutbox(transactionTemplate), equalTo(0L));
+    }
+
+    @Test
+    void recoverFromOutboxTable() throws InterruptedException {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(platformTransactionManager);
+        awaitOutboxDrained(transactionTemplate);
+        auditOutboxWorker.stop();
+        Foo savedFoo = transactionTemplate.execute(transactionStatus -> fooRepository.save(newFoo()));
+
+        // worker 停止时审计记录留在表中, 还没有写入审计表
+        assertThat(countOutbox(transactionTemplate), equalTo(1L));
+        assertThat(transactionTemplate.execute(transactionStatus ->
+                fooRepository.findAllVersions(savedFoo.getId(), PageRequest.of(0, 100))).getTotalElements(), equalTo(0L));
+
+        // 重新启动时既从表中补写, 队列中也有同一条记录, 只写入一次
+        auditOutboxWorker.start();
+        awaitOutboxDrained(transactionTemplate);
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while(AuditOutbox.size() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50L);
+        }
+        Thread.sleep(200L);
+
+        assertThat(transactionTemplate.execute(transactionStatus ->
+                fooRepository.findAllVersions(savedFoo.getId(), PageRequest.of(0, 100))).getTotalElements(), equalTo(1L));
+        // 补写之后由 worker 线程重新统计表中的记录数
+        deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while(auditOutboxWorker.getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50L);
+        }
+        assertThat(auditOutboxWorker.getPendingCount(), equalTo(0L));
+    }
+
+    @Test
+    void poisonRecordMovedToFailureTable() throws InterruptedException {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(platformTransactionManager);
+        awaitOutboxDrained(transactionTemplate);
+        auditOutboxWorker.stop();
+        long failedCount = auditOutboxWorker.getFailedCount();
+        // 不能反序列化的记录排在正常的记录之前
+        AuditOutboxRecord poison = transactionTemplate.execute(transactionStatus -> {
+            AuditOutboxRecord record = AuditOutboxRecord.builder()
+                    .auditEntityName(Foo.class.getName() + "_AUD")
+                    .createdTime(System.currentTimeMillis())
+                    .payload(new byte[]{1, 2, 3})
+                    .build();
+            entityManager.persist(record);
+            return record;
+        });
+        Foo savedFoo = transactionTemplate.execute(transactionStatus -> fooRepository.save(newFoo()));
+
+        auditOutboxWorker.start();
+        awaitOutboxDrained(transactionTemplate);
+
+        assertThat(transactionTemplate.execute(transactionStatus ->
+                fooRepository.findAllVersions(savedFoo.getId(), PageRequest.of(0, 100))).getTotalElements(), equalTo(1L));
+        AuditOutboxFailure failure = transactionTemplate.execute(transactionStatus ->
+                entityManager.find(AuditOutboxFailure.class, poison.getId()));
+        assertThat(failure, notNullValue());
+        assertThat(failure.getAttempts(), equalTo(1));
+        assertThat(auditOutboxWorker.getFailedCount(), equalTo(failedCount + 1));
+    }
+
+    private Foo newFoo() {
+        return Foo.builder()
+                .aaa(RandomStringUtils.randomAlphabetic(10))
+                .ccc(RandomUtils.nextInt())
+                .status(Foo.Status.ENABLED)
+                .build();
+    }
+
+    private long countOutbox(TransactionTemplate transactionTemplate) {
+        return transactionTemplate.execute(transactionStatus ->
+                entityManager.createQuery("select count(o) from AuditOutboxRecord o", Long.class).getSingleResult());
+    }
+
+    private void awaitOutboxDrained(TransactionTemplate transactionTemplate) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while(countOutbox(transactionTemplate) > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50L);
+        }
+        assertThat(countOutbox(transactionTemplate), equalTo(0L));
+    }
+}
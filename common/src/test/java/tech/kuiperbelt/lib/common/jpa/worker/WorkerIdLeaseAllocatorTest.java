@@ -0,0 +1,95 @@
+package tech.kuiperbelt.lib.common.jpa.worker;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import tech.kuiperbelt.lib.common.IntegrationTest;
+
+import javax.persistence.EntityManager;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class WorkerIdLeaseAllocatorTest extends IntegrationTest {
+
+    private static final long MAX_WORKER_ID = 3L;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager platformTransactionManager;
+
+    private final List<WorkerIdLeaseAllocator> allocators = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        allocators.forEach(WorkerIdLeaseAllocator::release);
+        new TransactionTemplate(platformTransactionManager).execute(status ->
+                entityManager.createQuery("delete from WorkerIdLease").executeUpdate());
+    }
+
+    @Test
+    void nodesLeaseDistinctWorkerIds() {
+        Set<Long> workerIds = new HashSet<>();
+        for (int i = 0; i <= MAX_WORKER_ID; i++) {
+            workerIds.add(allocator("node-" + i, 60_000L).acquire());
+        }
+        assertThat(workerIds, hasSize((int) MAX_WORKER_ID + 1));
+
+        // 所有 worker id 都已被占用
+        assertThrows(IllegalStateException.class, () -> allocator("node-x", 60_000L).acquire());
+    }
+
+    @Test
+    void releasedWorkerIdCanBeReclaimed() {
+        for (int i = 0; i <= MAX_WORKER_ID; i++) {
+            allocator("node-" + i, 60_000L).acquire();
+        }
+        WorkerIdLeaseAllocator first = allocators.get(0);
+        long released = first.acquire();
+        first.release();
+
+        assertThat(allocator("node-x", 60_000L).acquire(), equalTo(released));
+        assertThat(first.renew(), is(false));
+    }
+
+    @Test
+    void expiredLeaseIsReclaimed() {
+        for (int i = 0; i <= MAX_WORKER_ID; i++) {
+            allocator("node-" + i, 60_000L).acquire();
+        }
+        WorkerIdLeaseAllocator expired = allocators.get(0);
+        long workerId = expired.acquire();
+        new TransactionTemplate(platformTransactionManager).execute(status ->
+                entityManager.createQuery("update WorkerIdLease l set l.expiresAt = :expiresAt where l.workerId = :workerId")
+                        .setParameter("expiresAt", LocalDateTime.now().minusDays(1))
+                        .setParameter("workerId", workerId)
+                        .executeUpdate());
+
+        WorkerIdLeaseAllocator newcomer = allocator("node-x", 60_000L);
+        assertThat(newcomer.acquire(), equalTo(workerId));
+        // 原节点续约时发现已被占用, 租约随即失效, 不能再用这个 worker id 生成ID
+        assertThat(expired.isLeaseValid(), is(true));
+        assertThat(expired.renew(), is(false));
+        assertThat(expired.isLeaseValid(), is(false));
+        assertThat(newcomer.renew(), is(true));
+        assertThat(newcomer.isLeaseValid(), is(true));
+        assertThat(newcomer.getExpiresAt(), notNullValue());
+    }
+
+    private WorkerIdLeaseAllocator allocator(String owner, long leaseMillis) {
+        WorkerIdLeaseAllocator allocator =
+                new WorkerIdLeaseAllocator(entityManager, platformTransactionManager, MAX_WORKER_ID, leaseMillis, owner);
+        allocators.add(allocator);
+        return allocator;
+    }
+}
@@ -18,6 +18,7 @@ import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.web.method.support.HandlerMethodArgumentResolver;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 import tech.kuiperbelt.lib.common.datarest.EnableKuiperbeltDataRestConfig;
+import tech.kuiperbelt.lib.common.datarest.BatchSearchController;
 import tech.kuiperbelt.lib.common.datarest.SearchController;
 import tech.kuiperbelt.lib.common.jpa.EnableKuiperbeltJapConfig;
 import tech.kuiperbelt.lib.common.jpa.audit.EnableKuiperbeltJapAuditConfig;
@@ -34,7 +35,7 @@ import java.util.concurrent.Executor;
 @EnableKuiperbeltJapAuditConfig
 @EnableKuiperbeltDataRestConfig
 @EnableJpaRepositories(repositoryBaseClass = EmsRepositoryImplement.class)
-@Import({MetaService.class, MetaController.class, SearchController.class, EntityEventTriggerService.class, MetaDelegateRepository.class})
+@Import({MetaService.class, MetaController.class, SearchController.class, BatchSearchController.class, EntityEventTriggerService.class, MetaDelegateRepository.class})
 @Configuration
 public class EmsDateRestMvcConfiguration extends RepositoryRestMvcConfiguration implements WebMvcConfigurer {
     public EmsDateRestMvcConfiguration(ApplicationContext context,
@@ -45,6 +45,11 @@ public class EmsEntity extends BaseEntity implements GroovyInterceptable {
     @Embedded
     private ExtensionFields ext;
 
+    @JsonIgnore
+    ExtensionFields getExt() {
+        return initIfNull(this.ext);
+    }
+
     /**
      * default constructor
      */
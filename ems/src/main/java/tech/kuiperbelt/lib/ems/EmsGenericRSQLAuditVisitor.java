@@ -0,0 +1,54 @@
+package tech.kuiperbelt.lib.ems;
+
+import org.hibernate.envers.query.AuditEntity;
+import org.hibernate.envers.query.criteria.AuditProperty;
+import org.springframework.util.ReflectionUtils;
+import tech.kuiperbelt.lib.common.jpa.GenericRSQLAuditVisitor;
+
+import javax.persistence.metamodel.ManagedType;
+import java.lang.reflect.Field;
+
+/**
+ * Enhance GenericRSQLAuditVisitor, 在历史快照的 Filter 表达式中 支持扩展字段
+ * @param <T>
+ */
+public class EmsGenericRSQLAuditVisitor<T> extends GenericRSQLAuditVisitor<T> {
+
+    /**
+     * Envers 中嵌入对象的属性名是 嵌入属性名_属性名
+     */
+    private static final String COMPONENT_SEPARATOR = "_";
+
+    @Override
+    public AuditProperty<Object> findProperty(String selector, ManagedType<T> type) {
+        FieldDescriptor fieldDescriptor = findExtensionField(selector, type);
+        if(fieldDescriptor != null) {
+            return AuditEntity.property(EmsEntity.Fields.ext + COMPONENT_SEPARATOR + fieldDescriptor.getDomainField());
+        }
+        return super.findProperty(selector, type);
+    }
+
+    @Override
+    protected Class<?> findJavaType(String selector, ManagedType<T> type) {
+        FieldDescriptor fieldDescriptor = findExtensionField(selector, type);
+        if(fieldDescriptor != null) {
+            Field field = ReflectionUtils.findField(ExtensionFields.class, fieldDescriptor.getDomainField());
+            if(field == null) {
+                throw new IllegalStateException("extension field not found: " + fieldDescriptor.getDomainField());
+            }
+            return field.getType();
+        }
+        return super.findJavaType(selector, type);
+    }
+
+    @SuppressWarnings("unchecked")
+    private FieldDescriptor findExtensionField(String selector, ManagedType<T> type) {
+        if(!EmsEntity.class.isAssignableFrom(type.getJavaType())) {
+            return null;
+        }
+        MetaCache metaCache = MetaService.getInstance()
+                .orElseThrow(() -> new IllegalStateException("metaService is not ready"))
+                .getOrCreateMetaCache((Class<? extends EmsEntity>) type.getJavaType());
+        return metaCache.getExtensionFieldDescriptorMap().get(selector);
+    }
+}
@@ -0,0 +1,58 @@
+package tech.kuiperbelt.lib.ems;
+
+import cz.jirutka.rsql.parser.ast.ComparisonOperator;
+import org.springframework.beans.BeanUtils;
+import tech.kuiperbelt.lib.common.jpa.GenericRSQLPredicate;
+
+import java.beans.PropertyDescriptor;
+import java.util.List;
+
+/**
+ * Enhance  GenericRSQLPredicate, 在内存求值的 Filter 表达式中 支持扩展字段
+ * @param <T>
+ */
+public class EmsGenericRSQLPredicate<T> extends GenericRSQLPredicate<T> {
+
+    public EmsGenericRSQLPredicate(String property, ComparisonOperator operator, List<String> arguments) {
+        super(property, operator, arguments);
+    }
+
+    @Override
+    protected Object findPropertyValue(T entity) {
+        FieldDescriptor fieldDescriptor = findExtensionField(entity);
+        if(fieldDescriptor != null) {
+            return ((EmsEntity) entity).getExt().getProperty(fieldDescriptor);
+        }
+        return super.findPropertyValue(entity);
+    }
+
+    @Override
+    protected Class<?> findPropertyType(T entity) {
+        FieldDescriptor fieldDescriptor = findExtensionField(entity);
+        if(fieldDescriptor != null) {
+            PropertyDescriptor descriptor = BeanUtils.getPropertyDescriptor(ExtensionFields.class, fieldDescriptor.getDomainField());
+            if(descriptor == null) {
+                throw new IllegalStateException("扩展字段 " + getProperty() + " 对应的列不存在: " + fieldDescriptor.getDomainField());
+            }
+            return descriptor.getPropertyType();
+        }
+        return super.findPropertyType(entity);
+    }
+
+    /**
+     * 使用 entity 构造时的 MetaCache 查找扩展字段, 与 entity 的 getProperty 一致, 不需要访问数据库
+     */
+    private FieldDescriptor findExtensionField(T entity) {
+        if(!(entity instanceof EmsEntity)) {
+            return null;
+        }
+        MetaCache metaCache = ((EmsEntity) entity).getMetaCache();
+        if(metaCache == null) {
+            metaCache = MetaService.getInstance()
+                    .orElseThrow(() -> new IllegalStateException("metaService is not ready"))
+                    .getOrCreateMetaCache(((EmsEntity) entity).getClass());
+        }
+        FieldDescriptor fieldDescriptor = metaCache.getFieldDescriptorMap().get(getProperty());
+        return fieldDescriptor != null && fieldDescriptor.isExtension() ? fieldDescriptor : null;
+    }
+}
@@ -0,0 +1,23 @@
+package tech.kuiperbelt.lib.ems;
+
+
+import cz.jirutka.rsql.parser.ast.ComparisonNode;
+import tech.kuiperbelt.lib.common.jpa.GenericRSQLPredicateVisitor;
+
+import java.util.function.Predicate;
+
+/**
+ * Enhance  GenericRSQLPredicateVisitor, 在内存求值的 Filter 表达式中 支持扩展字段
+ * @param <T>
+ */
+public class EmsGenericRSQLPredicateVisitor<T> extends GenericRSQLPredicateVisitor<T> {
+
+    @Override
+    public Predicate<T> visit(ComparisonNode comparisonNode, Void aVoid) {
+        return new EmsGenericRSQLPredicate<>(
+                comparisonNode.getSelector(),
+                comparisonNode.getOperator(),
+                comparisonNode.getArguments()
+        );
+    }
+}
@@ -11,7 +11,6 @@ import java.util.List;
  * @param <T>
  */
 public class EmsGenericRSQLSpecification<T> extends GenericRSQLSpecification<T> {
-    private MetaCache metaCache;
 
     public EmsGenericRSQLSpecification(String property, ComparisonOperator operator, List arguments) {
         super(property, operator, arguments);
@@ -20,11 +19,10 @@ public class EmsGenericRSQLSpecification<T> extends GenericRSQLSpecification<T>
     @Override
     protected Path<T> findProperty(Path<T> root, String property) {
         if(EmsEntity.class.isAssignableFrom(root.getJavaType())) {
-            if(metaCache == null) {
-                metaCache = MetaService.getInstance()
-                        .orElseThrow(() -> new IllegalStateException("metaService is not ready"))
-                        .getOrCreateMetaCache((Class<? extends EmsEntity>) root.getJavaType());
-            }
+            // Specification 会被 RSQLFilterCache 缓存复用, 扩展字段的定义可能在运行时变化, 所以每次都从 MetaService 中获取
+            MetaCache metaCache = MetaService.getInstance()
+                    .orElseThrow(() -> new IllegalStateException("metaService is not ready"))
+                    .getOrCreateMetaCache((Class<? extends EmsEntity>) root.getJavaType());
             if(metaCache.getFieldDescriptorMap().containsKey(this.getProperty())) {
                 FieldDescriptor fieldDescriptor = metaCache.getFieldDescriptorMap().get(this.getProperty());
                 if(fieldDescriptor.isExtension()) {
@@ -1,14 +1,16 @@
 package tech.kuiperbelt.lib.ems;
 
-import cz.jirutka.rsql.parser.RSQLParser;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
+import cz.jirutka.rsql.parser.ast.RSQLVisitor;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.support.JpaEntityInformation;
-import org.springframework.data.repository.query.Param;
 import tech.kuiperbelt.lib.common.jpa.BaseRepositoryImplement;
+import tech.kuiperbelt.lib.common.jpa.GenericRSQLAuditVisitor;
 
 import javax.persistence.EntityManager;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Root;
+import java.util.Map;
+import java.util.function.Predicate;
 
 /**
  * Enhance BaseRepositoryImplement.
@@ -25,11 +27,70 @@ public class EmsRepositoryImplement<T> extends BaseRepositoryImplement<T> {
     }
 
     @Override
-    public Page<T> findByFilter(@Param("filter") String filter, Pageable pageable) {
-        Specification accept = new RSQLParser()
-                .parse(filter)
-                .accept(new EmsGenericRSQLVisitor<>());
+    protected RSQLVisitor<Specification<T>, Void> createRSQLVisitor() {
+        return new EmsGenericRSQLVisitor<>();
+    }
+
+    @Override
+    protected RSQLVisitor<Predicate<T>, Void> createPredicateVisitor() {
+        return new EmsGenericRSQLPredicateVisitor<>();
+    }
+
+    @Override
+    protected GenericRSQLAuditVisitor<T> createAuditVisitor() {
+        return new EmsGenericRSQLAuditVisitor<>();
+    }
 
-        return this.findAll(accept, pageable);
+    /**
+     * 投影和聚合查询时, 扩展字段按照 MetaCache 中的定义映射到 ExtensionFields 中对应的列
+     * @param root
+     * @param field
+     * @return
+     */
+    @Override
+    protected Path<?> findField(Root<T> root, String field) {
+        if(EmsEntity.class.isAssignableFrom(getDomainClass())) {
+            @SuppressWarnings("unchecked")
+            MetaCache metaCache = MetaService.getInstance()
+                    .orElseThrow(() -> new IllegalStateException("metaService is not ready"))
+                    .getOrCreateMetaCache((Class<? extends EmsEntity>) getDomainClass());
+            FieldDescriptor fieldDescriptor = metaCache.getExtensionFieldDescriptorMap().get(field);
+            if(fieldDescriptor != null) {
+                return root.get(EmsEntity.Fields.ext).get(fieldDescriptor.getDomainField());
+            }
+        }
+        return super.findField(root, field);
+    }
+
+    /**
+     * 版本比较时加上扩展字段, 按照 MetaCache 中的定义以字段名输出
+     * @param entity
+     * @return
+     */
+    @Override
+    protected Map<String, Object> auditedFields(T entity) {
+        Map<String, Object> fields = super.auditedFields(entity);
+        if(entity instanceof EmsEntity) {
+            fields.putAll(((EmsEntity) entity).extFieldsToMap());
+        }
+        return fields;
+    }
+
+    /**
+     * 字段的显示名取 FieldDescriptor 的 label
+     * @param field
+     * @return
+     */
+    @Override
+    protected String fieldLabel(String field) {
+        if(!EmsEntity.class.isAssignableFrom(getDomainClass())) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        MetaCache metaCache = MetaService.getInstance()
+                .orElseThrow(() -> new IllegalStateException("metaService is not ready"))
+                .getOrCreateMetaCache((Class<? extends EmsEntity>) getDomainClass());
+        FieldDescriptor fieldDescriptor = metaCache.getFieldDescriptorMap().get(field);
+        return fieldDescriptor == null ? null : fieldDescriptor.getLabel();
     }
 }
@@ -13,7 +13,12 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.support.TransactionTemplate;
 import tech.kuiperbelt.lib.ems.domain.Foo;
+import tech.kuiperbelt.lib.ems.domain.FooRepository;
 
+import java.time.LocalDateTime;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
@@ -33,6 +38,9 @@ public class SearchControllerTest extends IntegrationTest {
     @Autowired
     private MetaService metaService;
 
+    @Autowired
+    private FooRepository fooRepository;
+
     private String newFieldName;
 
     @Before
@@ -42,6 +50,7 @@ public class SearchControllerTest extends IntegrationTest {
             newFieldName = "field" + RandomStringUtils.randomAlphanumeric(5).toLowerCase();
             metaService.createFiled("Foo", FieldDescriptor.builder()
                     .name(newFieldName)
+                    .label("label of " + newFieldName)
                     .dataType(DataType.STRING)
                     .indexed(false)
                     .build());
@@ -91,6 +100,84 @@ public class SearchControllerTest extends IntegrationTest {
         });
     }
 
+    @SneakyThrows
+    @Test
+    public void searchWithFieldsTest() {
+        transactionTemplate.executeWithoutResult(transactionStatus -> {
+            sneakyRun(() -> {
+                String name1 = RandomStringUtils.randomAlphanumeric(10);
+                String newFieldValue1 = RandomStringUtils.randomAlphanumeric(10);
+                byte[] newFooBody = toJson(ImmutableMap.of(
+                        Foo.Fields.name, name1,
+                        Foo.Fields.status, Foo.Status.DISABLED,
+                        newFieldName, newFieldValue1
+                ));
+
+                String fooLink = mvc.perform(post("/foos").contentType(MediaType.APPLICATION_JSON).content(newFooBody))
+                        .andExpect(status().isCreated())
+                        .andReturn()
+                        .getResponse()
+                        .getHeader("Location");
+                //只返回 name 和扩展字段
+                mvc.perform(get("/foos/search/findByFilter")
+                        .param("filter", Foo.Fields.name + "==" + name1)
+                        .param("fields", Foo.Fields.name + "," + newFieldName))
+                        .andExpect(status().isOk())
+                        .andExpect(jsonPath("$._embedded.foos.length()").value(1))
+                        .andExpect(jsonPath("$._embedded.foos[0]." + Foo.Fields.name).value(name1))
+                        .andExpect(jsonPath("$._embedded.foos[0]." + newFieldName).value(newFieldValue1))
+                        .andExpect(jsonPath("$._embedded.foos[0].id").exists())
+                        .andExpect(jsonPath("$._embedded.foos[0]." + Foo.Fields.status).doesNotExist())
+                        .andExpect(jsonPath("$._embedded.foos[0]._links.self.href").value(fooLink))
+                        .andExpect(jsonPath("$.page.totalElements").value(1));
+
+                mvc.perform(delete(fooLink))
+                        .andExpect(status().isNoContent());
+            });
+        });
+    }
+
+    @Test
+    public void aggregateOnExtensionFieldTest() {
+        transactionTemplate.executeWithoutResult(transactionStatus -> {
+            String name = RandomStringUtils.randomAlphanumeric(10);
+            for (String value : new String[]{"a", "b", "b"}) {
+                Foo foo = new Foo();
+                foo.setName(name);
+                foo.setStatus(Foo.Status.DISABLED);
+                foo.setProperty(newFieldName, value);
+                fooRepository.save(foo);
+            }
+            sneakyRun(() -> {
+                mvc.perform(get("/foos/search/aggregateByFilter")
+                        .param("filter", Foo.Fields.name + "==" + name)
+                        .param("groupBy", newFieldName)
+                        .param("aggregate", "count,max(" + newFieldName + ")"))
+                        .andExpect(status().isOk())
+                        .andExpect(jsonPath("$.groups.length()").value(2))
+                        .andExpect(jsonPath("$.groups[1]." + newFieldName).value("b"))
+                        .andExpect(jsonPath("$.groups[1].count").value(2))
+                        .andExpect(jsonPath("$.groups[1]['max(" + newFieldName + ")']").value("b"));
+            });
+            transactionStatus.setRollbackOnly();
+        });
+    }
+
+    @Test
+    public void compilePredicateOnExtensionFieldTest() {
+        transactionTemplate.executeWithoutResult(transactionStatus -> {
+            String newFieldValue = RandomStringUtils.randomAlphanumeric(10);
+            Foo foo = new Foo();
+            foo.setName(RandomStringUtils.randomAlphanumeric(10));
+            foo.setProperty(newFieldName, newFieldValue);
+
+            assertTrue(fooRepository.compilePredicate(newFieldName + "==" + newFieldValue).test(foo));
+            assertTrue(fooRepository.compilePredicate(newFieldName + "==" + newFieldValue.substring(0, 3) + "*").test(foo));
+            assertFalse(fooRepository.compilePredicate(newFieldName + "!=" + newFieldValue).test(foo));
+            assertFalse(fooRepository.compilePredicate(Foo.Fields.name + "==" + foo.getName() + ";" + newFieldName + "==other").test(foo));
+        });
+    }
+
     /**
      * We need control the transaction by ourselves because of "Auditing".
      */
@@ -115,6 +202,9 @@ public class SearchControllerTest extends IntegrationTest {
                     .getResponse()
                     .getHeader("Location"))
         );
+        Thread.sleep(20);
+        String beforeUpdate = LocalDateTime.now().toString();
+        Thread.sleep(20);
         //update the entity instance
         String name2 = RandomStringUtils.randomAlphanumeric(10);
         String newFieldValue2 = RandomStringUtils.randomAlphanumeric(10);
@@ -143,6 +233,28 @@ public class SearchControllerTest extends IntegrationTest {
                         .andExpect(jsonPath("$." + Foo.Fields.name).value(name1))
                         .andExpect(jsonPath("$." + newFieldName).value(newFieldValue1));
 
+                //verify search on the snapshot before the update, extension field included
+                mvc.perform(get("/foos/search/findByFilter")
+                        .param("filter", newFieldName + "==" + newFieldValue1)
+                        .param("asOf", beforeUpdate))
+                        .andExpect(status().isOk())
+                        .andExpect(jsonPath("$._embedded.foos.length()").value(1))
+                        .andExpect(jsonPath("$._embedded.foos[0]." + Foo.Fields.name).value(name1))
+                        .andExpect(jsonPath("$._embedded.foos[0]." + newFieldName).value(newFieldValue1));
+
+                //verify diff on server side, extension field included with its label
+                Long version = fooRepository.findById(Long.valueOf(fooLink.substring(fooLink.lastIndexOf('/') + 1)))
+                        .get().getVersion();
+                mvc.perform(get(fooLink + "/audits/diff")
+                        .param("from", String.valueOf(version - 1))
+                        .param("to", String.valueOf(version)))
+                        .andExpect(status().isOk())
+                        .andExpect(jsonPath("$.diffs.length()").value(1))
+                        .andExpect(jsonPath("$.diffs[0].changes.length()").value(2))
+                        .andExpect(jsonPath("$.diffs[0].changes[?(@.field == '" + newFieldName + "')].label").value("label of " + newFieldName))
+                        .andExpect(jsonPath("$.diffs[0].changes[?(@.field == '" + newFieldName + "')].from").value(newFieldValue1))
+                        .andExpect(jsonPath("$.diffs[0].changes[?(@.field == '" + newFieldName + "')].to").value(newFieldValue2));
+
                 // clean up
                 mvc.perform(delete(fooLink))
                         .andExpect(status().isNoContent());